@@ -24,8 +24,9 @@ public class DemoRequestContext {
 		rc.setMimeType("text/plain");
 		rc.setStatusCode(205);
 		rc.setStatusText("Idemo dalje");
-		// Only at this point will header be created and written...
 		rc.write("Čevapčići i Šiščevapčići.");
+		// Only at this point will header be created and written...
+		rc.finish();
 		os.close();
 	}
 
@@ -39,8 +40,9 @@ public class DemoRequestContext {
 		rc.setStatusText("Idemo dalje");
 		rc.addRCCookie(new RCCookie("korisnik", "perica", 3600, "127.0.0.1", "/", true));
 		rc.addRCCookie(new RCCookie("zgrada", "B4", null, null, "/", true));
-		// Only at this point will header be created and written...
 		rc.write("Čevapčići i Šiščevapčići.");
+		// Only at this point will header be created and written...
+		rc.finish();
 		os.close();
 	}
 }
@@ -23,6 +23,7 @@ public class BrojPozivaDemo {
 		persistentParameters.put("brojPoziva", "3");
 		RequestContext rc = new RequestContext(System.out, null, persistentParameters, null, null);
 		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		rc.finish();
 		System.out.println("Vrijednost u mapi: " + rc.getPersistentParameter("brojPoziva"));
 
 	}
@@ -17,9 +17,10 @@ public class FibonacciDemo {
 		
 		String documentBody = OsnovniDemo.readFromDisk("src/main/resources/fibonacci.smscr");
 		// create engine and execute it
-		new SmartScriptEngine(
-		new SmartScriptParser(documentBody).getDocumentNode(),
-		new RequestContext(System.out, null, null, null, null)).execute();
+		RequestContext rc = new RequestContext(System.out, null, null, null, null);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		// the answer is buffered until it is finished
+		rc.finish();
 
 	}
 	
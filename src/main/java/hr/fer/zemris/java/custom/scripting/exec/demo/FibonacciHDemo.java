@@ -18,8 +18,10 @@ public class FibonacciHDemo {
 
 		String documentBody = OsnovniDemo.readFromDisk("src/main/resources/fibonaccih.smscr");
 		// create engine and execute it
-		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(),
-				new RequestContext(System.out, null, null, null, null)).execute();
+		RequestContext rc = new RequestContext(System.out, null, null, null, null);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		// the answer is buffered until it is finished
+		rc.finish();
 
 	}
 
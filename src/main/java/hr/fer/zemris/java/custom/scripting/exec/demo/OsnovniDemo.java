@@ -22,8 +22,10 @@ public class OsnovniDemo {
 
 		String documentBody = readFromDisk("src/main/resources/osnovni.smscr");
 		// create engine and execute it
-		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(),
-				new RequestContext(System.out, null, null, null, null)).execute();
+		RequestContext rc = new RequestContext(System.out, null, null, null, null);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		// the answer is buffered until it is finished
+		rc.finish();
 
 	}
 
@@ -23,8 +23,10 @@ public class ZbrajanjeDemo {
 		parameters.put("a", "4");
 		parameters.put("b", "2");
 		// create engine and execute it
-		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(),
-				new RequestContext(System.out, parameters, null, null, null)).execute();
+		RequestContext rc = new RequestContext(System.out, parameters, null, null, null);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		// the answer is buffered until it is finished
+		rc.finish();
 
 	}
 
@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A server-wide pool of byte arrays used for reading requests and writing
+ * answers, so that the buffers are reused by the following requests instead of
+ * becoming garbage after every request.
+ * <p>
+ * The arrays are pooled in size classes, the powers of two from
+ * {@value #MIN_SIZE} to {@value #MAX_SIZE} bytes. Every class keeps at most a
+ * fixed number of arrays in slots which are taken and filled with atomic
+ * operations, so the pool is shared by all threads without locking and without
+ * allocating. An array of any other size is allocated when it is asked for and
+ * dropped when it is returned, as well as the arrays returned to a full class.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class BufferPool {
+	/** size of the smallest pooled arrays */
+	public static final int MIN_SIZE = 512;
+	/** size of the largest pooled arrays */
+	public static final int MAX_SIZE = 64 * 1024;
+	/** the default number of arrays kept in every size class */
+	public static final int DEFAULT_BUFFERS_PER_SIZE = 64;
+
+	/** slots of the arrays by size classes, an empty slot holds <code>null</code> */
+	private final AtomicReferenceArray<byte[]>[] classes;
+
+	/**
+	 * Constructor which keeps the default number of arrays of every size.
+	 */
+	public BufferPool() {
+		this(DEFAULT_BUFFERS_PER_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buffersPerSize maximum number of arrays kept in every size class, 0
+	 *                       disables the pooling
+	 * @throws IllegalArgumentException if <code>buffersPerSize</code> is negative
+	 */
+	public BufferPool(int buffersPerSize) {
+		if (buffersPerSize < 0) {
+			throw new IllegalArgumentException("Number of pooled buffers must not be negative, was: " + buffersPerSize);
+		}
+		// the array is private and only ever holds slots of byte arrays
+		@SuppressWarnings("unchecked")
+		AtomicReferenceArray<byte[]>[] classes = (AtomicReferenceArray<byte[]>[]) new AtomicReferenceArray<?>[sizeClass(MAX_SIZE) + 1];
+		this.classes = classes;
+		for (int i = 0; i < classes.length; ++i) {
+			classes[i] = new AtomicReferenceArray<>(buffersPerSize);
+		}
+	}
+
+	/**
+	 * Takes an array of the given size from the pool, or allocates one if there
+	 * is none. The contents of a pooled array are left as they were.
+	 *
+	 * @param size of the array
+	 * @return array of exactly <code>size</code> bytes
+	 */
+	public byte[] acquire(int size) {
+		int sizeClass = sizeClass(size);
+		if (sizeClass != -1) {
+			AtomicReferenceArray<byte[]> slots = classes[sizeClass];
+			int n = slots.length();
+			int start = firstSlot(n);
+			for (int i = 0; i < n; ++i) {
+				int index = (start + i) % n;
+				// the slot is read before it is taken so that empty slots are not written
+				if (slots.get(index) != null) {
+					byte[] buffer = slots.getAndSet(index, null);
+					if (buffer != null)
+						return buffer;
+				}
+			}
+		}
+		return new byte[size];
+	}
+
+	/**
+	 * Returns the given array to the pool. The array must not be used by the
+	 * caller afterwards.
+	 *
+	 * @param buffer to return, ignored if <code>null</code>
+	 */
+	public void release(byte[] buffer) {
+		if (buffer == null)
+			return;
+		int sizeClass = sizeClass(buffer.length);
+		if (sizeClass == -1)
+			return;
+
+		AtomicReferenceArray<byte[]> slots = classes[sizeClass];
+		int n = slots.length();
+		int start = firstSlot(n);
+		for (int i = 0; i < n; ++i) {
+			int index = (start + i) % n;
+			if (slots.get(index) == null && slots.compareAndSet(index, null, buffer))
+				return;
+		}
+		// the class is full, so the array is left to the garbage collector
+	}
+
+	/**
+	 * Returns the index of the size class of arrays of the given size.
+	 *
+	 * @param size of an array
+	 * @return index of the class, -1 if arrays of that size are not pooled
+	 */
+	private static int sizeClass(int size) {
+		if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1)
+			return -1;
+		return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+
+	/**
+	 * Returns the slot at which the current thread starts searching a size class,
+	 * so that the threads mostly work on different slots.
+	 *
+	 * @param n number of slots
+	 * @return index of the first slot
+	 */
+	private static int firstSlot(int n) {
+		return n == 0 ? 0 : (int) (Thread.currentThread().getId() % n);
+	}
+
+}
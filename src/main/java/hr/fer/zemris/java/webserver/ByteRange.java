@@ -0,0 +1,121 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes of a resource requested through the HTTP
+ * <code>Range</code> header, such as <code>bytes=0-499</code>. Both bounds are
+ * inclusive.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ByteRange {
+	/** the unit of the only supported ranges */
+	private static final String BYTES_UNIT = "bytes=";
+
+	/** index of the first byte of the range */
+	private long start;
+	/** index of the last byte of the range */
+	private long end;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param start index of the first byte of the range
+	 * @param end   index of the last byte of the range
+	 */
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Getter for <code>start</code>
+	 *
+	 * @return index of the first byte of the range
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Getter for <code>end</code>
+	 *
+	 * @return index of the last byte of the range
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Returns the number of bytes in this range.
+	 *
+	 * @return length of the range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * Returns the value of the <code>Content-Range</code> header of this range.
+	 *
+	 * @param size of the whole resource
+	 * @return content range, e.g. "bytes 0-499/1234"
+	 */
+	public String toContentRange(long size) {
+		return "bytes " + start + "-" + end + "/" + size;
+	}
+
+	/**
+	 * Parses the value of a <code>Range</code> header for a resource of the given
+	 * <code>size</code>. Ranges which start after the end of the resource are left
+	 * out and the ones which exceed it are shortened.
+	 *
+	 * @param value of the header, e.g. "bytes=0-499, -500"
+	 * @param size  of the resource
+	 * @return satisfiable ranges in the requested order (an empty list if none of
+	 *         them is), or <code>null</code> if the value is not valid and the
+	 *         header should be ignored
+	 */
+	public static List<ByteRange> parse(String value, long size) {
+		if (!value.startsWith(BYTES_UNIT))
+			return null;
+
+		List<ByteRange> ranges = new ArrayList<>();
+		for (String spec : value.substring(BYTES_UNIT.length()).split(",")) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash == -1)
+				return null;
+
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				if (first.isEmpty()) {
+					// a suffix range of the last n bytes
+					long suffix = Long.parseLong(last);
+					if (suffix < 0)
+						return null;
+					if (suffix > 0 && size > 0) {
+						ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+					}
+					continue;
+				}
+
+				long start = Long.parseLong(first);
+				long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+				if (start < 0 || end < start)
+					return null;
+				if (start < size) {
+					ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return ranges;
+	}
+
+}
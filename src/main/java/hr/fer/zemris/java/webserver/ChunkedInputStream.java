@@ -0,0 +1,158 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which decodes a request body sent in the HTTP/1.1 chunked
+ * transfer encoding, the counterpart of the {@link ChunkedOutputStream}. It
+ * ends after the last chunk and the trailer, leaving the following bytes of the
+ * underlying stream to the next request. Chunk extensions and trailer fields
+ * are ignored.
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ChunkedInputStream extends FilterInputStream {
+	/** the maximum length of a chunk size line or of a trailer line */
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	/** number of bytes of the current chunk which were not read yet */
+	private long remaining;
+	/** A flag indicating that the last chunk and the trailer were read */
+	private boolean finished;
+	/** buffer of a single read byte */
+	private final byte[] single = new byte[1];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in stream from which the chunked body is read
+	 */
+	public ChunkedInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+	}
+
+	/**
+	 * @throws EOFException if the underlying stream ends before the body
+	 * @throws IOException  if the chunks are malformed
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return finished ? -1 : 0;
+		if (remaining == 0 && !nextChunk())
+			return -1;
+
+		int read = in.read(b, off, (int) Math.min(len, remaining));
+		if (read == -1) {
+			throw new EOFException("The chunked body ended too early.");
+		}
+		remaining -= read;
+		if (remaining == 0) {
+			// every chunk ends with a line separator
+			if (readLine().length() != 0) {
+				throw new IOException("Chunk is longer than its size.");
+			}
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] b = new byte[(int) Math.min(n, 2048)];
+		long skipped = 0;
+		while (skipped < n) {
+			int read = read(b, 0, (int) Math.min(b.length, n - skipped));
+			if (read == -1)
+				break;
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the connection stays open for the next request
+	}
+
+	/**
+	 * Reads the size line of the next chunk, and the trailer if it is the last
+	 * chunk.
+	 *
+	 * @return <code>true</code> if there is a chunk with data,
+	 *         <code>false</code> if the body ended
+	 * @throws IOException if the size line is malformed
+	 */
+	private boolean nextChunk() throws IOException {
+		if (finished)
+			return false;
+
+		String line = readLine();
+		int extension = line.indexOf(';');
+		String size = (extension == -1 ? line : line.substring(0, extension)).trim();
+		try {
+			remaining = Long.parseLong(size, 16);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid chunk size: " + size);
+		}
+		if (remaining < 0) {
+			throw new IOException("Invalid chunk size: " + size);
+		}
+		if (remaining > 0)
+			return true;
+
+		// the trailer ends with an empty line
+		while (readLine().length() != 0) {
+		}
+		finished = true;
+		return false;
+	}
+
+	/**
+	 * Reads a line of the chunk framing from the underlying stream.
+	 *
+	 * @return the line without the line separator
+	 * @throws IOException if the line is too long or the stream ended
+	 */
+	private String readLine() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			int b = in.read();
+			if (b == -1) {
+				throw new EOFException("The chunked body ended too early.");
+			}
+			if (b == '\n')
+				break;
+			if (sb.length() == MAX_LINE_LENGTH) {
+				throw new IOException("Chunk line too long.");
+			}
+			sb.append((char) b);
+		}
+		int length = sb.length();
+		if (length > 0 && sb.charAt(length - 1) == '\r') {
+			sb.setLength(length - 1);
+		}
+		return sb.toString();
+	}
+
+}
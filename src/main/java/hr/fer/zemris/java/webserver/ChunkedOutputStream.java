@@ -0,0 +1,197 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An output stream which frames everything written to it in the HTTP/1.1
+ * chunked transfer encoding. Small writes are collected in a chunk buffer and
+ * a chunk is sent whenever the buffer fills up, when the stream is flushed and
+ * when {@link #finish()} writes the terminating zero-length chunk. That way a
+ * long body is streamed to the client without holding all of it in memory and
+ * without framing every small write in a chunk of its own.
+ * <p>
+ * Finishing (or closing) this stream does not close the underlying stream,
+ * so the connection can be reused for the next request.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+	/** line separator of the chunk framing */
+	private static final byte[] CRLF = { '\r', '\n' };
+	/** the last chunk and an empty trailer */
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+	/** the default size of the chunk buffer */
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+	/** A flag indicating that the last chunk was written */
+	private boolean finished;
+	/** the buffer collecting the data of the next chunk */
+	private byte[] buffer;
+	/** number of bytes in the buffer */
+	private int count;
+
+	/**
+	 * Constructor which uses the default chunk size.
+	 *
+	 * @param out stream to which the chunks are written
+	 */
+	public ChunkedOutputStream(OutputStream out) {
+		this(out, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out       stream to which the chunks are written
+	 * @param chunkSize size of the chunk buffer
+	 * @throws IllegalArgumentException if <code>chunkSize</code> is not positive
+	 */
+	public ChunkedOutputStream(OutputStream out, int chunkSize) {
+		super(out);
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive, was: " + chunkSize);
+		}
+		buffer = new byte[chunkSize];
+	}
+
+	/**
+	 * Constructor which collects the chunks in the given buffer, so the size of
+	 * the chunks is the length of the buffer. The buffer is not used after the
+	 * stream is finished.
+	 *
+	 * @param out    stream to which the chunks are written
+	 * @param buffer collecting the data of a chunk
+	 * @throws IllegalArgumentException if the <code>buffer</code> is empty
+	 */
+	public ChunkedOutputStream(OutputStream out, byte[] buffer) {
+		super(out);
+		if (buffer.length == 0) {
+			throw new IllegalArgumentException("Chunk buffer must not be empty.");
+		}
+		this.buffer = buffer;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkFinished();
+		if (count == buffer.length) {
+			sendBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkFinished();
+		if (count + len <= buffer.length) {
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+			if (count == buffer.length) {
+				sendBuffer();
+			}
+			return;
+		}
+
+		// fill up the buffered chunk first, so the chunks are as large as possible
+		if (count > 0) {
+			int n = buffer.length - count;
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+			sendBuffer();
+		}
+		// whole chunks are sent directly from the given array
+		if (len >= buffer.length) {
+			int n = len - len % buffer.length;
+			writeChunk(b, off, n);
+			out.flush();
+			off += n;
+			len -= n;
+		}
+		System.arraycopy(b, off, buffer, 0, len);
+		count = len;
+	}
+
+	/**
+	 * Sends the buffered data as a chunk and flushes the underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (count > 0) {
+			sendBuffer();
+		} else {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Sends the buffered data, writes the last chunk and flushes the underlying
+	 * stream. Has no effect if the stream is already finished.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		// the last data chunk and the terminating chunk go out together
+		writeChunk(buffer, 0, count);
+		count = 0;
+		finished = true;
+		out.write(LAST_CHUNK);
+		out.flush();
+	}
+
+	/**
+	 * Sends the buffered data as a chunk and flushes the underlying stream, so
+	 * that the client receives it right away.
+	 *
+	 * @throws IOException
+	 */
+	private void sendBuffer() throws IOException {
+		writeChunk(buffer, 0, count);
+		count = 0;
+		out.flush();
+	}
+
+	/**
+	 * Writes the given bytes as a single chunk to the underlying stream.
+	 *
+	 * @param b   bytes of the chunk
+	 * @param off offset of the chunk in <code>b</code>
+	 * @param len length of the chunk
+	 * @throws IOException
+	 */
+	private void writeChunk(byte[] b, int off, int len) throws IOException {
+		// a chunk of length 0 would mark the end of the body
+		if (len == 0)
+			return;
+
+		out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+		out.write(CRLF);
+		out.write(b, off, len);
+		out.write(CRLF);
+	}
+
+	/**
+	 * Checks that the last chunk was not written yet.
+	 *
+	 * @throws IOException if the stream is finished
+	 */
+	private void checkFinished() throws IOException {
+		if (finished) {
+			throw new IOException("Chunked stream already finished.");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+
+}
@@ -0,0 +1,191 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * An {@link ISessionStore} backed by a {@link ConcurrentHashMap}. Looking up,
+ * extending and creating a session never take a lock shared by all the
+ * requests: a lookup does not lock at all, a session is extended with a single
+ * volatile write and a new session locks only its bin of the map. An expired
+ * session is removed only if it is still mapped to its ID, so a request never
+ * removes a session another request has just created, and the expiry thread
+ * removes a session only once it finds it expired, so a live session is never
+ * missing from the map.
+ * <p>
+ * The expiry times of the sessions are kept in a {@link SessionExpiryWheel} of
+ * {@value #WHEEL_SLOTS} ticks of at least {@value #MIN_TICK} milliseconds,
+ * which spans twice the timeout of a session, so {@link #removeExpired()}
+ * removes the sessions which expired since its last call by visiting only the
+ * ticks which passed, and an expired session stays in the store for at most a
+ * tick. As every session expires within half a turn of the wheel, the wheel
+ * also keeps the sessions in the order of their last use.
+ * <p>
+ * The store can be bounded by the number of sessions and by the estimated
+ * memory they take (see {@link Session#getSize()}). Once a new session or the
+ * expiry thread finds the store over a bound, the least recently used sessions
+ * are evicted from the wheel until it is within the bounds again. Only one
+ * thread evicts at a time, while the others continue without waiting for it.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ConcurrentSessionStore implements ISessionStore {
+	/** number of slots of the expiry wheel */
+	private static final int WHEEL_SLOTS = 512;
+	/** the shortest tick (in milliseconds) of the expiry wheel */
+	private static final long MIN_TICK = 1000;
+
+	/** the sessions by their IDs */
+	private ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+	/** how long (in milliseconds) is a session valid after it was used */
+	private long timeout;
+	/** the maximum number of sessions, -1 if unlimited */
+	private int maxSessions;
+	/** the maximum estimated size (in bytes) of all sessions, -1 if unlimited */
+	private long maxSize;
+	/** the generator of session IDs */
+	private SessionIdGenerator idGenerator = new SessionIdGenerator();
+	/** the wheel of the expiry times of the sessions */
+	private SessionExpiryWheel expiryWheel;
+	/** the estimated size (in bytes) of all sessions */
+	private LongAdder size = new LongAdder();
+	/** takes the changes of the sizes of the sessions */
+	private LongConsumer sizeListener = size::add;
+	/** the lock held by the thread which evicts sessions */
+	private ReentrantLock evictionLock = new ReentrantLock();
+	/** number of evicted sessions */
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructor of an unbounded store.
+	 *
+	 * @param timeout how long (in seconds) is a session valid after it was used
+	 */
+	public ConcurrentSessionStore(int timeout) {
+		this(timeout, -1, -1);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param timeout     how long (in seconds) is a session valid after it was
+	 *                    used
+	 * @param maxSessions the maximum number of sessions, -1 if unlimited
+	 * @param maxSize     the maximum estimated size (in bytes) of all sessions,
+	 *                    -1 if unlimited
+	 */
+	public ConcurrentSessionStore(int timeout, int maxSessions, long maxSize) {
+		this.timeout = timeout * 1000L;
+		this.maxSessions = maxSessions;
+		this.maxSize = maxSize;
+		long tick = Math.max(MIN_TICK, 2 * this.timeout / WHEEL_SLOTS + 1);
+		this.expiryWheel = new SessionExpiryWheel(WHEEL_SLOTS, tick, System.currentTimeMillis());
+	}
+
+	@Override
+	public Session get(String sid, String host) {
+		Session session = sessions.get(sid);
+		if (session == null || !session.getHost().equals(host))
+			return null;
+
+		long currentTime = System.currentTimeMillis();
+		if (session.isExpired(currentTime)) {
+			remove(session);
+			return null;
+		}
+		session.touch(currentTime + timeout);
+		// the expiry thread may have removed it just before it was extended
+		if (sessions.get(sid) != session)
+			return null;
+		return session;
+	}
+
+	@Override
+	public Session create(String host) {
+		while (true) {
+			Session session = new Session(idGenerator.nextId(), host, System.currentTimeMillis() + timeout);
+			if (sessions.putIfAbsent(session.getId(), session) == null) {
+				session.setSizeListener(sizeListener);
+				expiryWheel.schedule(session);
+				evictIfFull();
+				return session;
+			}
+		}
+	}
+
+	@Override
+	public void removeExpired() {
+		long currentTime = System.currentTimeMillis();
+		expiryWheel.advance(currentTime, session -> {
+			// a request may have extended it meanwhile, and a live session is never
+			// taken out of the map
+			if (!session.isExpired(System.currentTimeMillis())) {
+				expiryWheel.schedule(session);
+				return;
+			}
+			remove(session);
+		});
+		// the sessions may have grown over the bound since the last session was created
+		evictIfFull();
+	}
+
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public long getEstimatedSize() {
+		return size.sum();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Removes the given session if it is still in the store.
+	 *
+	 * @param session to remove
+	 * @return <code>true</code> if the session was removed
+	 */
+	private boolean remove(Session session) {
+		if (!sessions.remove(session.getId(), session))
+			return false;
+		session.setSizeListener(null);
+		return true;
+	}
+
+	/**
+	 * Checks if the store is over one of its bounds.
+	 *
+	 * @return <code>true</code> if sessions should be evicted
+	 */
+	private boolean isFull() {
+		return (maxSessions >= 0 && sessions.size() > maxSessions) || (maxSize >= 0 && size.sum() > maxSize);
+	}
+
+	/**
+	 * Evicts the least recently used sessions while the store is over one of its
+	 * bounds, unless another thread is already evicting them.
+	 */
+	private void evictIfFull() {
+		if (!isFull() || !evictionLock.tryLock())
+			return;
+		try {
+			expiryWheel.evict(this::isFull, session -> {
+				if (remove(session)) {
+					evictions.increment();
+				}
+			});
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream of a request body whose length was sent in the
+ * <code>Content-Length</code> header. It ends after the given number of bytes,
+ * leaving the following bytes of the underlying stream to the next request.
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ContentLengthInputStream extends FilterInputStream {
+	/** number of bytes of the body which were not read yet */
+	private long remaining;
+	/** buffer of a single read byte */
+	private final byte[] single = new byte[1];
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in     stream from which the body is read
+	 * @param length of the body
+	 * @throws IllegalArgumentException if the <code>length</code> is negative
+	 */
+	public ContentLengthInputStream(InputStream in, long length) {
+		super(in);
+		if (length < 0) {
+			throw new IllegalArgumentException("Length must not be negative, was: " + length);
+		}
+		this.remaining = length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+	}
+
+	/**
+	 * @throws EOFException if the underlying stream ends before the body
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining == 0)
+			return -1;
+		if (len == 0)
+			return 0;
+
+		int read = in.read(b, off, (int) Math.min(len, remaining));
+		if (read == -1) {
+			throw new EOFException("The body ended " + remaining + " bytes too early.");
+		}
+		remaining -= read;
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// the connection stays open for the next request
+	}
+
+}
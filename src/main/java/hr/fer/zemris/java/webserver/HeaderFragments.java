@@ -0,0 +1,187 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-encoded fragments of answer headers, so that the common parts of a header
+ * are copied to the output instead of being formatted and encoded for every
+ * answer. The <code>Date</code> header is encoded once per second.
+ *
+ * @author Vedran Kolka
+ *
+ */
+final class HeaderFragments {
+	/** line separator of the header */
+	static final byte[] CRLF = encode("\r\n");
+	/** the header field naming the server */
+	static final byte[] SERVER = encode("Server: SmartHttpServer\r\n");
+	/** start of the Content-Length header field */
+	static final byte[] CONTENT_LENGTH = encode("Content-Length: ");
+	/** the header field of a chunked body */
+	static final byte[] TRANSFER_ENCODING_CHUNKED = encode("Transfer-Encoding: chunked\r\n");
+	/** the header field of a body varying by the accepted encodings */
+	static final byte[] VARY_ACCEPT_ENCODING = encode("Vary: Accept-Encoding\r\n");
+	/** the header field of a gzip compressed body */
+	static final byte[] CONTENT_ENCODING_GZIP = encode("Content-Encoding: gzip\r\n");
+	/** the header field of a persistent connection */
+	static final byte[] CONNECTION_KEEP_ALIVE = encode("Connection: keep-alive\r\n");
+	/** the header field of a connection which is closed after the answer */
+	static final byte[] CONNECTION_CLOSE = encode("Connection: close\r\n");
+	/** the interim answer asking the client to send the request body */
+	static final byte[] CONTINUE = encode("HTTP/1.1 100 Continue\r\n\r\n");
+	/** the encoding whose content types are cached */
+	static final String DEFAULT_ENCODING = "UTF-8";
+
+	/** the maximum number of cached content types */
+	private static final int MAX_CONTENT_TYPES = 64;
+	/** status lines of the common answers of this server */
+	private static final StatusLine[] STATUS_LINES = { new StatusLine(200, "OK"),
+			new StatusLine(206, "Partial Content"), new StatusLine(304, "Not Modified"),
+			new StatusLine(400, "Bad request"), new StatusLine(403, "forbidden"),
+			new StatusLine(404, "file not found"), new StatusLine(416, "Range Not Satisfiable") };
+	/** Content-Type header fields of the default encoding by mime types */
+	private static final Map<String, byte[]> CONTENT_TYPES = new ConcurrentHashMap<>();
+	/** the Date header field of the current second */
+	private static volatile CachedDate cachedDate;
+
+	/**
+	 * A pre-encoded status line.
+	 */
+	private static class StatusLine {
+		/** status code */
+		final int code;
+		/** status text */
+		final String text;
+		/** the encoded line */
+		final byte[] bytes;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param code status code
+		 * @param text status text
+		 */
+		StatusLine(int code, String text) {
+			this.code = code;
+			this.text = text;
+			this.bytes = encodeStatusLine(code, text);
+		}
+	}
+
+	/**
+	 * The Date header field encoded for a second.
+	 */
+	private static class CachedDate {
+		/** the second since the epoch */
+		final long second;
+		/** the encoded header field */
+		final byte[] bytes;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param second since the epoch
+		 */
+		CachedDate(long second) {
+			this.second = second;
+			this.bytes = encode("Date: " + HttpDates.format(second * 1000) + "\r\n");
+		}
+	}
+
+	/**
+	 * Disables instantiation.
+	 */
+	private HeaderFragments() {
+	}
+
+	/**
+	 * Returns the encoded status line of the given status.
+	 *
+	 * @param code status code
+	 * @param text status text
+	 * @return encoded status line, including the line separator
+	 */
+	static byte[] statusLine(int code, String text) {
+		for (StatusLine line : STATUS_LINES) {
+			if (line.code == code && line.text.equals(text))
+				return line.bytes;
+		}
+		return encodeStatusLine(code, text);
+	}
+
+	/**
+	 * Returns the encoded Content-Type header field of the given mime type. The
+	 * charset is added to text types.
+	 *
+	 * @param mimeType of the body
+	 * @param encoding of the body if it is text
+	 * @return encoded header field, including the line separator
+	 */
+	static byte[] contentType(String mimeType, String encoding) {
+		if (!DEFAULT_ENCODING.equals(encoding))
+			return encodeContentType(mimeType, encoding);
+
+		byte[] bytes = CONTENT_TYPES.get(mimeType);
+		if (bytes == null) {
+			bytes = encodeContentType(mimeType, encoding);
+			// mime types set by the workers should not fill up the memory
+			if (CONTENT_TYPES.size() < MAX_CONTENT_TYPES) {
+				CONTENT_TYPES.put(mimeType, bytes);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the encoded Date header field of the given time, which is shared by
+	 * all answers within the same second.
+	 *
+	 * @param currentTime time in milliseconds
+	 * @return encoded header field, including the line separator
+	 */
+	static byte[] date(long currentTime) {
+		long second = currentTime / 1000;
+		CachedDate date = cachedDate;
+		if (date == null || date.second != second) {
+			date = new CachedDate(second);
+			cachedDate = date;
+		}
+		return date.bytes;
+	}
+
+	/**
+	 * Encodes a status line.
+	 *
+	 * @param code status code
+	 * @param text status text
+	 * @return encoded status line
+	 */
+	private static byte[] encodeStatusLine(int code, String text) {
+		return encode("HTTP/1.1 " + code + " " + text + "\r\n");
+	}
+
+	/**
+	 * Encodes a Content-Type header field.
+	 *
+	 * @param mimeType of the body
+	 * @param encoding of the body if it is text
+	 * @return encoded header field
+	 */
+	private static byte[] encodeContentType(String mimeType, String encoding) {
+		String value = mimeType.startsWith("text/") ? mimeType + "; charset=" + encoding : mimeType;
+		return encode("Content-Type: " + value + "\r\n");
+	}
+
+	/**
+	 * Encodes the given string in ISO-8859-1, the encoding of HTTP headers.
+	 *
+	 * @param s to encode
+	 * @return encoded bytes
+	 */
+	private static byte[] encode(String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+}
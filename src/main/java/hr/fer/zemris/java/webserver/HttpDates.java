@@ -0,0 +1,53 @@
+package hr.fer.zemris.java.webserver;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Utility methods for the dates used in HTTP headers, such as
+ * <code>Last-Modified</code> and <code>If-Modified-Since</code>, which are
+ * written in the IMF-fixdate format of RFC 7231 in GMT.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class HttpDates {
+
+	/**
+	 * the formatter of IMF-fixdates, which unlike RFC 1123 dates always have a
+	 * two digit day
+	 */
+	private static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter
+			.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	/**
+	 * Formats the given time as an HTTP date.
+	 *
+	 * @param millis time in milliseconds since the epoch
+	 * @return formatted date, e.g. "Tue, 03 Jun 2008 11:05:30 GMT"
+	 */
+	public static String format(long millis) {
+		return IMF_FIXDATE.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * Parses the given HTTP date. Dates with a one digit day are accepted as
+	 * well.
+	 *
+	 * @param date to parse
+	 * @return the time in milliseconds since the epoch, or -1 if the date is
+	 *         not valid
+	 */
+	public static long parse(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+}
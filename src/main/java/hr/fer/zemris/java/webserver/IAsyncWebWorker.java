@@ -0,0 +1,50 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An {@link IWebWorker} which answers asynchronously. The returned future
+ * completes once the whole answer is written to the context, so the worker can
+ * keep writing to the context after {@link #processRequestAsync(RequestContext)}
+ * returns, e.g. from a thread of its own. Meanwhile the thread of the server is
+ * free to serve other connections. The server finishes the answer only when the
+ * future completes.
+ * <p>
+ * When the server cannot wait asynchronously, e.g. when the worker is called
+ * from a smart script, the worker is called through
+ * {@link #processRequest(RequestContext)} which waits for the future.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public interface IAsyncWebWorker extends IWebWorker {
+
+	/**
+	 * Starts processing the request in the given <code>context</code>.
+	 *
+	 * @param context to write the answer to, until the returned future completes
+	 * @return future which completes when the answer is written, or completes
+	 *         exceptionally if the processing failed
+	 * @throws Exception if the processing could not be started
+	 */
+	public CompletableFuture<Void> processRequestAsync(RequestContext context) throws Exception;
+
+	/**
+	 * Processes the request in the given <code>context</code> by waiting for the
+	 * asynchronous processing to complete.
+	 *
+	 * @param context
+	 * @throws Exception
+	 */
+	@Override
+	default void processRequest(RequestContext context) throws Exception {
+		try {
+			processRequestAsync(context).get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * A store of the sessions of a server. A store is used by all the threads of
+ * the server at once, so it must be thread-safe.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public interface ISessionStore {
+
+	/**
+	 * Returns the valid session with the given ID for the given host and extends
+	 * it for another timeout. An expired session is removed.
+	 *
+	 * @param sid  session ID sent by the client
+	 * @param host name of the server the client requested
+	 * @return the session, or <code>null</code> if there is no valid session with
+	 *         the <code>sid</code> for the <code>host</code>
+	 */
+	Session get(String sid, String host);
+
+	/**
+	 * Creates a new session with a new unique ID and adds it to the store.
+	 *
+	 * @param host name of the server the client requested
+	 * @return created session
+	 */
+	Session create(String host);
+
+	/**
+	 * Removes the expired sessions. The server calls it regularly from a thread
+	 * of its own, so it should remove the sessions which expired since the
+	 * previous call without blocking the requests.
+	 */
+	void removeExpired();
+
+	/**
+	 * Returns the number of sessions in the store.
+	 *
+	 * @return number of sessions, including the expired ones which were not
+	 *         removed yet
+	 */
+	int size();
+
+	/**
+	 * Returns the estimated memory taken by the sessions in the store.
+	 *
+	 * @return the sum of the estimated sizes (in bytes) of the sessions
+	 */
+	long getEstimatedSize();
+
+	/**
+	 * Returns the number of sessions evicted from the store before they expired
+	 * because the store was full.
+	 *
+	 * @return number of evicted sessions
+	 */
+	long getEvictionCount();
+
+}
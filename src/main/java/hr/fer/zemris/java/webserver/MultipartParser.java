@@ -0,0 +1,303 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A streaming parser of a <code>multipart/form-data</code> request body. The
+ * parts are read one after another straight from the stream of the body
+ * through a single buffer, so a part is never held in memory as a whole. The
+ * body of a part ends where the buffer holds the delimiter, a line separator
+ * followed by two dashes and the boundary, and only the bytes which can not be
+ * the beginning of a delimiter are handed out.
+ * <p>
+ * The preamble before the first part and the epilogue after the last part are
+ * ignored.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class MultipartParser {
+	/** the longest boundary allowed by the specification */
+	public static final int MAX_BOUNDARY_LENGTH = 70;
+	/** the maximum size of the header of a part */
+	private static final int MAX_PART_HEADER_SIZE = 8192;
+
+	/** stream of the body */
+	private InputStream in;
+	/** the delimiter preceding every part */
+	private byte[] delimiter;
+	/** buffer of the read bytes of the body */
+	private byte[] buffer;
+	/** index of the first unused byte in the buffer */
+	private int position;
+	/** number of bytes in the buffer */
+	private int limit;
+	/**
+	 * A flag indicating that the body of the current part was read to its end,
+	 * the preamble is read like the body of a part
+	 */
+	private boolean partEnded;
+	/** A flag indicating that the last part was read */
+	private boolean finished;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in       stream of the body
+	 * @param boundary of the parts, from the <code>Content-Type</code> of the body
+	 * @param buffer   through which the body is read, which must be able to hold a
+	 *                 line of a part header
+	 * @throws IllegalArgumentException if the <code>boundary</code> is empty or
+	 *                                  too long, or if the <code>buffer</code> is
+	 *                                  too small
+	 */
+	public MultipartParser(InputStream in, String boundary, byte[] buffer) {
+		if (boundary.isEmpty() || boundary.length() > MAX_BOUNDARY_LENGTH) {
+			throw new IllegalArgumentException("Invalid boundary: " + boundary);
+		}
+		if (buffer.length < 4 * MAX_BOUNDARY_LENGTH) {
+			throw new IllegalArgumentException("Buffer too small: " + buffer.length);
+		}
+		this.in = in;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		this.buffer = buffer;
+		// the first delimiter is not preceded by a line separator unless there is a
+		// preamble, so one is assumed in front of the body
+		buffer[0] = '\r';
+		buffer[1] = '\n';
+		limit = 2;
+	}
+
+	/**
+	 * Skips the rest of the current part and reads the header of the next part.
+	 *
+	 * @return fields of the header of the next part by their names in lower case,
+	 *         or <code>null</code> if there are no more parts
+	 * @throws EOFException if the body ends before its last part
+	 * @throws IOException  if the body is malformed
+	 */
+	public Map<String, String> nextPart() throws IOException {
+		if (finished)
+			return null;
+		while (!partEnded) {
+			// the part may end within partBytes(), which then moves the position
+			int skipped = partBytes();
+			position += skipped;
+		}
+
+		// the delimiter is followed by two dashes after the last part
+		require(2);
+		if (buffer[position] == '-' && buffer[position + 1] == '-') {
+			finished = true;
+			return null;
+		}
+		if (!readLine().isBlank()) {
+			throw new IOException("Malformed multipart delimiter.");
+		}
+
+		Map<String, String> header = new HashMap<>();
+		int headerSize = 0;
+		String line;
+		while (!(line = readLine()).isEmpty()) {
+			headerSize += line.length();
+			if (headerSize > MAX_PART_HEADER_SIZE) {
+				throw new IOException("Part header too large.");
+			}
+			int colon = line.indexOf(':');
+			if (colon == -1) {
+				throw new IOException("Malformed part header line: " + line);
+			}
+			header.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+		}
+		partEnded = false;
+		return header;
+	}
+
+	/**
+	 * Writes the body of the current part to the given stream, unless it is
+	 * longer than <code>max</code> bytes.
+	 *
+	 * @param out stream to which the body is written
+	 * @param max maximum number of written bytes
+	 * @return number of written bytes, or -1 if the part is longer than
+	 *         <code>max</code>, in which case only a part of it was written
+	 * @throws EOFException if the body ends before its last part
+	 * @throws IOException  if writing to <code>out</code> fails
+	 */
+	public long transferPart(OutputStream out, long max) throws IOException {
+		long transferred = 0;
+		int n;
+		while ((n = partBytes()) > 0) {
+			if (n > max - transferred)
+				return -1;
+			out.write(buffer, position, n);
+			position += n;
+			transferred += n;
+		}
+		return transferred;
+	}
+
+	/**
+	 * Returns the number of bytes of the body of the current part which are in
+	 * the buffer starting at <code>position</code>, reading the body if there are
+	 * none. If the part ends at <code>position</code>, its delimiter is skipped.
+	 *
+	 * @return number of bytes of the part, 0 if the part ended
+	 * @throws EOFException if the body ends before its last part
+	 * @throws IOException
+	 */
+	private int partBytes() throws IOException {
+		if (partEnded)
+			return 0;
+		while (true) {
+			int index = indexOfDelimiter();
+			if (index == position) {
+				position += delimiter.length;
+				partEnded = true;
+				return 0;
+			}
+			if (index != -1)
+				return index - position;
+			// the last bytes may be the beginning of a delimiter
+			int safe = limit - position - (delimiter.length - 1);
+			if (safe > 0)
+				return safe;
+			if (!fill()) {
+				throw new EOFException("The multipart body ended before its last part.");
+			}
+		}
+	}
+
+	/**
+	 * Finds the first whole delimiter in the buffer.
+	 *
+	 * @return index of the delimiter, -1 if there is none
+	 */
+	private int indexOfDelimiter() {
+		int last = limit - delimiter.length;
+		search: for (int i = position; i <= last; ++i) {
+			if (buffer[i] != '\r')
+				continue;
+			for (int j = 1; j < delimiter.length; ++j) {
+				if (buffer[i + j] != delimiter[j])
+					continue search;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a line of a part header.
+	 *
+	 * @return the line without the line separator
+	 * @throws EOFException if the body ends before its last part
+	 * @throws IOException  if the line does not fit into the buffer
+	 */
+	private String readLine() throws IOException {
+		int from = position;
+		while (true) {
+			for (int i = from; i < limit; ++i) {
+				if (buffer[i] == '\n') {
+					int end = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+					String line = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+					position = i + 1;
+					return line;
+				}
+			}
+			if (position == 0 && limit == buffer.length) {
+				throw new IOException("Part header line too long.");
+			}
+			from = limit - position;
+			if (!fill()) {
+				throw new EOFException("The multipart body ended before its last part.");
+			}
+		}
+	}
+
+	/**
+	 * Reads the body until there are at least <code>n</code> unused bytes in the
+	 * buffer.
+	 *
+	 * @param n number of required bytes
+	 * @throws EOFException if the body ends before
+	 * @throws IOException
+	 */
+	private void require(int n) throws IOException {
+		while (limit - position < n) {
+			if (!fill()) {
+				throw new EOFException("The multipart body ended before its last part.");
+			}
+		}
+	}
+
+	/**
+	 * Moves the unused bytes to the beginning of the buffer and reads the body
+	 * after them.
+	 *
+	 * @return <code>false</code> if the body ended
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read == -1)
+			return false;
+		limit += read;
+		return true;
+	}
+
+	/**
+	 * Returns the value of the parameter with the given name of a header field
+	 * like <code>Content-Type</code> or <code>Content-Disposition</code>, e.g.
+	 * <code>form-data; name="file"; filename="a.txt"</code>. The quotes around
+	 * the value are removed.
+	 *
+	 * @param field value of the header field
+	 * @param name  of the parameter
+	 * @return value of the parameter, <code>null</code> if there is none
+	 */
+	public static String getParameter(String field, String name) {
+		int length = field.length();
+		int semicolon = field.indexOf(';');
+		while (semicolon != -1) {
+			int start = semicolon + 1;
+			int equals = field.indexOf('=', start);
+			if (equals == -1)
+				return null;
+			semicolon = field.indexOf(';', start);
+			if (semicolon != -1 && semicolon < equals)
+				// a parameter without a value
+				continue;
+
+			String key = field.substring(start, equals).trim();
+			int valueStart = equals + 1;
+			while (valueStart < length && field.charAt(valueStart) == ' ') {
+				++valueStart;
+			}
+			String value;
+			if (valueStart < length && field.charAt(valueStart) == '"') {
+				int quote = field.indexOf('"', valueStart + 1);
+				int valueEnd = quote == -1 ? length : quote;
+				value = field.substring(valueStart + 1, valueEnd);
+				semicolon = field.indexOf(';', valueEnd);
+			} else {
+				value = field.substring(valueStart, semicolon == -1 ? length : semicolon).trim();
+			}
+			if (key.equalsIgnoreCase(name))
+				return value;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,119 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream of the answer to a pipelined request which is answered
+ * before the answers to the previous requests of the connection are written.
+ * At most a given number of bytes of the answer is held in memory. An answer
+ * which does not fit waits for its turn, that is until the previous answers
+ * are written, and then the held bytes and the rest of the answer are written
+ * to the connection directly, so a pipeline of large answers does not pile up
+ * on the heap.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class PipelinedAnswerStream extends OutputStream {
+	/** the held bytes of the answer, <code>null</code> once they are written */
+	private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	/** the maximum number of held bytes */
+	private int limit;
+	/**
+	 * the stream of the connection, <code>null</code> until the turn of the
+	 * answer comes
+	 */
+	private OutputStream out;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param limit the maximum number of bytes held in memory
+	 */
+	public PipelinedAnswerStream(int limit) {
+		this.limit = limit;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (buffer != null && buffer.size() + len > limit) {
+			awaitTurn();
+			buffer.writeTo(out);
+			buffer = null;
+		}
+		if (buffer != null) {
+			buffer.write(b, off, len);
+		} else {
+			out.write(b, off, len);
+		}
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		// the held bytes are written only once it is the turn of the answer
+		if (buffer == null) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Lets the answer be written to the given stream of the connection, as all
+	 * the previous answers are written. Does nothing if the answer already had
+	 * its turn or it was abandoned.
+	 *
+	 * @param out stream of the connection
+	 */
+	public synchronized void giveTurn(OutputStream out) {
+		if (this.out == null) {
+			this.out = out;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Discards the answer if it did not have its turn yet, so that a worker
+	 * waiting for the turn completes the answer without writing it anywhere.
+	 */
+	public void abandon() {
+		giveTurn(OutputStream.nullOutputStream());
+	}
+
+	/**
+	 * Writes the held bytes of the complete answer to the connection and flushes
+	 * it. The answer must have had its turn.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void writeAnswer() throws IOException {
+		if (buffer != null) {
+			buffer.writeTo(out);
+			buffer = null;
+		}
+		out.flush();
+	}
+
+	/**
+	 * Waits until the answer has its turn.
+	 *
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	private void awaitTurn() throws InterruptedIOException {
+		while (out == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the previous answers.");
+			}
+		}
+	}
+
+}
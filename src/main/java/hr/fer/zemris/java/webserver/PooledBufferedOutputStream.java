@@ -0,0 +1,100 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered output stream whose buffer is taken from a {@link BufferPool} and
+ * returned to it by {@link #release()}, so that a connection does not allocate
+ * a new buffer for its answers.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class PooledBufferedOutputStream extends FilterOutputStream {
+	/** pool of the buffer */
+	private BufferPool pool;
+	/** the buffer, <code>null</code> once it is released */
+	private byte[] buffer;
+	/** number of bytes in the buffer */
+	private int count;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out  stream to which the bytes are written
+	 * @param pool from which the buffer is taken
+	 * @param size of the buffer
+	 */
+	public PooledBufferedOutputStream(OutputStream out, BufferPool pool, int size) {
+		super(out);
+		this.pool = pool;
+		this.buffer = pool.acquire(size);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkReleased();
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkReleased();
+		if (len >= buffer.length) {
+			// there is no point in copying it
+			flushBuffer();
+			out.write(b, off, len);
+			return;
+		}
+		if (len > buffer.length - count) {
+			flushBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		checkReleased();
+		flushBuffer();
+		out.flush();
+	}
+
+	/**
+	 * Returns the buffer to the pool, discarding the bytes which were not
+	 * flushed. The stream cannot be written to afterwards.
+	 */
+	public void release() {
+		pool.release(buffer);
+		buffer = null;
+		count = 0;
+	}
+
+	/**
+	 * Writes the buffered bytes to the underlying stream.
+	 *
+	 * @throws IOException
+	 */
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Checks that the buffer was not released.
+	 *
+	 * @throws IOException if it was
+	 */
+	private void checkReleased() throws IOException {
+		if (buffer == null)
+			throw new IOException("Stream was released.");
+	}
+
+}
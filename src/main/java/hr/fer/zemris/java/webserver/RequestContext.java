@@ -1,8 +1,18 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -11,6 +21,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * 
@@ -18,6 +31,16 @@ import java.util.Set;
  *
  */
 public class RequestContext {
+	/** size of the buffer used for copying files when they cannot be transferred */
+	private static final int COPY_BUFFER_SIZE = 8 * 1024;
+	/** default size of the buffer holding the body before the header is written */
+	public static final int DEFAULT_RESPONSE_BUFFER_SIZE = 8 * 1024;
+	/** size of the buffer into which the text is encoded */
+	private static final int TEXT_BUFFER_SIZE = 1024;
+	/** the most bytes into which an encoder encodes a character or a surrogate pair */
+	private static final int MAX_BYTES_PER_CHARACTER = 8;
+	/** initial size of the buffer into which the header is generated */
+	private static final int HEADER_BUFFER_SIZE = 512;
 
 	public static class RCCookie {
 
@@ -103,11 +126,26 @@ public class RequestContext {
 
 	/** Output stream on which the context writes the answer */
 	private OutputStream outputStream;
-	/** Charset to be used when encoding */
-	@SuppressWarnings("unused")
-	private Charset charset;
+	/** stream of the request body, <code>null</code> if the request has none */
+	private InputStream inputStream;
+	/** files uploaded in the request body */
+	private List<UploadedFile> uploadedFiles = Collections.emptyList();
+	/** the buffer into which the header is generated */
+	private byte[] headerBuffer;
+	/** length of the generated header */
+	private int headerLength;
 	/** Encoding of the answer body if it is of type 'text' */
-	private String encoding = "UTF-8";
+	private String encoding = HeaderFragments.DEFAULT_ENCODING;
+	/** encoder of the encoding, <code>null</code> until text is written */
+	private CharsetEncoder encoder;
+	/** characters below this limit are encoded as the same single byte */
+	private int singleByteLimit;
+	/** the buffer into which the text is encoded once the body is not buffered */
+	private byte[] textBuffer;
+	/** the buffer collecting the chunks of a chunked body */
+	private byte[] chunkBuffer;
+	/** pool of the buffers used by this context, <code>null</code> if they are allocated */
+	private BufferPool bufferPool;
 	/** Status code of the answer */
 	private int statusCode = 200;
 	/** Status message of the answer */
@@ -118,18 +156,66 @@ public class RequestContext {
 	private Long contentLength;
 	/** parameters of this request */
 	private Map<String, String> parameters;
+	/**
+	 * parameters of this request with all their values, <code>null</code> if
+	 * only a single value of every parameter was given
+	 */
+	private RequestParameters parameterValues;
 	/** temporary parameters of this request, used for internal request dispatching */
 	private Map<String, String> temporaryParameters;
 	/** persistent parameters of this request */
 	private Map<String, String> persistentParameters;
+	/**
+	 * creates the session of the client once a persistent parameter is set,
+	 * <code>null</code> if the client already has a session
+	 */
+	private Supplier<Session> sessionFactory;
 	/** A list of cookies in this request */
 	private List<RCCookie> outputCookies;
+	/** Additional header fields of the answer as name-value pairs */
+	private List<String[]> headers = new ArrayList<>();
 	/** A flag indicating if the header was already generated */
 	private boolean headerGenerated;
 	/** A read-only dispatcher of this context */
 	private IDispatcher dispatcher;
 	/** A session ID to which this request belongs to */
 	private String sid;
+	/** A flag indicating if the connection should be kept open after the answer */
+	private boolean keepAlive;
+	/** A flag indicating if the client accepts a chunked answer body */
+	private boolean chunkedEncodingAllowed;
+	/** Stream to which the answer body is written after the header */
+	private OutputStream bodyStream;
+	/** Stream framing the body in chunks, <code>null</code> if it is not chunked */
+	private ChunkedOutputStream chunkedStream;
+	/** Size of the buffer collecting the data of a chunk of a chunked body */
+	private int chunkSize = ChunkedOutputStream.DEFAULT_CHUNK_SIZE;
+	/** Stream compressing the body, <code>null</code> if it is not compressed */
+	private GZIPOutputStream gzipStream;
+	/**
+	 * Minimal length of a body of unknown length to be compressed, -1 if the
+	 * client does not accept compressed answers
+	 */
+	private int compressionThreshold = -1;
+	/** Decides which mime types are worth compressing */
+	private Predicate<String> compressible = mimeType -> false;
+	/**
+	 * A flag indicating if the body would be compressed for a client which
+	 * accepts it, so the answer varies by the <code>Accept-Encoding</code>
+	 */
+	private boolean varyByEncoding;
+	/**
+	 * The buffer holding the body written before the header, <code>null</code>
+	 * until the body is written
+	 */
+	private byte[] responseBuffer;
+	/** number of bytes in the response buffer */
+	private int buffered;
+	/**
+	 * Channel underlying the outputStream to which files can be transferred
+	 * directly, or <code>null</code> if there is none
+	 */
+	private WritableByteChannel outputChannel;
 
 	/**
 	 * Constructor for RequestContext.
@@ -164,6 +250,9 @@ public class RequestContext {
 		this.outputStream = Objects.requireNonNull(outputStream);
 		parameters = parameters == null ? new HashMap<>() : parameters;
 		this.parameters = Collections.unmodifiableMap(parameters);
+		if (parameters instanceof RequestParameters) {
+			this.parameterValues = (RequestParameters) parameters;
+		}
 		this.persistentParameters = persistentParameters == null ? new HashMap<>() : persistentParameters;
 		this.temporaryParameters = temporaryParameters == null ? new HashMap<>() : temporaryParameters;
 		this.outputCookies = outputCookies == null ? new ArrayList<>() : outputCookies;
@@ -183,6 +272,22 @@ public class RequestContext {
 		return parameters.get(name);
 	}
 
+	/**
+	 * Returns all the values of the parameter with the given <code>name</code>,
+	 * in the order they were sent.
+	 * 
+	 * @param name of the parameter
+	 * @return read-only list of the values, empty if no parameter is associated
+	 *         with the <code>name</code>
+	 */
+	public List<String> getParameterValues(String name) {
+		if (parameterValues != null)
+			return parameterValues.getAll(name);
+		if (!parameters.containsKey(name))
+			return Collections.emptyList();
+		return Collections.singletonList(parameters.get(name));
+	}
+
 	/**
 	 * Returns a read-only set of parameter names.
 	 * 
@@ -215,12 +320,15 @@ public class RequestContext {
 
 	/**
 	 * Stores the given <code>value</code> with the given <code>name</code> in the
-	 * persistentParameters map.
+	 * persistentParameters map. If the client has no session yet, it is created
+	 * now, or it was already created when the header was generated before the
+	 * answer was complete (see {@link #setSessionFactory(Supplier)}).
 	 * 
 	 * @param name  name of the parameter
 	 * @param value value of the parameter
 	 */
 	public void setPersistentParameter(String name, String value) {
+		openSession();
 		persistentParameters.put(name, value);
 	}
 
@@ -261,6 +369,7 @@ public class RequestContext {
 	 * @return an identifier which is unique for current user session.
 	 */
 	public String getSessionID() {
+		// the session is created only when it is needed, so it may not exist yet
 		return sid;
 	}
 
@@ -294,6 +403,19 @@ public class RequestContext {
 		outputCookies.add(cookie);
 	}
 
+	/**
+	 * Adds a header field with the given <code>name</code> and
+	 * <code>value</code> to the answer.
+	 * 
+	 * @param name  of the header field
+	 * @param value of the header field
+	 * @throws RuntimeException if called after the header was generated
+	 */
+	public void addHeader(String name, String value) {
+		checkHeader();
+		headers.add(new String[] { name, value });
+	}
+
 	/**
 	 * Getter for the dispatcher.
 	 * 
@@ -333,72 +455,547 @@ public class RequestContext {
 	public RequestContext write(byte[] data, int offset, int len) throws IOException {
 
 		if (!headerGenerated) {
-			byte[] header = generateHeader();
-			outputStream.write(header);
-			headerGenerated = true;
+			// a body of unknown length is buffered, so that its length is known if
+			// all of it fits in the buffer
+			if (contentLength == null) {
+				if (responseBuffer == null) {
+					responseBuffer = new byte[DEFAULT_RESPONSE_BUFFER_SIZE];
+				}
+				if (buffered + len <= responseBuffer.length) {
+					System.arraycopy(data, offset, responseBuffer, buffered, len);
+					buffered += len;
+					return this;
+				}
+			}
+			// the body does not fit, so it is compressed if it is long enough
+			commit(isCompressionPending() && buffered + (long) len >= compressionThreshold);
 		}
 
-		outputStream.write(data, offset, len);
-		outputStream.flush();
+		bodyStream.write(data, offset, len);
 
 		return this;
 	}
 
+	/**
+	 * Writes the remaining bytes of the given <code>buffer</code> to the
+	 * ouputStream of this RequestContext but first generates and writes a header
+	 * if it was not yet generated.
+	 * <p>
+	 * If the body is written directly to an output channel, the buffer is written
+	 * to the channel as it is. Otherwise it is copied through a buffer of a
+	 * bounded size.
+	 * 
+	 * @param buffer to write, its position is advanced to its limit
+	 * @return this RequestContext
+	 * @throws IOException
+	 */
+	public RequestContext write(ByteBuffer buffer) throws IOException {
+
+		if (!headerGenerated) {
+			commit(false);
+		}
+
+		if (buffer.hasArray()) {
+			bodyStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else if (outputChannel != null && bodyStream == outputStream) {
+			outputStream.flush();
+			while (buffer.hasRemaining()) {
+				outputChannel.write(buffer);
+			}
+			return this;
+		} else {
+			byte[] copy = acquire(COPY_BUFFER_SIZE);
+			try {
+				while (buffer.hasRemaining()) {
+					int len = Math.min(copy.length, buffer.remaining());
+					buffer.get(copy, 0, len);
+					bodyStream.write(copy, 0, len);
+				}
+			} finally {
+				release(copy);
+			}
+		}
+
+		return this;
+	}
+
+	/**
+	 * Writes <code>count</code> bytes of the given <code>file</code> starting at
+	 * <code>position</code> to the ouputStream of this RequestContext but first
+	 * generates and writes a header if it was not yet generated.
+	 * <p>
+	 * If the body is written directly to an output channel, the bytes are
+	 * transferred from the file to the channel without copying them to the heap.
+	 * Otherwise they are copied through a buffer of a bounded size.
+	 * 
+	 * @param file     to write from
+	 * @param position in the file from which the bytes are written
+	 * @param count    number of bytes to write
+	 * @return this RequestContext
+	 * @throws IOException
+	 */
+	public RequestContext write(FileChannel file, long position, long count) throws IOException {
+
+		if (!headerGenerated) {
+			commit(false);
+		}
+
+		long end = position + count;
+		if (outputChannel != null && bodyStream == outputStream) {
+			outputStream.flush();
+			while (position < end) {
+				position += file.transferTo(position, end - position, outputChannel);
+			}
+			return this;
+		}
+
+		byte[] buffer = acquire(COPY_BUFFER_SIZE);
+		try {
+			ByteBuffer bb = ByteBuffer.wrap(buffer);
+			while (position < end) {
+				bb.clear().limit((int) Math.min(buffer.length, end - position));
+				int read = file.read(bb, position);
+				if (read == -1) {
+					throw new IOException("Unexpected end of file.");
+				}
+				bodyStream.write(buffer, 0, read);
+				position += read;
+			}
+		} finally {
+			release(buffer);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Sends everything written so far to the client, including the data buffered
+	 * for the current chunk and by the compression. The body is otherwise sent
+	 * as the buffers fill up, so there is no need to flush after every write.
+	 * 
+	 * @return this RequestContext
+	 * @throws IOException
+	 */
+	public RequestContext flush() throws IOException {
+		if (!headerGenerated) {
+			// the body is sent right away even if it is too short to be compressed
+			commit(false);
+		}
+		bodyStream.flush();
+		return this;
+	}
+
+	/**
+	 * Completes the answer. Generates and writes the header if nothing was written
+	 * so far and terminates the chunked body if the answer is chunked.
+	 * <p>
+	 * If the whole body fits in the response buffer, its length is sent in the
+	 * header and the answer is written with a single flush. A body long enough
+	 * to be compressed is compressed as a whole in that case.
+	 * 
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		// no persistent parameter is set once the answer is complete
+		sessionFactory = null;
+		if (!headerGenerated) {
+			if (contentLength == null && isCompressionPending() && buffered >= compressionThreshold) {
+				finishCompressed();
+				return;
+			}
+			// the whole body is known, so its length can be sent
+			if (contentLength == null) {
+				varyByEncoding = isCompressionPending();
+				contentLength = (long) buffered;
+			}
+			commit(false);
+		}
+
+		if (gzipStream != null) {
+			// closing the gzip stream frees the native memory of its deflater, while
+			// the stream under it stays open
+			gzipStream.close();
+			gzipStream = null;
+		}
+		if (chunkedStream != null) {
+			chunkedStream.finish();
+		} else {
+			outputStream.flush();
+		}
+		// the buffers are not needed once the answer is complete
+		release(chunkBuffer);
+		chunkBuffer = null;
+		release(textBuffer);
+		textBuffer = null;
+	}
+
+	/**
+	 * Generates and writes the header followed by the body buffered so far.
+	 * 
+	 * @param compress <code>true</code> if the body should be compressed if the
+	 *                 mime type allows it
+	 * @throws IOException
+	 */
+	private void commit(boolean compress) throws IOException {
+		// the answer is not complete yet, so the cookie of a session which may
+		// still be needed has to be sent now
+		openSession();
+		boolean gzip = compress && compressible.test(mimeType);
+		varyByEncoding |= isCompressionPending();
+		generateHeader(gzip);
+		writeHeader();
+		// the body is compressed on its way to the chunks or to the connection, the
+		// gzip stream writes its own header right away so it follows the HTTP header
+		if (gzip) {
+			gzipStream = new GZIPOutputStream(new NonClosingOutputStream(bodyStream), COPY_BUFFER_SIZE, true);
+			bodyStream = gzipStream;
+		}
+
+		if (buffered > 0) {
+			bodyStream.write(responseBuffer, 0, buffered);
+			buffered = 0;
+		}
+	}
+
+	/**
+	 * Writes the generated header and returns the header buffer.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeHeader() throws IOException {
+		outputStream.write(headerBuffer, 0, headerLength);
+		headerGenerated = true;
+		release(headerBuffer);
+		headerBuffer = null;
+	}
+
+	/**
+	 * Completes an answer whose whole body is in the response buffer by
+	 * compressing the body, so that the length of the compressed body can be
+	 * sent in the header.
+	 * 
+	 * @throws IOException
+	 */
+	private void finishCompressed() throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(buffered / 2);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, COPY_BUFFER_SIZE)) {
+			gzip.write(responseBuffer, 0, buffered);
+		}
+		buffered = 0;
+		contentLength = (long) compressed.size();
+		varyByEncoding = true;
+
+		generateHeader(true);
+		writeHeader();
+		compressed.writeTo(outputStream);
+		outputStream.flush();
+	}
+
+	/**
+	 * Checks if the body should be buffered until it is known if it is long
+	 * enough to be compressed.
+	 * 
+	 * @return <code>true</code> if the answer might still be compressed
+	 */
+	private boolean isCompressionPending() {
+		return compressionThreshold >= 0 && contentLength == null && hasBody() && compressible.test(mimeType);
+	}
+
+	/**
+	 * Checks if the answer has a body, which is not the case for answers such as
+	 * 304 Not Modified.
+	 * 
+	 * @return <code>true</code> if the answer has a body
+	 */
+	private boolean hasBody() {
+		return statusCode >= 200 && statusCode != 204 && statusCode != 304;
+	}
+
 	/**
 	 * Writes the given <code>text</code> encoded in <code>encoding</code> to the
 	 * outputStream of this RequestContext but first generates and writes a header
 	 * if it was not yet generated.
 	 * <p>
-	 * The method relies on the method {@link RequestContext#write(byte[])} giving
-	 * it the bytes of the given <code>text</code>
+	 * The text is encoded straight into the response buffer while the body is
+	 * buffered, otherwise into a small text buffer, so no byte array is created
+	 * for it. Characters which the encoding maps to the same single byte are
+	 * copied without the encoder. Characters which cannot be encoded are replaced,
+	 * as in {@link String#getBytes(String)}.
 	 * 
 	 * @param text to write
 	 * @return this RequestContext
 	 * @throws IOException
+	 * @throws java.nio.charset.UnsupportedCharsetException if the encoding is not
+	 *                                                      supported
 	 */
-	public RequestContext write(String text) throws IOException {
-		byte[] data = text.getBytes(encoding);
-		return write(data);
+	public RequestContext write(CharSequence text) throws IOException {
+		CharsetEncoder encoder = getEncoder();
+		int length = text.length();
+		int from = 0;
+
+		// most of the text of a page is copied as it is
+		while (from < length && text.charAt(from) < singleByteLimit) {
+			ByteBuffer target = textTarget();
+			byte[] array = target.array();
+			int offset = target.position();
+			int end = Math.min(length, from + target.remaining());
+			int i = from;
+			for (char c; i < end && (c = text.charAt(i)) < singleByteLimit; ++i) {
+				array[offset++] = (byte) c;
+			}
+			target.position(offset);
+			textWritten(target);
+			from = i;
+		}
+		if (from == length)
+			return this;
+
+		// the rest goes through the encoder
+		CharBuffer in = CharBuffer.wrap(text, from, length);
+		encoder.reset();
+		CoderResult result;
+		do {
+			ByteBuffer target = textTarget();
+			result = encoder.encode(in, target, true);
+			textWritten(target);
+		} while (result.isOverflow());
+		do {
+			ByteBuffer target = textTarget();
+			result = encoder.flush(target);
+			textWritten(target);
+		} while (result.isOverflow());
+
+		return this;
 	}
 
-	private byte[] generateHeader() {
-		charset = Charset.forName(encoding);
-		StringBuilder sb = new StringBuilder();
+	/**
+	 * Returns the encoder of the current encoding, which is created once and
+	 * reused for all the text of the answer.
+	 * 
+	 * @return encoder of the encoding
+	 */
+	private CharsetEncoder getEncoder() {
+		if (encoder == null) {
+			Charset charset = Charset.forName(encoding);
+			encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			if (charset.equals(StandardCharsets.ISO_8859_1)) {
+				singleByteLimit = 0x100;
+			} else if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+				singleByteLimit = 0x80;
+			} else {
+				singleByteLimit = 0;
+			}
+		}
+		return encoder;
+	}
+
+	/**
+	 * Returns a buffer wrapping the free space into which the text is encoded,
+	 * which is the free space of the response buffer while the body is buffered.
+	 * 
+	 * @return buffer to encode into
+	 */
+	private ByteBuffer textTarget() {
+		if (!headerGenerated && contentLength == null) {
+			if (responseBuffer == null) {
+				responseBuffer = new byte[DEFAULT_RESPONSE_BUFFER_SIZE];
+			}
+			// a character has to fit in the space left, else the encoder cannot proceed
+			int free = responseBuffer.length - buffered;
+			if (free >= MAX_BYTES_PER_CHARACTER) {
+				return ByteBuffer.wrap(responseBuffer, buffered, free);
+			}
+		}
+		if (textBuffer == null) {
+			textBuffer = acquire(TEXT_BUFFER_SIZE);
+		}
+		return ByteBuffer.wrap(textBuffer);
+	}
 
-		String separator = "\r\n";
+	/**
+	 * Accounts for the text encoded into the given buffer returned by
+	 * {@link #textTarget()}, writing it if it is not in the response buffer.
+	 * 
+	 * @param target into which the text was encoded
+	 * @throws IOException
+	 */
+	private void textWritten(ByteBuffer target) throws IOException {
+		if (target.array() == responseBuffer) {
+			buffered = target.position();
+		} else if (target.position() > 0) {
+			write(textBuffer, 0, target.position());
+		}
+	}
+
+	/**
+	 * Generates the header of the answer into the header buffer. The fixed parts
+	 * of the header are copied from pre-encoded {@link HeaderFragments}.
+	 * 
+	 * @param gzip <code>true</code> if the body is gzip compressed
+	 */
+	private void generateHeader(boolean gzip) {
+		headerLength = 0;
 		// append the protocol and status message
-		sb.append("HTTP/1.1 ").append(statusCode).append(' ').append(statusText).append(separator);
+		append(HeaderFragments.statusLine(statusCode, statusText));
+		append(HeaderFragments.date(System.currentTimeMillis()));
+		append(HeaderFragments.SERVER);
+		// answers such as 304 Not Modified have no body at all
+		boolean hasBody = hasBody();
 		// append content type and the set charset if it is a text type
-		sb.append("Content-Type: ").append(mimeType);
-		if (mimeType.startsWith("text/")) {
-			sb.append("; charset=").append(encoding);
+		if (hasBody) {
+			append(HeaderFragments.contentType(mimeType, encoding));
+		}
+		// append content length only if it is specified, otherwise the body has to be
+		// chunked or delimited by closing the connection
+		bodyStream = outputStream;
+		if (!hasBody) {
+			// nothing delimits an empty body
+		} else if (contentLength != null) {
+			append(HeaderFragments.CONTENT_LENGTH);
+			appendDecimal(contentLength);
+			append(HeaderFragments.CRLF);
+		} else if (keepAlive && chunkedEncodingAllowed) {
+			append(HeaderFragments.TRANSFER_ENCODING_CHUNKED);
+			chunkBuffer = acquire(chunkSize);
+			chunkedStream = new ChunkedOutputStream(outputStream, chunkBuffer);
+			bodyStream = chunkedStream;
+		} else {
+			keepAlive = false;
 		}
-		sb.append(separator);
-		// append content length only if it is specified
-		if (contentLength != null) {
-			sb.append("Content-Length: ").append(contentLength).append(separator);
+		if (gzip || varyByEncoding) {
+			append(HeaderFragments.VARY_ACCEPT_ENCODING);
+		}
+		if (gzip) {
+			append(HeaderFragments.CONTENT_ENCODING_GZIP);
+		}
+		append(keepAlive ? HeaderFragments.CONNECTION_KEEP_ALIVE : HeaderFragments.CONNECTION_CLOSE);
+		// append additional headers in the order in which they were added
+		for (String[] h : headers) {
+			append(h[0]).append(": ").append(h[1]).append(HeaderFragments.CRLF);
 		}
 		// append a line for each cookie only with specified values
 		for (RCCookie c : outputCookies) {
-			sb.append("Set-Cookie: ").append(c.name).append('=').append('"').append(c.value).append('"');
+			append("Set-Cookie: ").append(c.name).append("=\"").append(c.value).append("\"");
 			if (c.domain != null) {
-				sb.append("; Domain=").append(c.domain);
+				append("; Domain=").append(c.domain);
 			}
 			if (c.path != null) {
-				sb.append("; Path=").append(c.path);
+				append("; Path=").append(c.path);
 			}
 			if (c.maxAge != null) {
-				sb.append("; Max-Age=").append(c.maxAge);
+				append("; Max-Age=").appendDecimal(c.maxAge);
 			}
 			if (c.httpOnly) {
-				sb.append("; HttpOnly");
+				append("; HttpOnly");
 			}
-			sb.append(separator);
+			append(HeaderFragments.CRLF);
 		}
 		// to indicate header ending
-		sb.append(separator);
+		append(HeaderFragments.CRLF);
+	}
+
+	/**
+	 * Appends the given bytes to the header buffer.
+	 * 
+	 * @param bytes to append
+	 * @return this RequestContext
+	 */
+	private RequestContext append(byte[] bytes) {
+		ensureHeaderCapacity(bytes.length);
+		System.arraycopy(bytes, 0, headerBuffer, headerLength, bytes.length);
+		headerLength += bytes.length;
+		return this;
+	}
+
+	/**
+	 * Appends the given string to the header buffer encoded in ISO-8859-1, the
+	 * encoding of HTTP headers. Characters which cannot be encoded are replaced
+	 * by '?'.
+	 * 
+	 * @param s to append
+	 * @return this RequestContext
+	 */
+	private RequestContext append(String s) {
+		int len = s.length();
+		ensureHeaderCapacity(len);
+		for (int i = 0; i < len; ++i) {
+			char c = s.charAt(i);
+			headerBuffer[headerLength++] = (byte) (c <= 0xFF ? c : '?');
+		}
+		return this;
+	}
 
-		return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+	/**
+	 * Appends the decimal representation of the given number to the header
+	 * buffer.
+	 * 
+	 * @param n to append
+	 * @return this RequestContext
+	 */
+	private RequestContext appendDecimal(long n) {
+		if (n < 0) {
+			return append(Long.toString(n));
+		}
+		// 19 digits are enough for any long
+		ensureHeaderCapacity(19);
+		int digits = 1;
+		for (long m = n / 10; m > 0; m /= 10) {
+			++digits;
+		}
+		int end = headerLength + digits;
+		for (int i = end - 1; i >= headerLength; --i) {
+			headerBuffer[i] = (byte) ('0' + n % 10);
+			n /= 10;
+		}
+		headerLength = end;
+		return this;
+	}
+
+	/**
+	 * Makes sure that the given number of bytes can be appended to the header
+	 * buffer.
+	 * 
+	 * @param n number of bytes to append
+	 */
+	private void ensureHeaderCapacity(int n) {
+		if (headerBuffer == null) {
+			headerBuffer = acquire(HEADER_BUFFER_SIZE);
+		}
+		if (headerLength + n > headerBuffer.length) {
+			// the size is kept a power of two, so that the buffer can be pooled
+			int size = headerBuffer.length * 2;
+			while (size < headerLength + n) {
+				size *= 2;
+			}
+			byte[] larger = acquire(size);
+			System.arraycopy(headerBuffer, 0, larger, 0, headerLength);
+			release(headerBuffer);
+			headerBuffer = larger;
+		}
+	}
+
+	/**
+	 * Takes a buffer of the given size from the buffer pool, or allocates it if
+	 * there is no pool.
+	 * 
+	 * @param size of the buffer
+	 * @return the buffer
+	 */
+	private byte[] acquire(int size) {
+		return bufferPool == null ? new byte[size] : bufferPool.acquire(size);
+	}
+
+	/**
+	 * Returns the given buffer to the buffer pool, if there is one.
+	 * 
+	 * @param buffer to return, ignored if <code>null</code>
+	 */
+	private void release(byte[] buffer) {
+		if (bufferPool != null) {
+			bufferPool.release(buffer);
+		}
 	}
 
 	/**
@@ -410,6 +1007,7 @@ public class RequestContext {
 	public void setEncoding(String encoding) {
 		checkHeader();
 		this.encoding = encoding;
+		encoder = null;
 	}
 
 	/**
@@ -456,6 +1054,194 @@ public class RequestContext {
 		this.contentLength = contentLength;
 	}
 
+	/**
+	 * Setter for <code>keepAlive</code>
+	 * 
+	 * @param keepAlive <code>true</code> if the client requested a persistent
+	 *                  connection
+	 * @throws RuntimeException if called after the header was generated
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		checkHeader();
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Returns <code>true</code> if the connection can be reused after this answer.
+	 * That is not the case if the client did not request it or if the length of
+	 * the answer body could not be communicated to the client.
+	 * 
+	 * @return <code>true</code> if the connection can be kept open
+	 */
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Sets the channel underlying the outputStream to which files are transferred
+	 * directly by {@link #write(FileChannel, long, long)}.
+	 * 
+	 * @param outputChannel channel of the connection, or <code>null</code> if the
+	 *                      outputStream does not write directly to it
+	 */
+	public void setOutputChannel(WritableByteChannel outputChannel) {
+		this.outputChannel = outputChannel;
+	}
+
+	/**
+	 * Returns the stream of the body of the request, which ends where the body
+	 * ends. The body is read from the connection as the stream is read, so it is
+	 * not held in memory. A form sent in the body is already decoded into the
+	 * parameters and the uploaded files, so its stream is empty.
+	 * 
+	 * @return stream of the request body, empty if the request has no body
+	 */
+	public InputStream getInputStream() {
+		return inputStream == null ? InputStream.nullInputStream() : inputStream;
+	}
+
+	/**
+	 * Setter for <code>inputStream</code>
+	 * 
+	 * @param inputStream stream of the request body, <code>null</code> if the
+	 *                    request has none
+	 */
+	public void setInputStream(InputStream inputStream) {
+		this.inputStream = inputStream;
+	}
+
+	/**
+	 * Returns the first file uploaded in the form field with the given
+	 * <code>name</code>.
+	 * 
+	 * @param name of the form field
+	 * @return the uploaded file, or <code>null</code> if no file was uploaded in
+	 *         the field
+	 */
+	public UploadedFile getUploadedFile(String name) {
+		for (UploadedFile file : uploadedFiles) {
+			if (file.getName().equals(name))
+				return file;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a read-only list of the files uploaded in the request body.
+	 * 
+	 * @return read-only list of the uploaded files, in the order of the form
+	 */
+	public List<UploadedFile> getUploadedFiles() {
+		return Collections.unmodifiableList(uploadedFiles);
+	}
+
+	/**
+	 * Setter for <code>uploadedFiles</code>
+	 * 
+	 * @param uploadedFiles files uploaded in the request body
+	 */
+	public void setUploadedFiles(List<UploadedFile> uploadedFiles) {
+		this.uploadedFiles = Objects.requireNonNull(uploadedFiles);
+	}
+
+	/**
+	 * Sets the pool from which the buffers of the header, the chunks, the text
+	 * and the copying are taken. They are returned to it once they are not
+	 * needed, at the latest when the answer is finished.
+	 * 
+	 * @param bufferPool to use, <code>null</code> to allocate the buffers
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Sets the buffer which holds the body until it is known whether all of it
+	 * fits in the buffer. The buffer can be reused once this answer is finished.
+	 * 
+	 * @param responseBuffer to use
+	 * @throws RuntimeException if called after the header was generated
+	 */
+	public void setResponseBuffer(byte[] responseBuffer) {
+		checkHeader();
+		if (buffered > 0) {
+			throw new RuntimeException("The body was already written.");
+		}
+		this.responseBuffer = Objects.requireNonNull(responseBuffer);
+	}
+
+	/**
+	 * Setter for <code>chunkSize</code>
+	 * 
+	 * @param chunkSize size of the buffer collecting the data of a chunk when the
+	 *                  body is chunked
+	 * @throws RuntimeException if called after the header was generated
+	 */
+	public void setChunkSize(int chunkSize) {
+		checkHeader();
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Enables gzip compression of answer bodies whose length was not set. A body
+	 * is compressed if it is at least <code>threshold</code> bytes long and if its
+	 * mime type is accepted by <code>compressible</code>, so the body is buffered
+	 * until it reaches the threshold.
+	 * 
+	 * @param threshold    minimal length of a compressed body, -1 disables the
+	 *                     compression
+	 * @param compressible decides which mime types are worth compressing
+	 * @throws RuntimeException if called after the header was generated
+	 */
+	public void setCompression(int threshold, Predicate<String> compressible) {
+		checkHeader();
+		this.compressionThreshold = threshold;
+		this.compressible = Objects.requireNonNull(compressible);
+	}
+
+	/**
+	 * Setter for <code>chunkedEncodingAllowed</code>
+	 * 
+	 * @param chunkedEncodingAllowed <code>true</code> if the client understands
+	 *                               chunked transfer encoding (HTTP/1.1)
+	 * @throws RuntimeException if called after the header was generated
+	 */
+	public void setChunkedEncodingAllowed(boolean chunkedEncodingAllowed) {
+		checkHeader();
+		this.chunkedEncodingAllowed = chunkedEncodingAllowed;
+	}
+
+	/**
+	 * Sets the factory of the session of the client, which is called once a
+	 * persistent parameter is set, if the client does not have a session yet.
+	 * Until then the persistent parameters are empty, so the clients which never
+	 * set one do not get a session.
+	 * <p>
+	 * The cookie of the session can only be sent in the header. So if the header
+	 * is generated before the answer is complete, because the body did not fit in
+	 * the response buffer or it was flushed, the session is created right then,
+	 * as a persistent parameter may still be set after it.
+	 * 
+	 * @param sessionFactory creates the session and adds its cookie to the
+	 *                       output cookies
+	 */
+	public void setSessionFactory(Supplier<Session> sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Creates the session of the client if it does not have one yet and the
+	 * context was given a factory of the session.
+	 */
+	private void openSession() {
+		if (sessionFactory == null)
+			return;
+		Session session = sessionFactory.get();
+		sessionFactory = null;
+		persistentParameters = session.getParameters();
+		sid = session.getId();
+	}
+
 	/**
 	 * Checks if the header was already generated.
 	 * 
@@ -467,4 +1253,33 @@ public class RequestContext {
 		}
 	}
 
+	/**
+	 * A stream which passes everything to the stream under it, except that it
+	 * does not close it.
+	 *
+	 * @author Vedran Kolka
+	 *
+	 */
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		/**
+		 * Constructor.
+		 *
+		 * @param out stream to which the bytes are written
+		 */
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			// the stream under it belongs to the answer
+		}
+	}
+
 }
@@ -0,0 +1,414 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A parsed HTTP request header. The request line and the header fields are
+ * kept as offsets into the bytes of the header, which are not copied, and
+ * they are decoded to strings only when they are asked for.
+ * <p>
+ * A header returned by {@link RequestReader#readHeader()} is only valid until
+ * the next request is read, {@link #copy()} should be used to keep it longer.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestHeader {
+	/** the methods and versions returned without decoding them */
+	private static final String[] KNOWN_TOKENS = { "GET", "HEAD", "POST", "PUT", "HTTP/1.1", "HTTP/1.0" };
+	/** the number of offsets stored for every header field */
+	private static final int FIELD_OFFSETS = 4;
+
+	/** bytes of the header */
+	private byte[] data;
+	/** index of the first byte of the header */
+	private int start;
+	/** index after the last byte of the header */
+	private int end;
+	/** A flag indicating if the request line is well formed */
+	private boolean valid;
+
+	/** index after the last byte of the method */
+	private int methodEnd;
+	/** index of the first byte of the request target */
+	private int targetStart;
+	/** index of the '?' in the request target, -1 if there is none */
+	private int queryStart;
+	/** index after the last byte of the request target */
+	private int targetEnd;
+	/** index after the last byte of the version */
+	private int versionEnd;
+
+	/**
+	 * start and end offsets of the name and of the value of each header field,
+	 * four offsets per field
+	 */
+	private int[] fields = new int[16 * FIELD_OFFSETS];
+	/** number of header fields */
+	private int fieldCount;
+	/** A flag indicating if a field value continues through more lines */
+	private boolean folded;
+
+	/** decoded method, <code>null</code> until it is asked for */
+	private String method;
+	/** decoded path, <code>null</code> until it is asked for */
+	private String path;
+	/** decoded version, <code>null</code> until it is asked for */
+	private String version;
+
+	/**
+	 * Parses the header in the given bytes, which are not copied.
+	 *
+	 * @param data  bytes of the header
+	 * @param start index of the first byte of the header
+	 * @param end   index after the empty line ending the header
+	 */
+	void parse(byte[] data, int start, int end) {
+		this.data = data;
+		this.end = end;
+		fieldCount = 0;
+		folded = false;
+		method = path = version = null;
+
+		// empty lines before the request line are ignored
+		while (start < end && (data[start] == '\r' || data[start] == '\n')) {
+			++start;
+		}
+		this.start = start;
+
+		int lineEnd = indexOf('\n', start);
+		int next = lineEnd + 1;
+		lineEnd = trimCarriageReturn(start, lineEnd);
+
+		// method SP request-target SP version
+		methodEnd = indexOf(' ', start, lineEnd);
+		targetStart = methodEnd + 1;
+		targetEnd = indexOf(' ', targetStart, lineEnd);
+		versionEnd = lineEnd;
+		valid = methodEnd > start && targetEnd > targetStart && targetEnd + 1 < lineEnd
+				&& indexOf(' ', targetEnd + 1, lineEnd) == lineEnd;
+		if (!valid)
+			return;
+		queryStart = indexOf('?', targetStart, targetEnd);
+		if (queryStart == targetEnd) {
+			queryStart = -1;
+		}
+
+		while (next < end) {
+			int lineStart = next;
+			lineEnd = indexOf('\n', lineStart);
+			next = lineEnd + 1;
+			lineEnd = trimCarriageReturn(lineStart, lineEnd);
+			if (lineEnd == lineStart)
+				break;
+
+			if (data[lineStart] == ' ' || data[lineStart] == '\t') {
+				// the value of the previous field continues in this line
+				if (fieldCount > 0) {
+					fields[(fieldCount - 1) * FIELD_OFFSETS + 3] = trimEnd(lineStart, lineEnd);
+					folded = true;
+				}
+				continue;
+			}
+
+			int colon = indexOf(':', lineStart, lineEnd);
+			if (colon == lineEnd || colon == lineStart)
+				continue;
+			int valueStart = colon + 1;
+			while (valueStart < lineEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+				++valueStart;
+			}
+			addField(lineStart, colon, valueStart, trimEnd(valueStart, lineEnd));
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the request line consists of a method, a
+	 * request target and a version.
+	 *
+	 * @return <code>true</code> if the request line is well formed
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Returns the method of the request.
+	 *
+	 * @return method as it was sent
+	 */
+	public String getMethod() {
+		if (method == null) {
+			method = decodeToken(start, methodEnd);
+		}
+		return method;
+	}
+
+	/**
+	 * Checks if the request method is the given one, ignoring the case.
+	 *
+	 * @param name of the method
+	 * @return <code>true</code> if the request has the given method
+	 */
+	public boolean isMethod(String name) {
+		return regionMatches(start, methodEnd, name);
+	}
+
+	/**
+	 * Returns the path of the request target, without the query.
+	 *
+	 * @return requested path
+	 */
+	public String getPath() {
+		if (path == null) {
+			path = decode(targetStart, queryStart == -1 ? targetEnd : queryStart);
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the query of the request target, the part after the '?'.
+	 *
+	 * @return query, or <code>null</code> if the target has no query
+	 */
+	public String getQuery() {
+		return queryStart == -1 ? null : decode(queryStart + 1, targetEnd);
+	}
+
+	/**
+	 * Returns the protocol version of the request.
+	 *
+	 * @return version, e.g. "HTTP/1.1"
+	 */
+	public String getVersion() {
+		if (version == null) {
+			version = decodeToken(targetEnd + 1, versionEnd);
+		}
+		return version;
+	}
+
+	/**
+	 * Returns the number of header fields.
+	 *
+	 * @return number of fields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Checks if the name of the header field with the given index is the given
+	 * one, ignoring the case.
+	 *
+	 * @param index of the field
+	 * @param name  to compare with
+	 * @return <code>true</code> if the field has the given name
+	 */
+	public boolean isFieldName(int index, String name) {
+		int offset = index * FIELD_OFFSETS;
+		return regionMatches(fields[offset], fields[offset + 1], name);
+	}
+
+	/**
+	 * Returns the name of the header field with the given index.
+	 *
+	 * @param index of the field
+	 * @return name of the field
+	 */
+	public String getFieldName(int index) {
+		int offset = index * FIELD_OFFSETS;
+		return decode(fields[offset], fields[offset + 1]);
+	}
+
+	/**
+	 * Returns the value of the header field with the given index.
+	 *
+	 * @param index of the field
+	 * @return value of the field without the surrounding whitespace
+	 */
+	public String getFieldValue(int index) {
+		int offset = index * FIELD_OFFSETS;
+		String value = decode(fields[offset + 2], fields[offset + 3]);
+		// the line breaks of a value written through more lines are left out
+		return folded ? value.replace("\r", "").replace("\n", "") : value;
+	}
+
+	/**
+	 * Returns the value of the first header field with the given name, ignoring
+	 * the case of the name.
+	 *
+	 * @param name of the field
+	 * @return value of the field, or <code>null</code> if there is no such field
+	 */
+	public String getField(String name) {
+		for (int i = 0; i < fieldCount; ++i) {
+			if (isFieldName(i, name))
+				return getFieldValue(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a copy of this header which does not share the bytes with the
+	 * reader it was read by.
+	 *
+	 * @return copy of this header
+	 */
+	public RequestHeader copy() {
+		RequestHeader copy = new RequestHeader();
+		copy.parse(Arrays.copyOfRange(data, start, end), 0, end - start);
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return decode(start, end);
+	}
+
+	/**
+	 * Stores the offsets of a header field.
+	 *
+	 * @param nameStart  index of the first byte of the name
+	 * @param nameEnd    index after the last byte of the name
+	 * @param valueStart index of the first byte of the value
+	 * @param valueEnd   index after the last byte of the value
+	 */
+	private void addField(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		int offset = fieldCount * FIELD_OFFSETS;
+		if (offset == fields.length) {
+			fields = Arrays.copyOf(fields, fields.length * 2);
+		}
+		fields[offset] = nameStart;
+		fields[offset + 1] = nameEnd;
+		fields[offset + 2] = valueStart;
+		fields[offset + 3] = valueEnd;
+		++fieldCount;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the given byte in the header
+	 * starting at <code>from</code>.
+	 *
+	 * @param b    to find
+	 * @param from index to start at
+	 * @return index of the byte, or the end of the header if it does not occur
+	 */
+	private int indexOf(char b, int from) {
+		return indexOf(b, from, end);
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the given byte between the
+	 * given indexes.
+	 *
+	 * @param b    to find
+	 * @param from index to start at
+	 * @param to   index to stop at
+	 * @return index of the byte, or <code>to</code> if it does not occur
+	 */
+	private int indexOf(char b, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			if (data[i] == b)
+				return i;
+		}
+		return to;
+	}
+
+	/**
+	 * Leaves out the carriage return at the end of a line.
+	 *
+	 * @param lineStart index of the first byte of the line
+	 * @param lineEnd   index of the line feed ending the line
+	 * @return index after the last byte of the line content
+	 */
+	private int trimCarriageReturn(int lineStart, int lineEnd) {
+		return lineEnd > lineStart && data[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+	}
+
+	/**
+	 * Leaves out the whitespace at the end of the given range.
+	 *
+	 * @param from index of the first byte of the range
+	 * @param to   index after the last byte of the range
+	 * @return index after the last byte which is not whitespace
+	 */
+	private int trimEnd(int from, int to) {
+		while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) {
+			--to;
+		}
+		return to;
+	}
+
+	/**
+	 * Checks if the given range of bytes equals the given string, ignoring the
+	 * case of ASCII letters.
+	 *
+	 * @param from index of the first byte of the range
+	 * @param to   index after the last byte of the range
+	 * @param s    to compare with
+	 * @return <code>true</code> if they are equal
+	 */
+	private boolean regionMatches(int from, int to, String s) {
+		return regionMatches(from, to, s, true);
+	}
+
+	/**
+	 * Checks if the given range of bytes equals the given string.
+	 *
+	 * @param from       index of the first byte of the range
+	 * @param to         index after the last byte of the range
+	 * @param s          to compare with
+	 * @param ignoreCase <code>true</code> if the case of ASCII letters is ignored
+	 * @return <code>true</code> if they are equal
+	 */
+	private boolean regionMatches(int from, int to, String s, boolean ignoreCase) {
+		if (to - from != s.length())
+			return false;
+		for (int i = from; i < to; ++i) {
+			int a = data[i];
+			int b = s.charAt(i - from);
+			if (a != b && !(ignoreCase && toLowerCase(a) == toLowerCase(b)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Converts an ASCII upper case letter to lower case.
+	 *
+	 * @param c to convert
+	 * @return lower case letter, or <code>c</code> if it is not an upper case
+	 *         letter
+	 */
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + 32 : c;
+	}
+
+	/**
+	 * Decodes a method or a version, which are mostly one of the known tokens.
+	 *
+	 * @param from index of the first byte of the token
+	 * @param to   index after the last byte of the token
+	 * @return decoded token
+	 */
+	private String decodeToken(int from, int to) {
+		for (String token : KNOWN_TOKENS) {
+			if (regionMatches(from, to, token, false))
+				return token;
+		}
+		return decode(from, to);
+	}
+
+	/**
+	 * Decodes the given range of bytes as ISO-8859-1 characters.
+	 *
+	 * @param from index of the first byte of the range
+	 * @param to   index after the last byte of the range
+	 * @return decoded string
+	 */
+	private String decode(int from, int to) {
+		return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+	}
+
+}
@@ -0,0 +1,40 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+
+/**
+ * An exception thrown by the {@link RequestReader} when a request header is
+ * rejected, e.g. because it is too large or it arrives too slowly. It carries
+ * the status with which the request should be answered.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestHeaderException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** status code of the answer */
+	private int statusCode;
+
+	/**
+	 * Constructor
+	 *
+	 * @param statusCode of the answer
+	 * @param statusText of the answer, used as the message
+	 */
+	public RequestHeaderException(int statusCode, String statusText) {
+		super(statusText);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * Getter for <code>statusCode</code>
+	 *
+	 * @return status code of the answer
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+}
@@ -0,0 +1,252 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The parameters of a request, from its query and from a form in its body. The
+ * url encoded strings are only stored when they arrive and are decoded on the
+ * first access to the parameters, so a worker which never reads them does not
+ * pay for decoding them.
+ * <p>
+ * A string is decoded in a single pass over its characters, which are the raw
+ * bytes of the request. A <code>+</code> is decoded as a space and a
+ * <code>%</code> followed by two hexadecimal digits as the byte they encode,
+ * and the bytes of a name or a value are decoded as UTF-8. A name or a value
+ * without any encoded bytes is taken from the string as it is. A parameter sent
+ * without a <code>=</code> has the value <code>null</code>.
+ * <p>
+ * A parameter sent more than once has all of its values, in the order they were
+ * sent, in {@link #getAll(String)}, while as a map this object maps every name
+ * to its first value.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestParameters extends AbstractMap<String, String> {
+
+	/** the url encoded parameters which were not decoded yet, <code>null</code> if there are none */
+	private String encoded;
+	/** the first values of the parameters, in the order they were sent */
+	private Map<String, String> first = new LinkedHashMap<>();
+	/** all the values of the parameters which were sent more than once */
+	private Map<String, List<String>> all;
+	/** bytes of the name or value being decoded */
+	private byte[] bytes;
+
+	/**
+	 * Adds the parameters in the given url encoded string, e.g. a query, which
+	 * is decoded on the first access to the parameters.
+	 *
+	 * @param s url encoded string
+	 */
+	public void addEncoded(String s) {
+		encoded = encoded == null ? s : encoded + '&' + s;
+	}
+
+	/**
+	 * Adds the given value of the parameter with the given <code>name</code> to
+	 * the values it already has.
+	 *
+	 * @param name  of the parameter
+	 * @param value of the parameter
+	 */
+	public void add(String name, String value) {
+		decodePending();
+		addDecoded(name, value);
+	}
+
+	/**
+	 * Returns all the values of the parameter with the given <code>name</code>.
+	 *
+	 * @param name of the parameter
+	 * @return read-only list of the values, empty if the parameter was not sent
+	 */
+	public List<String> getAll(String name) {
+		decodePending();
+		if (all != null) {
+			List<String> values = all.get(name);
+			if (values != null)
+				return Collections.unmodifiableList(values);
+		}
+		if (!first.containsKey(name))
+			return Collections.emptyList();
+		return Collections.singletonList(first.get(name));
+	}
+
+	@Override
+	public String get(Object name) {
+		decodePending();
+		return first.get(name);
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		decodePending();
+		return first.containsKey(name);
+	}
+
+	/**
+	 * Sets the only value of the parameter with the given <code>name</code>.
+	 */
+	@Override
+	public String put(String name, String value) {
+		decodePending();
+		if (all != null) {
+			all.remove(name);
+		}
+		return first.put(name, value);
+	}
+
+	@Override
+	public String remove(Object name) {
+		decodePending();
+		if (all != null) {
+			all.remove(name);
+		}
+		return first.remove(name);
+	}
+
+	@Override
+	public int size() {
+		decodePending();
+		return first.size();
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		decodePending();
+		return first.entrySet();
+	}
+
+	/**
+	 * Adds the given value of the parameter with the given <code>name</code>.
+	 *
+	 * @param name  of the parameter
+	 * @param value of the parameter
+	 */
+	private void addDecoded(String name, String value) {
+		int size = first.size();
+		String firstValue = first.put(name, value);
+		if (first.size() != size)
+			return;
+		// the parameter was sent before, so its first value is put back
+		first.put(name, firstValue);
+		if (all == null) {
+			all = new HashMap<>();
+		}
+		all.computeIfAbsent(name, n -> {
+			List<String> values = new ArrayList<>(2);
+			values.add(first.get(n));
+			return values;
+		}).add(value);
+	}
+
+	/**
+	 * Decodes the url encoded strings which were not decoded yet.
+	 */
+	private void decodePending() {
+		if (encoded == null)
+			return;
+		String s = encoded;
+		encoded = null;
+		decode(s);
+		bytes = null;
+	}
+
+	/**
+	 * Decodes the parameters in the given url encoded string in a single pass.
+	 *
+	 * @param s url encoded string
+	 */
+	private void decode(String s) {
+		int length = s.length();
+		String name = null;
+		// the name or the value being decoded starts at start, and its bytes are
+		// copied only once an encoded byte is found in it
+		int start = 0;
+		int count = -1;
+
+		for (int i = 0; i <= length; ++i) {
+			int c = i == length ? '&' : s.charAt(i);
+
+			if (c == '&' || (c == '=' && name == null)) {
+				String decoded;
+				if (count == -1) {
+					decoded = s.substring(start, i);
+				} else {
+					decoded = new String(bytes, 0, count, StandardCharsets.UTF_8);
+				}
+				if (c == '=') {
+					name = decoded;
+				} else if (name != null) {
+					addDecoded(name, decoded);
+					name = null;
+				} else if (!decoded.isEmpty()) {
+					addDecoded(decoded, null);
+				}
+				start = i + 1;
+				count = -1;
+				continue;
+			}
+
+			int at = i;
+			int b = c;
+			int hex;
+			if (c == '+') {
+				b = ' ';
+			} else if (c == '%' && i + 2 < length && (hex = hexValue(s, i + 1)) != -1) {
+				b = hex;
+				i += 2;
+			} else if (c < 0x80 && count == -1) {
+				// nothing to decode yet, a lone '%' is left as it is
+				continue;
+			}
+
+			if (count == -1) {
+				count = copyPlain(s, start, at);
+			}
+			bytes[count++] = (byte) b;
+		}
+	}
+
+	/**
+	 * Returns the byte encoded by the two hexadecimal digits at the given index.
+	 *
+	 * @param s     url encoded string
+	 * @param index of the first digit
+	 * @return the encoded byte, -1 if the characters are not hexadecimal digits
+	 */
+	private static int hexValue(String s, int index) {
+		int high = Character.digit(s.charAt(index), 16);
+		int low = Character.digit(s.charAt(index + 1), 16);
+		return high == -1 || low == -1 ? -1 : high << 4 | low;
+	}
+
+	/**
+	 * Copies the characters from <code>start</code> to <code>end</code>, which
+	 * needed no decoding, to the bytes of the name or value being decoded.
+	 *
+	 * @param s     url encoded string
+	 * @param start index of the first character of the name or the value
+	 * @param end   index after the last copied character
+	 * @return number of copied bytes
+	 */
+	private int copyPlain(String s, int start, int end) {
+		if (bytes == null || bytes.length < s.length()) {
+			bytes = new byte[s.length()];
+		}
+		for (int i = start; i < end; ++i) {
+			bytes[i - start] = (byte) s.charAt(i);
+		}
+		return end - start;
+	}
+
+}
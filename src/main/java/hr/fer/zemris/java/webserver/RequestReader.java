@@ -0,0 +1,516 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the request headers of a connection into a buffer which is reused for
+ * all requests of the connection. The end of a header is found by scanning the
+ * buffered bytes in bulk and the header is parsed in place into a
+ * {@link RequestHeader}, so no bytes are copied.
+ * <p>
+ * The bytes which arrive after a header, such as the body of the request or
+ * the following pipelined requests, are kept in the buffer for the next read.
+ * The body is read through {@link #getBodyStream()}. The bytes can be read
+ * from a blocking {@link InputStream} or, while waiting for a header without
+ * blocking, from a {@link ReadableByteChannel}.
+ * <p>
+ * A request line or a header which is too long is rejected with a
+ * {@link RequestHeaderException}, as well as a header which does not arrive in
+ * time, so that a client sending its request slowly cannot hold on to a worker
+ * thread indefinitely. Once some bytes of a request have arrived, every read
+ * has to complete within the read timeout and the whole header within the
+ * header timeout. While waiting for the first byte of a request, the idle
+ * timeout applies instead.
+ * <p>
+ * The buffer can be taken from a {@link BufferPool}. It is returned to the pool
+ * by {@link #release()} while the connection waits for its next request, so an
+ * idle connection does not hold on to a buffer.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestReader {
+	/** the initial size of the buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+	/** the default maximum length of a request line */
+	public static final int DEFAULT_MAX_REQUEST_LINE_LENGTH = 8 * 1024;
+	/** the default maximum size of a request header */
+	public static final int DEFAULT_MAX_HEADER_SIZE = 8 * 1024;
+
+	/** socket from which the bytes are read */
+	private Socket socket;
+	/** stream of the socket */
+	private InputStream in;
+	/** pool of the buffer, <code>null</code> if the buffer is not pooled */
+	private BufferPool pool;
+	/** the initial size of the buffer */
+	private int bufferSize;
+	/** the buffer holding the read bytes, <code>null</code> until reading starts */
+	private byte[] buffer;
+	/** buffer wrapping the array, used for reading from a channel */
+	private ByteBuffer channelBuffer;
+	/** index of the first byte which was not returned as a header */
+	private int position;
+	/** index after the last read byte */
+	private int limit;
+	/** index up to which the bytes were searched for the end of the header */
+	private int scanned;
+	/** index after the end of the header at the position, -1 if not found yet */
+	private int headerEnd = -1;
+	/** length of the last returned header, which is skipped on the next read */
+	private int returned;
+	/** the header which is parsed for every request */
+	private RequestHeader header = new RequestHeader();
+	/** stream of the bytes following the last returned header */
+	private InputStream bodyStream;
+
+	/** maximum length of a request line */
+	private int maxRequestLineLength;
+	/** maximum size of a request header */
+	private int maxHeaderSize;
+	/** how long (in milliseconds) is the first byte of a request awaited */
+	private int idleTimeout = 5000;
+	/** how long (in milliseconds) can a single read of a request take */
+	private int readTimeout = 5000;
+	/** how long (in milliseconds) can the arrival of a whole header take */
+	private int headerTimeout = 20000;
+	/** the timeout currently set on the socket */
+	private int socketTimeout = -1;
+	/** when did the first byte of the current request arrive, 0 if none did */
+	private long requestStarted;
+	/** when were the bytes last read */
+	private long lastRead;
+
+	/**
+	 * Constructor which uses the default limits.
+	 */
+	public RequestReader() {
+		this(DEFAULT_MAX_REQUEST_LINE_LENGTH, DEFAULT_MAX_HEADER_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxRequestLineLength maximum length of a request line
+	 * @param maxHeaderSize        maximum size of a request header, including the
+	 *                             request line
+	 */
+	public RequestReader(int maxRequestLineLength, int maxHeaderSize) {
+		this(maxRequestLineLength, maxHeaderSize, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxRequestLineLength maximum length of a request line
+	 * @param maxHeaderSize        maximum size of a request header, including the
+	 *                             request line
+	 * @param pool                 from which the buffer is taken, or
+	 *                             <code>null</code> if it is allocated
+	 */
+	public RequestReader(int maxRequestLineLength, int maxHeaderSize, BufferPool pool) {
+		this.maxRequestLineLength = maxRequestLineLength;
+		this.maxHeaderSize = maxHeaderSize;
+		this.pool = pool;
+		bufferSize = Math.min(DEFAULT_BUFFER_SIZE, maxHeaderSize);
+	}
+
+	/**
+	 * Sets the timeouts of reading the requests.
+	 *
+	 * @param idleTimeout   how long (in milliseconds) is the first byte of a
+	 *                      request awaited
+	 * @param readTimeout   how long (in milliseconds) can a single read of a
+	 *                      request take
+	 * @param headerTimeout how long (in milliseconds) can the arrival of a whole
+	 *                      header take
+	 */
+	public void setTimeouts(int idleTimeout, int readTimeout, int headerTimeout) {
+		this.idleTimeout = idleTimeout;
+		this.readTimeout = readTimeout;
+		this.headerTimeout = headerTimeout;
+	}
+
+	/**
+	 * Sets the socket from which {@link #readHeader()} reads the bytes. The
+	 * timeout of the socket is managed by this reader from now on.
+	 *
+	 * @param socket to read from
+	 * @throws IOException if the stream of the socket cannot be obtained
+	 */
+	public void setSocket(Socket socket) throws IOException {
+		this.socket = socket;
+		this.in = socket.getInputStream();
+		socketTimeout = -1;
+	}
+
+	/**
+	 * Reads the next request header, blocking until all of it arrives.
+	 * <p>
+	 * The returned header is reused for the next request, so it is only valid
+	 * until this method is called again.
+	 *
+	 * @return the header, or <code>null</code> if the stream ended before the end
+	 *         of the header
+	 * @throws RequestHeaderException  if the header is too large or it does not
+	 *                                 arrive in time
+	 * @throws SocketTimeoutException if no byte of a request arrived within the
+	 *                                 idle timeout
+	 * @throws IOException             if reading fails
+	 */
+	public RequestHeader readHeader() throws IOException {
+		skipReturned();
+		while (!findHeaderEnd()) {
+			checkLimits(limit);
+
+			// a request which has started arriving has to arrive in time
+			long currentTime = System.currentTimeMillis();
+			boolean idle = buffered() == 0;
+			if (idle) {
+				setSocketTimeout(idleTimeout);
+			} else {
+				long remaining = requestStarted + headerTimeout - currentTime;
+				if (remaining <= 0)
+					throw timeout();
+				setSocketTimeout((int) Math.min(readTimeout, remaining));
+			}
+
+			makeRoom();
+			int read;
+			try {
+				read = in.read(buffer, limit, buffer.length - limit);
+			} catch (SocketTimeoutException e) {
+				if (idle)
+					throw e;
+				throw timeout();
+			}
+			if (read == -1)
+				return null;
+			received(read);
+		}
+		checkLimits(headerEnd);
+
+		header.parse(buffer, position, headerEnd);
+		returned = headerEnd - position;
+		headerEnd = -1;
+		return header;
+	}
+
+	/**
+	 * Reads the bytes which are available on the given non-blocking
+	 * <code>channel</code>.
+	 *
+	 * @param channel to read from
+	 * @return number of read bytes, -1 if the channel reached its end
+	 * @throws IOException if reading fails
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		skipReturned();
+		makeRoom();
+		if (channelBuffer == null || channelBuffer.array() != buffer) {
+			channelBuffer = ByteBuffer.wrap(buffer);
+		}
+		channelBuffer.limit(buffer.length).position(limit);
+		int read = channel.read(channelBuffer);
+		if (read > 0) {
+			received(read);
+		}
+		return read;
+	}
+
+	/**
+	 * Checks if the buffered part of the next request header already exceeds
+	 * the limits.
+	 *
+	 * @throws RequestHeaderException if the request line or the header is too
+	 *                                large
+	 */
+	public void checkLimits() throws RequestHeaderException {
+		skipReturned();
+		checkLimits(headerEnd == -1 ? limit : headerEnd);
+	}
+
+	/**
+	 * Checks if the next request header, of which some bytes have arrived, is
+	 * arriving in time. Used while the bytes are read without blocking, when the
+	 * timeouts of the socket do not apply.
+	 *
+	 * @param currentTime current time in milliseconds
+	 * @throws RequestHeaderException if the header is not arriving in time
+	 */
+	public void checkTimeouts(long currentTime) throws RequestHeaderException {
+		if (buffered() > 0 && (currentTime - lastRead >= readTimeout || currentTime - requestStarted >= headerTimeout))
+			throw timeout();
+	}
+
+	/**
+	 * Checks if the whole next request header is buffered, in which case
+	 * {@link #readHeader()} returns it without reading.
+	 *
+	 * @return <code>true</code> if the end of the header has been read
+	 */
+	public boolean hasHeader() {
+		skipReturned();
+		return findHeaderEnd();
+	}
+
+	/**
+	 * Returns the number of bytes after the last returned header which were
+	 * already read.
+	 *
+	 * @return number of buffered bytes
+	 */
+	public int buffered() {
+		return limit - position - returned;
+	}
+
+	/**
+	 * Returns the number of bytes after the last returned header which can be
+	 * read without blocking.
+	 *
+	 * @return number of buffered bytes and bytes available on the stream
+	 * @throws IOException
+	 */
+	public int available() throws IOException {
+		return buffered() + in.available();
+	}
+
+	/**
+	 * Reads the bytes following the last returned header, which belong to the
+	 * body of its request. The buffered bytes are returned first, then the bytes
+	 * are read from the socket, waiting at most for the read timeout.
+	 *
+	 * @param b   array into which the bytes are read
+	 * @param off offset in the array
+	 * @param len maximum number of bytes to read
+	 * @return number of read bytes, -1 if the stream ended
+	 * @throws SocketTimeoutException if no byte arrived within the read timeout
+	 * @throws IOException            if reading fails
+	 */
+	public int readBody(byte[] b, int off, int len) throws IOException {
+		skipReturned();
+		if (len == 0)
+			return 0;
+
+		if (position < limit) {
+			int n = Math.min(len, limit - position);
+			System.arraycopy(buffer, position, b, off, n);
+			position += n;
+			headerEnd = -1;
+			if (position == limit) {
+				position = limit = scanned = 0;
+				requestStarted = 0;
+			} else {
+				// the next request arrived along with the body
+				scanned = Math.max(scanned, position);
+				requestStarted = lastRead;
+			}
+			return n;
+		}
+
+		setSocketTimeout(readTimeout);
+		return in.read(b, off, len);
+	}
+
+	/**
+	 * Returns a stream reading the bytes following the last returned header
+	 * through {@link #readBody(byte[], int, int)}. The stream does not know where
+	 * the body ends, so it should be read through a stream which does.
+	 *
+	 * @return stream of the bytes following the header
+	 */
+	public InputStream getBodyStream() {
+		if (bodyStream == null) {
+			bodyStream = new InputStream() {
+				/** buffer of a single read byte */
+				private final byte[] single = new byte[1];
+
+				@Override
+				public int read() throws IOException {
+					return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					return readBody(b, off, len);
+				}
+
+				@Override
+				public int available() throws IOException {
+					return RequestReader.this.available();
+				}
+			};
+		}
+		return bodyStream;
+	}
+
+	/**
+	 * Returns the buffer to the pool and discards the buffered bytes. Meant to be
+	 * called when the connection is closed or when it waits for its next request
+	 * with nothing buffered. The last returned header is not valid afterwards. A
+	 * new buffer is taken when reading continues.
+	 */
+	public void release() {
+		if (pool != null && buffer != null) {
+			pool.release(buffer);
+		}
+		buffer = null;
+		channelBuffer = null;
+		position = limit = scanned = returned = 0;
+		headerEnd = -1;
+		requestStarted = 0;
+	}
+
+	/**
+	 * Skips the last returned header.
+	 */
+	private void skipReturned() {
+		if (returned == 0)
+			return;
+		position += returned;
+		returned = 0;
+		if (position == limit) {
+			// nothing is buffered, so the next request can start at the beginning
+			position = limit = scanned = 0;
+			requestStarted = 0;
+		} else {
+			// the next request arrived along with the previous one
+			requestStarted = lastRead;
+		}
+	}
+
+	/**
+	 * Accounts for the bytes read to the end of the buffer.
+	 *
+	 * @param read number of read bytes
+	 */
+	private void received(int read) {
+		lastRead = System.currentTimeMillis();
+		if (buffered() == 0) {
+			requestStarted = lastRead;
+		}
+		limit += read;
+	}
+
+	/**
+	 * Checks the request line and the size of the next request header, of which
+	 * the bytes up to the given index have arrived.
+	 *
+	 * @param end index after the last byte of the header that has arrived
+	 * @throws RequestHeaderException if the request line or the header is too
+	 *                                large
+	 */
+	private void checkLimits(int end) throws RequestHeaderException {
+		int to = Math.min(end, position + maxRequestLineLength + 1);
+		int lineEnd = position;
+		while (lineEnd < to && buffer[lineEnd] != '\n') {
+			++lineEnd;
+		}
+		if (lineEnd - position > maxRequestLineLength)
+			throw new RequestHeaderException(414, "URI Too Long");
+		if (end - position > maxHeaderSize)
+			throw new RequestHeaderException(431, "Request Header Fields Too Large");
+	}
+
+	/**
+	 * Sets the timeout of the socket if it differs from the current one.
+	 *
+	 * @param timeout to set in milliseconds
+	 * @throws IOException
+	 */
+	private void setSocketTimeout(int timeout) throws IOException {
+		if (timeout != socketTimeout) {
+			socket.setSoTimeout(timeout);
+			socketTimeout = timeout;
+		}
+	}
+
+	/**
+	 * Creates the exception rejecting a header which did not arrive in time.
+	 *
+	 * @return created exception
+	 */
+	private static RequestHeaderException timeout() {
+		return new RequestHeaderException(408, "Request Timeout");
+	}
+
+	/**
+	 * Searches the buffered bytes for the empty line which ends the header
+	 * starting at the position. Both "\r\n\r\n" and "\n\n" end a header.
+	 *
+	 * @return <code>true</code> if the end of the header was found
+	 */
+	private boolean findHeaderEnd() {
+		if (headerEnd != -1)
+			return true;
+
+		for (int i = Math.max(scanned, position); i < limit; ++i) {
+			if (buffer[i] != '\n')
+				continue;
+			// skip the empty lines before the request line
+			if (i == position || i == position + 1 && buffer[position] == '\r') {
+				continue;
+			}
+			int j = i + 1;
+			if (j < limit && buffer[j] == '\r') {
+				++j;
+			}
+			if (j == limit) {
+				// the next line has not arrived yet
+				scanned = i;
+				return false;
+			}
+			if (buffer[j] == '\n') {
+				headerEnd = j + 1;
+				return true;
+			}
+		}
+		scanned = limit;
+		return false;
+	}
+
+	/**
+	 * Makes room for reading more bytes, by taking a buffer if there is none, by
+	 * moving the buffered bytes to the beginning of the buffer or by enlarging
+	 * it.
+	 */
+	private void makeRoom() {
+		if (buffer == null) {
+			buffer = acquire(bufferSize);
+			return;
+		}
+		if (limit < buffer.length)
+			return;
+
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			scanned -= Math.min(scanned, position);
+			position = 0;
+		} else {
+			byte[] larger = acquire(buffer.length * 2);
+			System.arraycopy(buffer, 0, larger, 0, limit);
+			if (pool != null) {
+				pool.release(buffer);
+			}
+			buffer = larger;
+		}
+	}
+
+	/**
+	 * Takes a buffer of the given size from the pool, or allocates it if there
+	 * is no pool.
+	 *
+	 * @param size of the buffer
+	 * @return the buffer
+	 */
+	private byte[] acquire(int size) {
+		return pool == null ? new byte[size] : pool.acquire(size);
+	}
+
+}
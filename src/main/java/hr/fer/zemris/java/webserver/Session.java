@@ -0,0 +1,239 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * A session of a client, holding its persistent parameters. The session is
+ * valid until its expiry time, which is moved forward whenever the client uses
+ * it. Sessions are kept in an {@link ISessionStore}.
+ * <p>
+ * A session can be used by several requests at once, so its parameters are
+ * kept in a concurrent map and its expiry time is volatile. The session keeps
+ * an estimate of the memory it takes, which changes as the parameters are
+ * changed, and reports the changes to its store.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class Session {
+	/** the estimated size (in bytes) of a session without its strings and parameters */
+	private static final int SESSION_SIZE = 256;
+	/** the estimated size (in bytes) of a parameter without its strings */
+	private static final int PARAMETER_SIZE = 96;
+	/** the estimated size (in bytes) of a string without its characters */
+	private static final int STRING_SIZE = 40;
+
+	/** session ID */
+	private String id;
+	/** host of the session */
+	private String host;
+	/** until when (in milliseconds) is the session valid */
+	private volatile long validUntil;
+	/** the values of the persistent parameters of this session */
+	private Map<String, String> values = new ConcurrentHashMap<>();
+	/** Map of the persistent parameters of this session */
+	private Map<String, String> parameters = new Parameters();
+	/** the estimated size (in bytes) of this session, guarded by the session */
+	private long size;
+	/**
+	 * takes the changes of the size of this session, <code>null</code> if they
+	 * are not reported, guarded by the session
+	 */
+	private LongConsumer sizeListener;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param id         unique session ID
+	 * @param host       name of the server of the session
+	 * @param validUntil until when is the session valid
+	 */
+	public Session(String id, String host, long validUntil) {
+		this.id = id;
+		this.host = host;
+		this.validUntil = validUntil;
+		this.size = SESSION_SIZE + sizeOf(id) + sizeOf(host);
+	}
+
+	/**
+	 * Getter for <code>id</code>
+	 *
+	 * @return the session ID
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Getter for <code>host</code>
+	 *
+	 * @return name of the server of the session
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Getter for <code>parameters</code>. A parameter must not be
+	 * <code>null</code>, and the parameters can not be changed through the views
+	 * of the map.
+	 *
+	 * @return map of the persistent parameters of this session
+	 */
+	public Map<String, String> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Getter for <code>validUntil</code>
+	 *
+	 * @return until when (in milliseconds) is the session valid
+	 */
+	public long getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * Extends the session until the given time.
+	 *
+	 * @param validUntil until when (in milliseconds) is the session valid
+	 */
+	public void touch(long validUntil) {
+		this.validUntil = validUntil;
+	}
+
+	/**
+	 * Checks if the session expired.
+	 *
+	 * @param currentTime the current time in milliseconds
+	 * @return <code>true</code> if the session is no longer valid
+	 */
+	public boolean isExpired(long currentTime) {
+		return validUntil < currentTime;
+	}
+
+	/**
+	 * Returns the estimate of the memory this session takes, including its
+	 * parameters.
+	 *
+	 * @return the estimated size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Sets the listener of the changes of the size of this session. The current
+	 * size is taken from the previous listener and given to the new one, so a
+	 * store can keep the exact sum of the sizes of its sessions.
+	 *
+	 * @param sizeListener takes the changes of the size, <code>null</code> if
+	 *                     they should not be reported
+	 */
+	public synchronized void setSizeListener(LongConsumer sizeListener) {
+		if (this.sizeListener != null) {
+			this.sizeListener.accept(-size);
+		}
+		this.sizeListener = sizeListener;
+		if (sizeListener != null) {
+			sizeListener.accept(size);
+		}
+	}
+
+	/**
+	 * Changes the size of this session and reports it.
+	 *
+	 * @param delta the change of the size
+	 */
+	private void resize(long delta) {
+		size += delta;
+		if (sizeListener != null) {
+			sizeListener.accept(delta);
+		}
+	}
+
+	/**
+	 * Estimates the size of a parameter.
+	 *
+	 * @param name  of the parameter
+	 * @param value of the parameter, <code>null</code> if there is none
+	 * @return the estimated size in bytes, 0 if there is no value
+	 */
+	private static long sizeOf(Object name, String value) {
+		return value == null ? 0 : PARAMETER_SIZE + sizeOf(name.toString()) + sizeOf(value);
+	}
+
+	/**
+	 * Estimates the size of a string.
+	 *
+	 * @param s the string
+	 * @return the estimated size in bytes
+	 */
+	private static long sizeOf(String s) {
+		return STRING_SIZE + 2L * s.length();
+	}
+
+	/**
+	 * The persistent parameters of the session. The values are read without
+	 * locking, while a change locks the session to keep its size exact.
+	 *
+	 * @author Vedran Kolka
+	 *
+	 */
+	private class Parameters extends AbstractMap<String, String> {
+
+		@Override
+		public String get(Object name) {
+			return values.get(name);
+		}
+
+		@Override
+		public boolean containsKey(Object name) {
+			return values.containsKey(name);
+		}
+
+		@Override
+		public int size() {
+			return values.size();
+		}
+
+		@Override
+		public String put(String name, String value) {
+			synchronized (Session.this) {
+				String previous = values.put(name, value);
+				resize(sizeOf(name, value) - sizeOf(name, previous));
+				return previous;
+			}
+		}
+
+		@Override
+		public String remove(Object name) {
+			synchronized (Session.this) {
+				String previous = values.remove(name);
+				resize(-sizeOf(name, previous));
+				return previous;
+			}
+		}
+
+		@Override
+		public void clear() {
+			synchronized (Session.this) {
+				for (String name : values.keySet()) {
+					remove(name);
+				}
+			}
+		}
+
+		@Override
+		public Set<Entry<String, String>> entrySet() {
+			return Collections.unmodifiableMap(values).entrySet();
+		}
+
+	}
+
+}
@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel of the expiry times of sessions. The time is divided
+ * into ticks, and a session is kept in the slot of the tick in which it
+ * expires, modulo the number of slots. Scheduling a session is a single
+ * lock-free add to a queue, and advancing the wheel visits only the slots of
+ * the ticks which passed, so the expired sessions are found without scanning
+ * all the sessions.
+ * <p>
+ * Extending a session does not move it in the wheel. When the slot of a session
+ * is visited, a session which is no longer expired is scheduled again for its
+ * new expiry time, so the cost of extending a session is paid at most once per
+ * visit instead of on every request. A session whose expiry time is more than a
+ * whole turn of the wheel away is visited once per turn until it expires.
+ * <p>
+ * As a session is extended for the same time whenever it is used, the sessions
+ * which expire first are also the least recently used ones, so the wheel is
+ * also used to find the sessions to evict when a store is full.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class SessionExpiryWheel {
+
+	/** the slots of the wheel */
+	private Queue<Session>[] slots;
+	/** the length (in milliseconds) of a tick */
+	private long tick;
+	/** the first tick whose slot was not visited yet */
+	private volatile long nextTick;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param slotCount   number of slots
+	 * @param tick        the length (in milliseconds) of a tick
+	 * @param currentTime the current time in milliseconds
+	 * @throws IllegalArgumentException if the <code>slotCount</code> or the
+	 *                                  <code>tick</code> is not positive
+	 */
+	public SessionExpiryWheel(int slotCount, long tick, long currentTime) {
+		if (slotCount <= 0 || tick <= 0) {
+			throw new IllegalArgumentException("Number of slots and the tick must be positive.");
+		}
+		// the array is private and only ever holds queues of sessions
+		@SuppressWarnings("unchecked")
+		Queue<Session>[] slots = (Queue<Session>[]) new Queue<?>[slotCount];
+		this.slots = slots;
+		for (int i = 0; i < slotCount; ++i) {
+			slots[i] = new ConcurrentLinkedQueue<>();
+		}
+		this.tick = tick;
+		this.nextTick = currentTime / tick;
+	}
+
+	/**
+	 * Schedules the given session to be visited once its expiry time passes.
+	 *
+	 * @param session to schedule
+	 */
+	public void schedule(Session session) {
+		// a session racing with the visit of its slot waits for the next turn
+		long expiryTick = Math.max(session.getValidUntil() / tick, nextTick);
+		slots[(int) (expiryTick % slots.length)].add(session);
+	}
+
+	/**
+	 * Visits the slots of the ticks which passed until the given time. The
+	 * sessions which expired are passed to the given action, and the others are
+	 * scheduled again. If the wheel is behind by more than a turn, every slot is
+	 * visited once.
+	 *
+	 * @param currentTime the current time in milliseconds
+	 * @param expired     action taking the expired sessions
+	 */
+	public synchronized void advance(long currentTime, Consumer<Session> expired) {
+		long currentTick = currentTime / tick;
+		long lastTick = Math.min(currentTick, nextTick + slots.length);
+
+		for (long t = nextTick; t < lastTick; ++t) {
+			Queue<Session> slot = slots[(int) (t % slots.length)];
+			// the sessions scheduled again into this slot are left for the next turn
+			for (int n = slot.size(); n > 0; --n) {
+				Session session = slot.poll();
+				if (session.isExpired(currentTime)) {
+					expired.accept(session);
+				} else {
+					schedule(session);
+				}
+			}
+			nextTick = t + 1;
+		}
+		if (nextTick < currentTick) {
+			nextTick = currentTick;
+		}
+	}
+
+	/**
+	 * Passes the least recently used sessions to the given action while the
+	 * given condition holds. The slots are visited in the order of their ticks,
+	 * starting with the next one, and a session which was extended beyond the
+	 * tick of its slot is scheduled again instead. The order is exact only if no
+	 * session expires a whole turn of the wheel after the next tick.
+	 *
+	 * @param full    condition which holds while sessions should be evicted
+	 * @param evicted action taking the evicted sessions
+	 */
+	public synchronized void evict(BooleanSupplier full, Consumer<Session> evicted) {
+		long lastTick = nextTick + slots.length;
+		for (long t = nextTick; t < lastTick && full.getAsBoolean(); ++t) {
+			Queue<Session> slot = slots[(int) (t % slots.length)];
+			Session session;
+			while (full.getAsBoolean() && (session = slot.poll()) != null) {
+				long expiryTick = session.getValidUntil() / tick;
+				// a session scheduled again would come back into this slot
+				if (expiryTick > t && expiryTick - t < slots.length) {
+					schedule(session);
+				} else {
+					evicted.accept(session);
+				}
+			}
+		}
+	}
+
+}
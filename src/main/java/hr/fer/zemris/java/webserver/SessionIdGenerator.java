@@ -0,0 +1,117 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Generates unpredictable session IDs. The random bytes are drawn in batches of
+ * {@value #BATCH_SIZE} IDs from a fixed number of {@link SecureRandom}s, each
+ * locked on its own. A thread uses the one picked by its ID, so the threads
+ * generating IDs at once rarely wait for each other, while a short-lived thread,
+ * such as a virtual thread per connection, does not seed a generator and draw a
+ * whole batch of its own to use a single ID. The <code>DRBG</code> algorithm is
+ * used where it is available, because its instances do not share any state,
+ * unlike the default algorithm on some platforms.
+ * <p>
+ * An ID is made of {@value #ID_BYTES} random bytes, encoded in
+ * {@value #ID_LENGTH} characters of the URL safe base 64 alphabet, which can be
+ * sent in a cookie without escaping.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class SessionIdGenerator {
+	/** number of random bytes of an ID */
+	public static final int ID_BYTES = 15;
+	/** the length of an ID */
+	public static final int ID_LENGTH = ID_BYTES / 3 * 4;
+	/** number of IDs drawn from the SecureRandom at once */
+	private static final int BATCH_SIZE = 64;
+	/** number of SecureRandoms, a power of two */
+	private static final int STRIPES = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 2) - 1)
+			<< 1;
+	/** the URL safe base 64 alphabet */
+	private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/** the random bytes of the stripes */
+	private final Batch[] batches = new Batch[STRIPES];
+
+	/**
+	 * Constructor. A {@link SecureRandom} seeds itself only once it is used, so
+	 * creating all the stripes up front is cheap.
+	 */
+	public SessionIdGenerator() {
+		for (int i = 0; i < STRIPES; ++i) {
+			batches[i] = new Batch();
+		}
+	}
+
+	/**
+	 * Generates a new session ID.
+	 *
+	 * @return random string of length {@value #ID_LENGTH}
+	 */
+	public String nextId() {
+		Batch batch = stripe();
+		byte[] id = new byte[ID_LENGTH];
+		synchronized (batch) {
+			if (batch.position == batch.bytes.length) {
+				batch.random.nextBytes(batch.bytes);
+				batch.position = 0;
+			}
+			byte[] bytes = batch.bytes;
+			// every 3 bytes are encoded in 4 characters of 6 bits
+			for (int i = batch.position, j = 0; j < ID_LENGTH; i += 3, j += 4) {
+				int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | bytes[i + 2] & 0xff;
+				id[j] = ALPHABET[bits >>> 18];
+				id[j + 1] = ALPHABET[bits >>> 12 & 0x3f];
+				id[j + 2] = ALPHABET[bits >>> 6 & 0x3f];
+				id[j + 3] = ALPHABET[bits & 0x3f];
+			}
+			batch.position += ID_BYTES;
+		}
+		return new String(id, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the stripe of the calling thread, picked by the ID of the thread.
+	 *
+	 * @return the random bytes of the stripe
+	 */
+	private Batch stripe() {
+		// the IDs of the threads are consecutive, so they are spread over the stripes
+		long threadId = Thread.currentThread().getId();
+		return batches[(int) (threadId * 0x9E3779B97F4A7C15L >>> 32) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Creates the source of the random bytes of a stripe.
+	 *
+	 * @return a new {@link SecureRandom}
+	 */
+	private static SecureRandom newRandom() {
+		try {
+			return SecureRandom.getInstance("DRBG");
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
+	}
+
+	/**
+	 * The random bytes of a stripe which were not used yet.
+	 *
+	 * @author Vedran Kolka
+	 *
+	 */
+	private static class Batch {
+		/** the source of the random bytes of the stripe */
+		private final SecureRandom random = newRandom();
+		/** the random bytes of a batch of IDs */
+		private final byte[] bytes = new byte[BATCH_SIZE * ID_BYTES];
+		/** the first byte which was not used yet */
+		private int position = bytes.length;
+	}
+
+}
@@ -0,0 +1,42 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * The session of the requests which a client pipelined without a session
+ * cookie. Such requests are answered in parallel, and each of them may need a
+ * session, but the client can keep only one of the sessions. So the session is
+ * created by the first of them which needs it, and the others use the same
+ * session, as long as it is valid.
+ *
+ * @author Vedran Kolka
+ *
+ */
+class SharedSession {
+	/** the store in which the session is created */
+	private ISessionStore sessions;
+	/** the shared session, <code>null</code> until one of the requests needs it */
+	private Session session;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sessions the store in which the session is created
+	 */
+	SharedSession(ISessionStore sessions) {
+		this.sessions = sessions;
+	}
+
+	/**
+	 * Returns the shared session, creating it if none of the requests needed it
+	 * so far or if it is no longer valid for the given host.
+	 *
+	 * @param host name of the server the client requested
+	 * @return the valid shared session
+	 */
+	synchronized Session get(String host) {
+		if (session == null || sessions.get(session.getId(), host) != session) {
+			session = sessions.create(host);
+		}
+		return session;
+	}
+
+}
@@ -1,38 +1,57 @@
 package hr.fer.zemris.java.webserver;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Scanner;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.StaticResourceCache.CachedResource;
 
 /**
  * A web server that uses HTTP 1.1 protocol. The server also serves HTTP 1.0
  * protocol requests.
  * <p>
- * The server only serves requests with method GET as the other methods are not
- * supported.<br>
+ * The server serves requests with methods GET, POST and PUT. A request body is
+ * streamed to the worker, except for an url encoded form whose fields are
+ * added to the parameters.<br>
  * The server offers a number of web workers and scripts it can run as well as
  * fetching locally stored html, image files and more.
  * <p>
@@ -81,19 +100,156 @@ public class SmartHttpServer {
 	 * server
 	 */
 	public static final String TIMEOUT_KEY = "session.timeout";
+	/**
+	 * Expected key of the maximum number of sessions in properties file for
+	 * configuration the server
+	 */
+	public static final String MAX_SESSIONS_KEY = "session.maxSessions";
+	/**
+	 * Expected key of the maximum estimated memory of the sessions in properties
+	 * file for configuration the server
+	 */
+	public static final String MAX_SESSIONS_SIZE_KEY = "session.maxBytes";
 	/**
 	 * Expected key of the path to the configuration file for the worker threads in
 	 * properties file for configuration of the server
 	 */
 	public static final String WORKERS_KEY = "server.workers";
+	/**
+	 * Expected key of the connection engine (<code>blocking</code> or
+	 * <code>nio</code>) in properties file for configuration of the server
+	 */
+	public static final String ENGINE_KEY = "server.engine";
+	/**
+	 * Expected key of the executor of the workers (<code>fixed</code> or
+	 * <code>virtual</code>) in properties file for configuration of the server
+	 */
+	public static final String EXECUTOR_KEY = "server.executor";
+	/**
+	 * Expected key of the time (in seconds) an idle persistent connection is kept
+	 * open in properties file for configuration of the server
+	 */
+	public static final String KEEP_ALIVE_TIMEOUT_KEY = "server.keepAliveTimeout";
+	/**
+	 * Expected key of the maximum number of requests served over one connection
+	 * in properties file for configuration of the server
+	 */
+	public static final String MAX_KEEP_ALIVE_REQUESTS_KEY = "server.maxKeepAliveRequests";
+	/**
+	 * Expected key of the maximum number of pipelined requests answered in
+	 * parallel in properties file for configuration of the server
+	 */
+	public static final String MAX_PIPELINED_REQUESTS_KEY = "server.maxPipelinedRequests";
+	/**
+	 * Expected key of the maximum length of a request line in properties file for
+	 * configuration of the server
+	 */
+	public static final String MAX_REQUEST_LINE_KEY = "server.maxRequestLineLength";
+	/**
+	 * Expected key of the maximum size of a request header in properties file for
+	 * configuration of the server
+	 */
+	public static final String MAX_HEADER_SIZE_KEY = "server.maxHeaderSize";
+	/**
+	 * Expected key of the timeout (in seconds) of a single read of a request in
+	 * properties file for configuration of the server
+	 */
+	public static final String READ_TIMEOUT_KEY = "server.readTimeout";
+	/**
+	 * Expected key of the time (in seconds) in which a whole request header has
+	 * to arrive in properties file for configuration of the server
+	 */
+	public static final String HEADER_TIMEOUT_KEY = "server.headerTimeout";
+	/**
+	 * Expected key of the size of the buffer collecting the data of a chunk of a
+	 * chunked answer in properties file for configuration of the server
+	 */
+	public static final String CHUNK_SIZE_KEY = "server.chunkSize";
+	/**
+	 * Expected key of the size of the buffer holding an answer until its length
+	 * is known in properties file for configuration of the server
+	 */
+	public static final String RESPONSE_BUFFER_SIZE_KEY = "server.responseBufferSize";
+	/**
+	 * Expected key of the number of buffers of every size kept for reuse in
+	 * properties file for configuration of the server
+	 */
+	public static final String BUFFER_POOL_SIZE_KEY = "server.bufferPool.buffersPerSize";
+	/**
+	 * Expected key of the byte budget of the static file cache (0 disables the
+	 * cache) in properties file for configuration of the server
+	 */
+	public static final String STATIC_CACHE_SIZE_KEY = "server.staticCache.maxBytes";
+	/**
+	 * Expected key of the size of the largest file held in the static file cache
+	 * in properties file for configuration of the server
+	 */
+	public static final String STATIC_CACHE_FILE_SIZE_KEY = "server.staticCache.maxFileSize";
+	/**
+	 * Expected key of the interval (in milliseconds) of checking cached files for
+	 * modification in properties file for configuration of the server
+	 */
+	public static final String STATIC_CACHE_REVALIDATE_KEY = "server.staticCache.revalidateInterval";
+	/**
+	 * Expected key of the minimal length of a compressed answer body (-1
+	 * disables compression) in properties file for configuration of the server
+	 */
+	public static final String COMPRESSION_THRESHOLD_KEY = "server.compression.threshold";
+	/**
+	 * Expected key of the maximum length of a form sent in a request body in
+	 * properties file for configuration of the server
+	 */
+	public static final String MAX_FORM_SIZE_KEY = "server.maxFormSize";
+	/**
+	 * Expected key of the size of the largest uploaded file kept in memory in
+	 * properties file for configuration of the server
+	 */
+	public static final String UPLOAD_THRESHOLD_KEY = "server.upload.threshold";
+	/**
+	 * Expected key of the directory of the temporary files of uploads in
+	 * properties file for configuration of the server
+	 */
+	public static final String UPLOAD_DIRECTORY_KEY = "server.upload.directory";
+	/**
+	 * Expected key of the maximum size of the files uploaded in a request in
+	 * properties file for configuration of the server
+	 */
+	public static final String MAX_UPLOAD_SIZE_KEY = "server.upload.maxSize";
 	/** the path that should be requested to request an IWebWorker by convention */
 	public static final String CONVENTION_DIR = "/ext/";
 	/** the package where an {@link IWebWorker} should be placed by convention */
 	public static final String CONVENTION_PACKAGE = "hr.fer.zemris.java.webserver.workers";
-	/** the length of a session id */
-	private static final int SID_LENGTH = 20;
-	/** the interval of collecting expired sessions (in seconds) */
-	private static final int GARBAGE_COLLECTION_INTERVAL = 5 * 60;
+	/**
+	 * the prefix of the keys of Cache-Control values of mime types in the mime
+	 * configuration file
+	 */
+	public static final String CACHE_CONTROL_PREFIX = "cache.";
+	/**
+	 * the prefix of the keys marking mime types worth compressing in the mime
+	 * configuration file
+	 */
+	public static final String COMPRESSIBLE_PREFIX = "gzip.";
+	/** the maximum number of ranges of a static file served in one answer */
+	private static final int MAX_RANGES = 16;
+	/**
+	 * the largest part of the answer to a pipelined request held in memory, so a
+	 * connection holds at most <code>maxPipelinedRequests</code> times as much
+	 */
+	private static final int MAX_PIPELINED_ANSWER_SIZE = 64 * 1024;
+	/** size of the buffer of the output stream of a connection */
+	private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
+	/** the interval of removing expired sessions (in milliseconds) */
+	private static final int SESSION_EXPIRY_INTERVAL = 1000;
+	/** the interval of closing idle connections held by the selector (in milliseconds) */
+	private static final int IDLE_CHECK_INTERVAL = 1000;
+	/** the initial size of the buffer into which a form is read */
+	private static final int FORM_BUFFER_SIZE = 1024;
+	/** size of the buffer through which a multipart body is parsed */
+	private static final int MULTIPART_BUFFER_SIZE = 8 * 1024;
+	/** size of the buffer through which the unread rest of a body is skipped */
+	private static final int SKIP_BUFFER_SIZE = 8 * 1024;
+	/** the longest unread rest of a body which is skipped to reuse the connection */
+	private static final int MAX_SKIPPED_BODY = 64 * 1024;
 
 	/** address of this server */
 	private String address;
@@ -105,20 +261,65 @@ public class SmartHttpServer {
 	private int workerThreads;
 	/** how long (in seconds) is a session valid */
 	private int sessionTimeout;
+	/** how long (in seconds) is an idle persistent connection kept open */
+	private int keepAliveTimeout;
+	/** maximum number of requests served over one connection */
+	private int maxKeepAliveRequests;
+	/** maximum number of pipelined requests answered in parallel */
+	private int maxPipelinedRequests;
+	/** size of the buffer collecting the data of a chunk of a chunked answer */
+	private int chunkSize;
+	/** size of the buffer holding an answer until its length is known */
+	private int responseBufferSize;
+	/** the buffers shared by all connections */
+	private BufferPool bufferPool;
+	/** maximum length of a request line */
+	private int maxRequestLineLength;
+	/** maximum size of a request header */
+	private int maxHeaderSize;
+	/** how long (in seconds) can a single read of a request take */
+	private int readTimeout;
+	/** how long (in seconds) can the arrival of a whole request header take */
+	private int headerTimeout;
 	/** a map of mime types that this server supports */
 	private Map<String, String> mimeTypes = new HashMap<String, String>();
+	/**
+	 * a map of Cache-Control values of static files by their mime types or by
+	 * "type/*" for all subtypes of a type
+	 */
+	private Map<String, String> cacheControl = new HashMap<String, String>();
+	/**
+	 * a map marking the mime types (or "type/*" for all subtypes of a type) whose
+	 * answers are compressed with "true"
+	 */
+	private Map<String, String> compressibleTypes = new HashMap<String, String>();
+	/** minimal length of a compressed answer body, -1 if compression is disabled */
+	private int compressionThreshold;
+	/** maximum length of a form sent in a request body */
+	private int maxFormSize;
+	/** the size of the largest uploaded file kept in memory */
+	private int uploadThreshold;
+	/** the directory of the temporary files of uploads */
+	private Path uploadDirectory;
+	/** maximum size of the files uploaded in a request, -1 if unlimited */
+	private long maxUploadSize;
 	/** The thread on which the server runs */
 	private ServerThread serverThread;
 	/** The threadpool of worker threads that process the requests */
 	private ExecutorService threadPool;
+	/**
+	 * The factory method of the virtual thread executor if the workers should run
+	 * on virtual threads, <code>null</code> otherwise
+	 */
+	private Method virtualThreadExecutor;
 	/** The root directory of this servers files available from the web */
 	private Path documentRoot;
+	/** The cache of small static files, <code>null</code> if disabled */
+	private StaticResourceCache staticCache;
 	/** A map of IWebWorkers on this server */
 	private Map<String, IWebWorker> workersMap;
-	/** A map of this severs active sessions */
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
-	/** A Random for generating session IDs */
-	private Random sessionRandom = new Random();
+	/** The store of this servers active sessions */
+	private ISessionStore sessions;
 	/**
 	 * A thread that checks if there are expired sessions to remove from the
 	 * sessions map
@@ -145,24 +346,97 @@ public class SmartHttpServer {
 			domainName = serverProperties.getOrDefault(DOMAIN_KEY, "www.localhost.com");
 			port = Integer.parseInt(serverProperties.getOrDefault(PORT_KEY, "8080"));
 			workerThreads = Integer.parseInt(serverProperties.getOrDefault(WORKER_THREADS_KEY, "1"));
+			String executor = serverProperties.getOrDefault(EXECUTOR_KEY, "fixed");
+			if (executor.equals("virtual")) {
+				// looked up reflectively so the server still builds for older JDKs
+				try {
+					virtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				} catch (NoSuchMethodException e) {
+					throw new IllegalArgumentException("Virtual threads are not supported by this JVM.");
+				}
+			} else if (!executor.equals("fixed")) {
+				throw new IllegalArgumentException("Unknown executor: " + executor);
+			}
 			sessionTimeout = Integer.parseInt(serverProperties.getOrDefault(TIMEOUT_KEY, "6000"));
+			keepAliveTimeout = Integer.parseInt(serverProperties.getOrDefault(KEEP_ALIVE_TIMEOUT_KEY, "5"));
+			maxKeepAliveRequests = Integer.parseInt(serverProperties.getOrDefault(MAX_KEEP_ALIVE_REQUESTS_KEY, "100"));
+			maxPipelinedRequests = Integer.parseInt(serverProperties.getOrDefault(MAX_PIPELINED_REQUESTS_KEY, "8"));
+			maxRequestLineLength = Integer.parseInt(serverProperties.getOrDefault(MAX_REQUEST_LINE_KEY,
+					Integer.toString(RequestReader.DEFAULT_MAX_REQUEST_LINE_LENGTH)));
+			maxHeaderSize = Integer.parseInt(serverProperties.getOrDefault(MAX_HEADER_SIZE_KEY,
+					Integer.toString(RequestReader.DEFAULT_MAX_HEADER_SIZE)));
+			readTimeout = Integer.parseInt(serverProperties.getOrDefault(READ_TIMEOUT_KEY, "5"));
+			headerTimeout = Integer.parseInt(serverProperties.getOrDefault(HEADER_TIMEOUT_KEY, "20"));
+			chunkSize = Integer.parseInt(serverProperties.getOrDefault(CHUNK_SIZE_KEY,
+					Integer.toString(ChunkedOutputStream.DEFAULT_CHUNK_SIZE)));
+			if (chunkSize <= 0) {
+				throw new IllegalArgumentException("Chunk size must be positive.");
+			}
+			responseBufferSize = Integer.parseInt(serverProperties.getOrDefault(RESPONSE_BUFFER_SIZE_KEY,
+					Integer.toString(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE)));
+			if (responseBufferSize < 0) {
+				throw new IllegalArgumentException("Response buffer size must not be negative.");
+			}
+			bufferPool = new BufferPool(Integer.parseInt(serverProperties.getOrDefault(BUFFER_POOL_SIZE_KEY,
+					Integer.toString(BufferPool.DEFAULT_BUFFERS_PER_SIZE))));
 			Path mimeConfigPath = Paths.get(serverProperties.get(MIME_CONFIG_KEY));
 			mimeTypes = loadProperties(mimeTypes, mimeConfigPath);
-			documentRoot = Paths.get(serverProperties.getOrDefault(DOC_ROOT_KEY, "."));
-			serverThread = new ServerThread();
+			// Cache-Control values and compressible types are configured in the same file
+			for (String key : new ArrayList<>(mimeTypes.keySet())) {
+				if (key.startsWith(CACHE_CONTROL_PREFIX)) {
+					cacheControl.put(key.substring(CACHE_CONTROL_PREFIX.length()), mimeTypes.remove(key));
+				} else if (key.startsWith(COMPRESSIBLE_PREFIX)) {
+					compressibleTypes.put(key.substring(COMPRESSIBLE_PREFIX.length()), mimeTypes.remove(key));
+				}
+			}
+			compressionThreshold = Integer.parseInt(serverProperties.getOrDefault(COMPRESSION_THRESHOLD_KEY, "-1"));
+			maxFormSize = Integer.parseInt(serverProperties.getOrDefault(MAX_FORM_SIZE_KEY, "65536"));
+			if (maxFormSize < 0) {
+				throw new IllegalArgumentException("Maximum form size must not be negative.");
+			}
+			uploadThreshold = Integer.parseInt(serverProperties.getOrDefault(UPLOAD_THRESHOLD_KEY, "16384"));
+			if (uploadThreshold < 0) {
+				throw new IllegalArgumentException("Upload threshold must not be negative.");
+			}
+			uploadDirectory = Paths.get(
+					serverProperties.getOrDefault(UPLOAD_DIRECTORY_KEY, System.getProperty("java.io.tmpdir")));
+			if (!Files.isDirectory(uploadDirectory)) {
+				throw new IllegalArgumentException("Upload directory " + uploadDirectory + " does not exist.");
+			}
+			maxUploadSize = Long.parseLong(serverProperties.getOrDefault(MAX_UPLOAD_SIZE_KEY, "-1"));
+			documentRoot = Paths.get(serverProperties.getOrDefault(DOC_ROOT_KEY, ".")).toAbsolutePath().normalize();
+			long staticCacheSize = Long.parseLong(serverProperties.getOrDefault(STATIC_CACHE_SIZE_KEY, "0"));
+			if (staticCacheSize > 0) {
+				long maxFileSize = Long.parseLong(serverProperties.getOrDefault(STATIC_CACHE_FILE_SIZE_KEY, "1048576"));
+				long revalidate = Long.parseLong(serverProperties.getOrDefault(STATIC_CACHE_REVALIDATE_KEY, "1000"));
+				staticCache = new StaticResourceCache(staticCacheSize, maxFileSize, revalidate);
+			}
+			String engine = serverProperties.getOrDefault(ENGINE_KEY, "blocking");
+			if (engine.equals("nio")) {
+				serverThread = new NioServerThread();
+			} else if (engine.equals("blocking")) {
+				serverThread = new ServerThread();
+			} else {
+				throw new IllegalArgumentException("Unknown engine: " + engine);
+			}
 			Path workersConfigPath = Paths.get(serverProperties.get(WORKERS_KEY));
 			workersMap = loadWorkers(workersConfigPath);
+			int maxSessions = Integer.parseInt(serverProperties.getOrDefault(MAX_SESSIONS_KEY, "-1"));
+			long maxSessionsSize = Long.parseLong(serverProperties.getOrDefault(MAX_SESSIONS_SIZE_KEY, "-1"));
+			sessions = new ConcurrentSessionStore(sessionTimeout, maxSessions, maxSessionsSize);
 			expiredSessionsCollector = createGarbageThread();
 
-		} catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+		} catch (IOException | ClassNotFoundException | InstantiationException | IllegalAccessException
+				| IllegalArgumentException e) {
 			throw new RuntimeException("Configuration of the server failed. " + e.getMessage());
 		}
 
 	}
 
 	/**
-	 * Creates a simple "garbage collector" daemon thread which wakes up
-	 * occasionally to remove expired sessions from the <code>sessions</code> map.
+	 * Creates a simple "garbage collector" daemon thread which wakes up every
+	 * second to remove the sessions which expired meanwhile from the
+	 * <code>sessions</code> store.
 	 * 
 	 * @return the created thread
 	 */
@@ -170,21 +444,10 @@ public class SmartHttpServer {
 		Runnable r = () -> {
 			while (!stopRequested) {
 				try {
-					Thread.sleep(GARBAGE_COLLECTION_INTERVAL * 1000);
+					Thread.sleep(SESSION_EXPIRY_INTERVAL);
 				} catch (InterruptedException e) {
 				}
-				List<String> sessionsToRemove = new ArrayList<>();
-				synchronized (SmartHttpServer.this) {
-					long currentTime = System.currentTimeMillis();
-					for (String sid : sessions.keySet()) {
-						if (sessions.get(sid).validUntil < currentTime) {
-							sessionsToRemove.add(sid);
-						}
-					}
-					sessionsToRemove.forEach(sid -> {
-						sessions.remove(sid);
-					});
-				}
+				sessions.removeExpired();
 			}
 		};
 		Thread t = new Thread(r);
@@ -211,7 +474,8 @@ public class SmartHttpServer {
 		for (String line : lines) {
 			if (line.length() == 0 || line.startsWith("#"))
 				continue;
-			String[] l = line.split("=");
+			// the value may contain '=' as well
+			String[] l = line.split("=", 2);
 			String key = l[0].trim();
 			String value = l[1].trim();
 			map.put(key, value);
@@ -264,17 +528,37 @@ public class SmartHttpServer {
 	protected synchronized void start() {
 		if (serverThread.isAlive())
 			return;
-		threadPool = Executors.newFixedThreadPool(workerThreads, r -> {
-			Thread t = new Thread(r);
-			t.setDaemon(true);
-			return t;
-		});
+		threadPool = createThreadPool();
 
 		serverThread.start();
 		expiredSessionsCollector.start();
 		System.out.println("Server started.");
 	}
 
+	/**
+	 * Creates the executor on which the {@link ClientWorker}s run. It is either a
+	 * fixed pool of <code>workerThreads</code> daemon threads or, in the
+	 * <code>virtual</code> mode, an executor starting a new virtual thread for
+	 * each worker.
+	 * 
+	 * @return created executor
+	 */
+	private ExecutorService createThreadPool() {
+		if (virtualThreadExecutor != null) {
+			try {
+				return (ExecutorService) virtualThreadExecutor.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException("Creating the virtual thread executor failed. " + e.getMessage());
+			}
+		}
+
+		return Executors.newFixedThreadPool(workerThreads, r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
 	/**
 	 * Stops the server if it is running.
 	 */
@@ -290,6 +574,71 @@ public class SmartHttpServer {
 		System.out.println("Server stopped.");
 	}
 
+	/**
+	 * Creates a reader of the requests of a new connection with the configured
+	 * limits and timeouts.
+	 * 
+	 * @return created reader
+	 */
+	private RequestReader createRequestReader() {
+		RequestReader reader = new RequestReader(maxRequestLineLength, maxHeaderSize, bufferPool);
+		reader.setTimeouts(keepAliveTimeout * 1000, readTimeout * 1000, headerTimeout * 1000);
+		return reader;
+	}
+
+	/**
+	 * Checks if the given url path names the private part of the server, which
+	 * the clients must not request directly.
+	 * 
+	 * @param urlPath requested path
+	 * @return <code>true</code> if the path is private
+	 */
+	private static boolean isPrivate(String urlPath) {
+		return urlPath.startsWith("/private/") || urlPath.equals("/private");
+	}
+
+	/**
+	 * Resolves the given url path against the document root.
+	 * 
+	 * @param urlPath requested path, starting with a '/'
+	 * @return normalized path of the file, or <code>null</code> if it is not a
+	 *         direct or indirect child of the document root
+	 * @throws InvalidPathException if the path can not be converted to a
+	 *                              {@link Path}
+	 */
+	private Path resolveInDocumentRoot(String urlPath) {
+		Path path = documentRoot.resolve(urlPath.substring(1)).normalize();
+		return path.startsWith(documentRoot) ? path : null;
+	}
+
+	/**
+	 * Checks if the answers of the given mime type are worth compressing, as
+	 * configured in the mime configuration file.
+	 * 
+	 * @param mimeType of an answer
+	 * @return <code>true</code> if the answers should be compressed
+	 */
+	private boolean isCompressible(String mimeType) {
+		return "true".equals(getByMimeType(compressibleTypes, mimeType));
+	}
+
+	/**
+	 * Returns the value configured for the given mime type, or for all subtypes
+	 * of its type ("type/*") if there is none for the mime type itself.
+	 * 
+	 * @param map      of values by mime types
+	 * @param mimeType to look up
+	 * @return configured value, or <code>null</code> if none is configured
+	 */
+	private static String getByMimeType(Map<String, String> map, String mimeType) {
+		String value = map.get(mimeType);
+		if (value == null) {
+			int slash = mimeType.indexOf('/');
+			value = map.get(mimeType.substring(0, slash + 1) + '*');
+		}
+		return value;
+	}
+
 	/**
 	 * Server thread that accepts all requests and delegates them to
 	 * {@link ClientWorker}s.
@@ -304,15 +653,30 @@ public class SmartHttpServer {
 			setName("Server Thread");
 		}
 		
+		/**
+		 * Takes over a connection after its request has been answered so that the
+		 * next request can be awaited without occupying a worker thread.
+		 * 
+		 * @param socket of the connection that should be kept open
+		 * @param reader which reads the requests of the connection
+		 * @param served number of requests already served over the connection
+		 * @return <code>true</code> if the connection was taken over,
+		 *         <code>false</code> if the worker should keep reading it
+		 */
+		protected boolean resume(Socket socket, RequestReader reader, int served) {
+			return false;
+		}
+
 		@Override
 		public void run() {
-			// open serverSocket on specified port
-			try (ServerSocket serverSocket = new ServerSocket()) {
+			// open serverSocket on specified port, the sockets of a channel can have
+			// files transferred to them directly
+			try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
 
-				serverSocket.bind(new InetSocketAddress(address, port));
+				serverChannel.bind(new InetSocketAddress(address, port));
 
 				while (!stopRequested) {
-					Socket client = serverSocket.accept();
+					Socket client = serverChannel.accept().socket();
 					ClientWorker cw = new ClientWorker(client);
 					threadPool.submit(cw);
 				}
@@ -326,6 +690,275 @@ public class SmartHttpServer {
 		}
 	}
 
+	/**
+	 * Server thread that multiplexes all connections on a single {@link Selector}.
+	 * The bytes of a request are read without blocking and the connection is
+	 * delegated to a {@link ClientWorker} only once the whole request header has
+	 * arrived, so slow clients do not occupy the worker threads.
+	 * 
+	 * @author Vedran Kolka
+	 *
+	 */
+	protected class NioServerThread extends ServerThread {
+		/** the selector on which all connections are registered */
+		private volatile Selector selector;
+		/** connections handed back by the workers to wait for their next request */
+		private Queue<PendingRequest> resumed = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public void run() {
+			try (Selector selector = Selector.open(); ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+
+				this.selector = selector;
+				serverChannel.bind(new InetSocketAddress(address, port));
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+				List<SelectionKey> completed = new ArrayList<>();
+				long nextIdleCheck = System.currentTimeMillis() + IDLE_CHECK_INTERVAL;
+
+				while (!stopRequested) {
+					selector.select(IDLE_CHECK_INTERVAL);
+					registerResumed(selector);
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						if (!key.isValid())
+							continue;
+
+						if (key.isAcceptable()) {
+							accept(serverChannel, selector);
+						} else if (key.isReadable() && read(key)) {
+							key.cancel();
+							completed.add(key);
+						}
+					}
+
+					if (!completed.isEmpty()) {
+						// cancelled keys are deregistered on the next selection operation and
+						// only then can the channels be switched back to blocking mode
+						selector.selectNow();
+						for (SelectionKey key : completed) {
+							dispatch(key);
+						}
+						completed.clear();
+					}
+
+					long currentTime = System.currentTimeMillis();
+					if (currentTime >= nextIdleCheck) {
+						closeIdle(selector, currentTime);
+						nextIdleCheck = currentTime + IDLE_CHECK_INTERVAL;
+					}
+				}
+
+			} catch (IOException e) {
+				System.err.println("Server broke down. " + e.getClass() + ": " + e.getMessage());
+				System.err.println("Shuting down…");
+				SmartHttpServer.this.stop();
+			}
+		}
+
+		/**
+		 * Hands the connection back to the selector to wait for the next request
+		 * without occupying a worker thread.
+		 */
+		@Override
+		protected boolean resume(Socket socket, RequestReader reader, int served) {
+			SocketChannel channel = socket.getChannel();
+			if (channel == null || selector == null)
+				return false;
+			resumed.add(new PendingRequest(channel, reader, served));
+			selector.wakeup();
+			return true;
+		}
+
+		/**
+		 * Registers the connections handed back by the workers for reading.
+		 * 
+		 * @param selector on which the connections are registered
+		 */
+		private void registerResumed(Selector selector) {
+			PendingRequest request;
+			while ((request = resumed.poll()) != null) {
+				try {
+					request.channel.configureBlocking(false);
+					request.channel.register(selector, SelectionKey.OP_READ, request);
+				} catch (IOException e) {
+					request.reader.release();
+					closeQuietly(request.channel);
+				}
+			}
+		}
+
+		/**
+		 * Closes the connections which did not send any byte of a request for
+		 * longer than the keep-alive timeout and rejects the requests which are not
+		 * arriving in time.
+		 * 
+		 * @param selector    on which the connections are registered
+		 * @param currentTime current time in milliseconds
+		 */
+		private void closeIdle(Selector selector, long currentTime) {
+			for (SelectionKey key : selector.keys()) {
+				PendingRequest request = (PendingRequest) key.attachment();
+				if (request == null || !key.isValid())
+					continue;
+				if (request.reader.buffered() == 0) {
+					if (request.created + keepAliveTimeout * 1000L < currentTime) {
+						close(key);
+					}
+					continue;
+				}
+				try {
+					request.reader.checkTimeouts(currentTime);
+				} catch (RequestHeaderException e) {
+					reject(key, e);
+				}
+			}
+		}
+
+		/**
+		 * Answers the request of the given <code>key</code> with the status of the
+		 * given exception and closes the connection. The answer has no body, so it
+		 * fits in the socket buffer and it is written without blocking.
+		 * 
+		 * @param key       whose request is rejected
+		 * @param exception which rejected the request
+		 */
+		private void reject(SelectionKey key, RequestHeaderException exception) {
+			SocketChannel channel = (SocketChannel) key.channel();
+			String answer = "HTTP/1.1 " + exception.getStatusCode() + " " + exception.getMessage() + "\r\n"
+					+ "Content-Length: 0\r\nConnection: close\r\n\r\n";
+			try {
+				channel.write(ByteBuffer.wrap(answer.getBytes(StandardCharsets.ISO_8859_1)));
+			} catch (IOException ignorable) {
+			}
+			close(key);
+		}
+
+		/**
+		 * Accepts all pending connections and registers them for reading.
+		 * 
+		 * @param serverChannel which accepts the connections
+		 * @param selector      on which the connections are registered
+		 */
+		private void accept(ServerSocketChannel serverChannel, Selector selector) {
+			SocketChannel client;
+			try {
+				while ((client = serverChannel.accept()) != null) {
+					client.configureBlocking(false);
+					client.register(selector, SelectionKey.OP_READ, new PendingRequest(client, createRequestReader(), 0));
+				}
+			} catch (IOException e) {
+				System.err.println("Accepting a connection failed. " + e.getMessage());
+			}
+		}
+
+		/**
+		 * Reads the available bytes of the channel of the given <code>key</code>
+		 * into the reader of its {@link PendingRequest}.
+		 * 
+		 * @param key whose channel is read
+		 * @return <code>true</code> if the whole request header has arrived,
+		 *         <code>false</code> otherwise
+		 */
+		private boolean read(SelectionKey key) {
+			SocketChannel channel = (SocketChannel) key.channel();
+			PendingRequest request = (PendingRequest) key.attachment();
+			try {
+				if (request.reader.read(channel) == -1) {
+					close(key);
+					return false;
+				}
+				if (request.reader.hasHeader())
+					return true;
+				request.reader.checkLimits();
+				return false;
+			} catch (RequestHeaderException e) {
+				reject(key, e);
+				return false;
+			} catch (IOException e) {
+				close(key);
+				return false;
+			}
+		}
+
+		/**
+		 * Switches the channel of the given <code>key</code> back to blocking mode
+		 * and submits a {@link ClientWorker} for it.
+		 * 
+		 * @param key whose request header has arrived
+		 */
+		private void dispatch(SelectionKey key) {
+			SocketChannel channel = (SocketChannel) key.channel();
+			PendingRequest request = (PendingRequest) key.attachment();
+			try {
+				channel.configureBlocking(true);
+				threadPool.submit(new ClientWorker(channel.socket(), request.reader, request.served));
+			} catch (IOException e) {
+				request.reader.release();
+				closeQuietly(channel);
+			}
+		}
+
+		/**
+		 * Closes the connection of the given <code>key</code> and returns the
+		 * buffer of its reader to the pool.
+		 * 
+		 * @param key whose connection is closed
+		 */
+		private void close(SelectionKey key) {
+			key.cancel();
+			((PendingRequest) key.attachment()).reader.release();
+			closeQuietly((SocketChannel) key.channel());
+		}
+
+		/**
+		 * Closes the given <code>channel</code> ignoring any exception.
+		 * 
+		 * @param channel to close
+		 */
+		private void closeQuietly(SocketChannel channel) {
+			try {
+				channel.close();
+			} catch (IOException ignorable) {
+			}
+		}
+	}
+
+	/**
+	 * A connection waiting on the {@link NioServerThread} for the whole header of
+	 * its next request.
+	 * 
+	 * @author Vedran Kolka
+	 *
+	 */
+	private static class PendingRequest {
+		/** channel of the connection */
+		final SocketChannel channel;
+		/** reader into which the bytes of the request are read */
+		final RequestReader reader;
+		/** number of requests already served over the connection */
+		final int served;
+		/** time of creation in milliseconds */
+		final long created = System.currentTimeMillis();
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param channel of the connection
+		 * @param reader  which reads the requests of the connection
+		 * @param served  number of requests already served over the connection
+		 */
+		PendingRequest(SocketChannel channel, RequestReader reader, int served) {
+			this.channel = channel;
+			this.reader = reader;
+			this.served = served;
+		}
+	}
+
 	/**
 	 * A worker and dispatcher for clients to which the port is given through the
 	 * constructor.
@@ -337,26 +970,58 @@ public class SmartHttpServer {
 
 		/** Socket of the connection with the client */
 		private Socket csocket;
-		/** Input stream of the socket */
-		private PushbackInputStream istream;
+		/** Reader of the requests of the connection */
+		private RequestReader reader;
 		/** Output stream of the socket */
 		private OutputStream ostream;
+		/**
+		 * Channel of the socket if answers are written directly to it,
+		 * <code>null</code> otherwise
+		 */
+		private SocketChannel channel;
 		/** version of the used protocol */
 		private String version;
 		/** requested method */
 		private String method;
 		/** host name of the client */
 		private String host;
+		/** header of the current request */
+		private RequestHeader requestHeader;
+		/** stream of the body of the current request, <code>null</code> if it has none */
+		private InputStream requestBody;
+		/** files uploaded in the body of the current request */
+		private List<UploadedFile> uploads = new ArrayList<>();
+		/** A flag indicating if the client asked for a persistent connection */
+		private boolean keepAlive;
 		/** parameters of the RequestContext */
-		private Map<String, String> params = new HashMap<>();
+		private RequestParameters params = new RequestParameters();
 		/** temporaryParameters of the RequestContext */
 		private Map<String, String> tempParams = new HashMap<>();
-		/** persistentParameters of the RequestContext */
-		private Map<String, String> permPrams = new HashMap<>();
+		/**
+		 * persistentParameters of the RequestContext, <code>null</code> if the
+		 * client has no session
+		 */
+		private Map<String, String> permPrams;
 		/** output cookies of the RequestContext */
 		private List<RCCookie> outputCookies = new ArrayList<>();
+		/** buffer holding the answers until their length is known */
+		private byte[] responseBuffer;
+		/** number of requests served over the connection */
+		private int served;
+		/** A flag indicating if the current request may be answered asynchronously */
+		private boolean asyncAllowed;
+		/**
+		 * the answer of an {@link IAsyncWebWorker} which is not complete yet,
+		 * <code>null</code> if there is none
+		 */
+		private CompletableFuture<Void> pendingAnswer;
 		/** Session ID */
 		private String SID;
+		/**
+		 * the session shared by the current request and the requests pipelined
+		 * with it if the client has none
+		 */
+		private SharedSession sharedSession;
 		/** Context of this request */
 		private RequestContext rc;
 
@@ -367,70 +1032,248 @@ public class SmartHttpServer {
 		 *                through which the worker responds.
 		 */
 		public ClientWorker(Socket csocket) {
-			super();
-			this.csocket = csocket;
+			this(csocket, null, 0);
 		}
 
-		@Override
-		public void run() {
-
-			try {
+		/**
+		 * Constructor.
+		 * 
+		 * @param csocket - socket through which the request is obtained and read and
+		 *                through which the worker responds.
+		 * @param reader  - reader of the requests of the connection which may
+		 *                already hold some of the read bytes, or <code>null</code>
+		 *                if the connection is new
+		 * @param served  - number of requests already served over the connection,
+		 *                which counts towards the maximum number of requests
+		 */
+		public ClientWorker(Socket csocket, RequestReader reader, int served) {
+			super();
+			this.csocket = csocket;
+			this.reader = reader;
+			this.served = served;
+		}
 
-				istream = new PushbackInputStream(csocket.getInputStream());
-				ostream = new BufferedOutputStream(csocket.getOutputStream());
+		@Override
+		public void run() {
 
-				byte[] requestData = readRequest(istream);
+			boolean resumed = false;
+			boolean suspended = false;
+			try {
 
-				if (requestData == null) {
-					sendError(400, "Bad request.");
-					return;
+				if (pendingAnswer != null) {
+					// an asynchronous answer is complete, so the connection continues
+					if (!completeAnswer() || served == maxKeepAliveRequests)
+						return;
+					if (handOver()) {
+						resumed = true;
+						return;
+					}
+				} else {
+					if (reader == null) {
+						reader = createRequestReader();
+					}
+					reader.setSocket(csocket);
+					ostream = new PooledBufferedOutputStream(csocket.getOutputStream(), bufferPool,
+							OUTPUT_BUFFER_SIZE);
+					channel = csocket.getChannel();
 				}
 
-				String requestString = new String(requestData, StandardCharsets.US_ASCII);
-				List<String> requestHeader = extractHeader(requestString);
+				// a pipelined request which is answered only after the previous ones
+				RequestHeader deferred = null;
+				while (served < maxKeepAliveRequests) {
 
-				String[] firstLine = requestHeader.isEmpty() ? null : requestHeader.get(0).split(" ");
+					RequestHeader request = deferred != null ? deferred : reader.readHeader();
+					deferred = null;
 
-				if (firstLine == null || firstLine.length != 3) {
-					sendError(400, "Bad request");
-					return;
-				}
+					if (request == null) {
+						// the client closed a persistent connection
+						if (served == 0) {
+							sendError(400, "Bad request.");
+						}
+						return;
+					}
+					boolean lastRequest = ++served == maxKeepAliveRequests;
+					sharedSession = new SharedSession(sessions);
+
+					// requests the client sent without waiting for this answer are
+					// answered in parallel, but the answers are written in order
+					List<PipelinedRequest> pipeline = new ArrayList<>();
+					if (isSafe(request) && served < maxKeepAliveRequests && reader.available() > 0) {
+						// reading the next requests reuses the buffer of this one
+						request = request.copy();
+						while (served < maxKeepAliveRequests && pipeline.size() < maxPipelinedRequests
+								&& reader.available() > 0) {
+							RequestHeader nextRequest = reader.readHeader();
+							if (nextRequest == null)
+								break;
+							nextRequest = nextRequest.copy();
+							// an unsafe request is answered only after all the previous ones,
+							// and a large file is written directly to the connection
+							if (!isSafe(nextRequest) || !isBounded(nextRequest)) {
+								deferred = nextRequest;
+								break;
+							}
+							PipelinedRequest pipelined = pipeline(nextRequest, ++served == maxKeepAliveRequests);
+							pipeline.add(pipelined);
+							threadPool.execute(pipelined);
+						}
+					}
 
-				method = firstLine[0].toUpperCase();
-				version = firstLine[2].toUpperCase();
+					// the thread is not freed while other answers wait for this one
+					asyncAllowed = pipeline.isEmpty() && deferred == null;
+					boolean persistent;
+					try {
+						persistent = serve(request, lastRequest);
+						asyncAllowed = false;
+						if (pendingAnswer != null) {
+							// the worker answers on its own, the connection continues on a
+							// thread of the pool once it is done
+							suspended = true;
+							pendingAnswer.whenComplete((v, t) -> continueConnection());
+							return;
+						}
+						for (PipelinedRequest pipelined : pipeline) {
+							if (!persistent)
+								break;
+							pipelined.giveTurn(ostream);
+							// answer it on this thread if no worker thread took it yet
+							pipelined.run();
+							persistent = pipelined.get();
+							pipelined.writeAnswer();
+						}
+					} finally {
+						// the answers which will not be written must not wait for their turn
+						for (PipelinedRequest pipelined : pipeline) {
+							pipelined.abandon();
+						}
+					}
 
-				if (!method.equals("GET")) {
-					sendError(400, "Method Not Allowed");
-					return;
+					if (!persistent || served == maxKeepAliveRequests)
+						return;
+					if (deferred != null)
+						continue;
+					if (handOver()) {
+						resumed = true;
+						return;
+					}
 				}
 
-				if (!(version.equals("HTTP/1.0") || version.equals("HTTP/1.1"))) {
-					sendError(400, "HTTP Version Not Supported");
-					return;
+			} catch (SocketTimeoutException e) {
+				// the persistent connection was idle for too long
+			} catch (RequestHeaderException e) {
+				// the request is answered without reading the rest of it
+				try {
+					rc = null;
+					requestHeader = null;
+					keepAlive = false;
+					sendError(e.getStatusCode(), e.getMessage());
+				} catch (IOException e1) {
+					System.err.println("Comunication failed. " + e1.getMessage());
 				}
-
-				for (int i = 1; i < requestHeader.size(); ++i) {
-					String line = requestHeader.get(i);
-					if (line.startsWith("Host")) {
-						// Host: someHostName:port -> someHostname
-						host = line.split(":")[1].trim();
-						break;
+			} catch (IOException e) {
+				System.err.println("Socket with address  " + csocket.getInetAddress() + "broken.");
+				e.printStackTrace();
+			} catch (Exception e) {
+				// if it is not one of the expected exception, 'log' it
+				e.printStackTrace();
+			} finally {
+				// a suspended connection is used by the asynchronous worker
+				if (!suspended) {
+					try {
+						if (!resumed) {
+							csocket.close();
+						}
+					} catch (IOException e) {
+						System.err.println("Closing of the socket failed.");
+					}
+					if (!resumed && reader != null) {
+						reader.release();
 					}
+					releaseBuffers();
 				}
-				// if the host was not named, set domain name as host
-				host = host == null ? domainName : host;
-
-				checkSession(requestHeader);
+			}
+		}
 
-				String[] requestedPath = firstLine[1].split("\\?");
+		/**
+		 * Lets the server thread wait for the next request if no bytes of it are
+		 * buffered, without holding on to the buffer of the reader.
+		 * 
+		 * @return <code>true</code> if the server thread took over the connection
+		 * @throws IOException
+		 */
+		private boolean handOver() throws IOException {
+			if (reader.available() != 0)
+				return false;
+			reader.release();
+			return serverThread.resume(csocket, reader, served);
+		}
 
-				if (requestedPath.length == 2) {
-					String paramString = requestedPath[1];
-					parseParameters(paramString);
+		/**
+		 * Continues the connection on a thread of the pool once the answer of an
+		 * {@link IAsyncWebWorker} is complete. If the server is stopping and the pool
+		 * takes no more tasks, the connection is closed instead.
+		 */
+		private void continueConnection() {
+			try {
+				threadPool.execute(this);
+			} catch (RejectedExecutionException e) {
+				try {
+					csocket.close();
+				} catch (IOException ignorable) {
 				}
+				reader.release();
+				releaseBuffers();
+			}
+		}
 
-				internalDispatchRequest(requestedPath[0], true);
+		/**
+		 * Finishes the answer of an {@link IAsyncWebWorker} whose future completed.
+		 * 
+		 * @return <code>true</code> if the connection can be reused for the next
+		 *         request
+		 * @throws Exception the exception with which the worker failed
+		 */
+		private boolean completeAnswer() throws Exception {
+			CompletableFuture<Void> answer = pendingAnswer;
+			pendingAnswer = null;
+			try {
+				answer.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : e;
+			}
+			rc.finish();
+			deleteUploads();
+			return rc.isKeepAlive() && skipBody();
+		}
 
+		/**
+		 * Returns the buffers of the answers to the pool and deletes the uploaded
+		 * files once the worker is done.
+		 */
+		private void releaseBuffers() {
+			deleteUploads();
+			if (ostream instanceof PooledBufferedOutputStream) {
+				((PooledBufferedOutputStream) ostream).release();
+			}
+			bufferPool.release(responseBuffer);
+			responseBuffer = null;
+		}
+
+		/**
+		 * Serves a single request with the given header and answers with 400 if the
+		 * request is malformed.
+		 * 
+		 * @param request     header of the request
+		 * @param lastRequest <code>true</code> if the connection must be closed after
+		 *                    this request
+		 * @return <code>true</code> if the connection can be reused for the next
+		 *         request
+		 * @throws Exception
+		 */
+		private boolean serve(RequestHeader request, boolean lastRequest) throws Exception {
+			try {
+				return serveRequest(request, lastRequest);
 			} catch (NullPointerException | IndexOutOfBoundsException | IllegalArgumentException e) {
 				try {
 					System.err.println("Bad request. " + e.getClass() + ": " + e.getMessage());
@@ -438,24 +1281,390 @@ public class SmartHttpServer {
 				} catch (IOException e1) {
 					System.err.println("Comunication failed. " + e1.getMessage());
 				}
-			} catch (IOException e) {
-				System.err.println("Socket with address  " + csocket.getInetAddress() + "broken.");
-				e.printStackTrace();
-			} catch (Exception e) {
-				// if it is not one of the expected exception, 'log' it
-				e.printStackTrace();
-			} finally {
+				return false;
+			}
+		}
+
+		/**
+		 * Creates a {@link PipelinedRequest} for the given request which is answered
+		 * by a new worker into a {@link PipelinedAnswerStream}.
+		 * 
+		 * @param request     header of the request
+		 * @param lastRequest <code>true</code> if the connection must be closed after
+		 *                    this request
+		 * @return created pipelined request
+		 */
+		private PipelinedRequest pipeline(RequestHeader request, boolean lastRequest) {
+			// the pipelined requests have no body, so the worker does not read
+			ClientWorker worker = new ClientWorker(csocket, reader, served);
+			worker.ostream = new PipelinedAnswerStream(MAX_PIPELINED_ANSWER_SIZE);
+			worker.sharedSession = sharedSession;
+			return new PipelinedRequest(worker, request, lastRequest);
+		}
+
+		/**
+		 * Checks if the answer to the request with the given header is small enough
+		 * to be read ahead, which is false for static files which do not fit in the
+		 * buffer of a {@link PipelinedAnswerStream}. Such files are rather
+		 * transferred directly to the connection once the previous answers are
+		 * written. The answers of workers and scripts are not known in advance, so
+		 * they are bounded only by the {@link PipelinedAnswerStream}.
+		 * <p>
+		 * The file system is only touched for the paths which would be served, and
+		 * the cache is only peeked into, so the request is not counted twice.
+		 * 
+		 * @param request header of the request
+		 * @return <code>true</code> if the request can be answered in advance
+		 */
+		private boolean isBounded(RequestHeader request) {
+			String urlPath = request.getPath();
+			if (urlPath == null || !urlPath.startsWith("/") || isPrivate(urlPath) || workersMap.containsKey(urlPath)
+					|| urlPath.startsWith(CONVENTION_DIR) || urlPath.endsWith(".smscr"))
+				return true;
+
+			try {
+				Path path = resolveInDocumentRoot(urlPath);
+				// the answer is an error without a body
+				if (path == null)
+					return true;
+				if (staticCache != null && staticCache.peek(path) != null)
+					return true;
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return attributes.size() <= MAX_PIPELINED_ANSWER_SIZE;
+			} catch (IOException | IllegalArgumentException e) {
+				// the answer is an error without a body
+				return true;
+			}
+		}
+
+		/**
+		 * Serves a single request with the given header.
+		 * 
+		 * @param request     header of the request
+		 * @param lastRequest <code>true</code> if the connection must be closed after
+		 *                    this request
+		 * @return <code>true</code> if the connection can be reused for the next
+		 *         request
+		 * @throws Exception
+		 */
+		private boolean serveRequest(RequestHeader request, boolean lastRequest) throws Exception {
+			// forget the state of the previous request on this connection
+			host = null;
+			SID = null;
+			rc = null;
+			requestBody = null;
+			deleteUploads();
+			keepAlive = false;
+			params = new RequestParameters();
+			tempParams = new HashMap<>();
+			permPrams = null;
+			outputCookies = new ArrayList<>();
+
+			requestHeader = request;
+
+			if (!request.isValid()) {
+				sendError(400, "Bad request");
+				return false;
+			}
+
+			method = request.getMethod().toUpperCase();
+			version = request.getVersion().toUpperCase();
+
+			if (!(method.equals("GET") || method.equals("POST") || method.equals("PUT"))) {
+				rc = createContext();
+				rc.addHeader("Allow", "GET, POST, PUT");
+				sendError(405, "Method Not Allowed");
+				return false;
+			}
+
+			if (!(version.equals("HTTP/1.0") || version.equals("HTTP/1.1"))) {
+				sendError(505, "HTTP Version Not Supported");
+				return false;
+			}
+
+			// someHostName:port -> someHostname
+			host = request.getField("Host");
+			if (host != null) {
+				int colon = host.indexOf(':');
+				host = colon == -1 ? host : host.substring(0, colon);
+			}
+			// if the host was not named, set domain name as host
+			host = host == null || host.isEmpty() ? domainName : host;
+
+			// HTTP/1.1 connections are persistent unless the client says otherwise
+			String connection = request.getField("Connection");
+			if (version.equals("HTTP/1.1")) {
+				keepAlive = connection == null || !connection.equalsIgnoreCase("close");
+			} else {
+				keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+			}
+			keepAlive = keepAlive && !lastRequest;
+
+			checkSession(request);
+
+			String paramString = request.getQuery();
+			if (paramString != null) {
+				// the query is decoded only if the worker asks for the parameters
+				params.addEncoded(paramString);
+			}
+
+			// the body is read only as the worker reads it, except for a form
+			if (!openBody(request))
+				return false;
+			if (requestBody != null) {
+				String contentType = request.getField("Content-Type");
+				String bodyType = contentType == null ? "" : getMimeType(contentType);
+				if (bodyType.equals("application/x-www-form-urlencoded") && !readForm())
+					return false;
+				if (bodyType.equals("multipart/form-data") && !readMultipart(contentType))
+					return false;
+			}
+
+			internalDispatchRequest(request.getPath(), true);
+
+			if (rc == null)
+				return false;
+			if (pendingAnswer != null)
+				return true;
+			rc.finish();
+			deleteUploads();
+			return rc.isKeepAlive() && skipBody();
+		}
+
+		/**
+		 * Opens the stream of the request body if the request has one. The client
+		 * is asked to send the body if it waits for a 100 Continue. A body of an
+		 * unsupported transfer encoding or of an invalid length is answered with an
+		 * error.
+		 * 
+		 * @param request header of the request
+		 * @return <code>true</code> if the request can be served,
+		 *         <code>false</code> if it was answered with an error
+		 * @throws IOException
+		 */
+		private boolean openBody(RequestHeader request) throws IOException {
+			String transferEncoding = request.getField("Transfer-Encoding");
+			String contentLength = request.getField("Content-Length");
+			if (transferEncoding != null) {
+				// the transfer encoding takes precedence over the length
+				if (!transferEncoding.equalsIgnoreCase("chunked")) {
+					keepAlive = false;
+					sendError(501, "Not Implemented");
+					return false;
+				}
+				requestBody = new ChunkedInputStream(reader.getBodyStream());
+			} else if (contentLength != null) {
+				long length;
 				try {
-					csocket.close();
-				} catch (IOException e) {
-					System.err.println("Closing of the socket failed.");
+					length = Long.parseLong(contentLength);
+				} catch (NumberFormatException e) {
+					length = -1;
+				}
+				if (length < 0) {
+					keepAlive = false;
+					sendError(400, "Bad request");
+					return false;
+				}
+				if (length == 0)
+					return true;
+				requestBody = new ContentLengthInputStream(reader.getBodyStream(), length);
+			} else {
+				return true;
+			}
+
+			if (version.equals("HTTP/1.1") && "100-continue".equalsIgnoreCase(request.getField("Expect"))) {
+				ostream.write(HeaderFragments.CONTINUE);
+				ostream.flush();
+			}
+			return true;
+		}
+
+		/**
+		 * Extracts the mime type from the given <code>Content-Type</code>.
+		 * 
+		 * @param contentType value of the <code>Content-Type</code> field
+		 * @return the mime type in lower case, without the parameters
+		 */
+		private String getMimeType(String contentType) {
+			int semicolon = contentType.indexOf(';');
+			String mimeType = semicolon == -1 ? contentType : contentType.substring(0, semicolon);
+			return mimeType.trim().toLowerCase();
+		}
+
+		/**
+		 * Reads the form in the request body and adds its fields to the parameters.
+		 * A form longer than the limit is answered with 413 without reading the rest
+		 * of it.
+		 * 
+		 * @return <code>true</code> if the request can be served,
+		 *         <code>false</code> if it was answered with an error
+		 * @throws IOException
+		 */
+		private boolean readForm() throws IOException {
+			byte[] form = new byte[(int) Math.min(maxFormSize + 1L, FORM_BUFFER_SIZE)];
+			int length = 0;
+			int read;
+			while ((read = requestBody.read(form, length, form.length - length)) != -1) {
+				length += read;
+				if (length > maxFormSize)
+					return rejectBody();
+				if (length == form.length) {
+					form = Arrays.copyOf(form, (int) Math.min(maxFormSize + 1L, form.length * 2L));
 				}
 			}
+			if (length > 0) {
+				params.addEncoded(new String(form, 0, length, StandardCharsets.ISO_8859_1));
+			}
+			return true;
+		}
+
+		/**
+		 * Reads the multipart form in the request body. Its fields are added to the
+		 * parameters, while the files are written to {@link UploadedFile}s as they
+		 * arrive. A form whose fields are longer than the limit of a form, or whose
+		 * files are larger than the limit of the uploads, is answered with 413
+		 * without reading the rest of it.
+		 * 
+		 * @param contentType value of the <code>Content-Type</code> field, which
+		 *                    holds the boundary of the parts
+		 * @return <code>true</code> if the request can be served,
+		 *         <code>false</code> if it was answered with an error
+		 * @throws IOException
+		 */
+		private boolean readMultipart(String contentType) throws IOException {
+			String boundary = MultipartParser.getParameter(contentType, "boundary");
+			if (boundary == null || boundary.isEmpty() || boundary.length() > MultipartParser.MAX_BOUNDARY_LENGTH) {
+				keepAlive = false;
+				sendError(400, "Bad request");
+				return false;
+			}
+
+			byte[] buffer = bufferPool.acquire(MULTIPART_BUFFER_SIZE);
+			try {
+				MultipartParser parser = new MultipartParser(requestBody, boundary, buffer);
+				ByteArrayOutputStream field = new ByteArrayOutputStream();
+				long formSize = 0;
+				long uploadSize = 0;
+				Map<String, String> partHeader;
+				while ((partHeader = parser.nextPart()) != null) {
+					String disposition = partHeader.get("content-disposition");
+					String name = disposition == null ? null : MultipartParser.getParameter(disposition, "name");
+					// parts which are not fields of the form are skipped
+					if (name == null)
+						continue;
+
+					String fileName = MultipartParser.getParameter(disposition, "filename");
+					if (fileName == null) {
+						field.reset();
+						long length = parser.transferPart(field, maxFormSize - formSize);
+						if (length == -1)
+							return rejectBody();
+						formSize += length;
+						params.add(name, field.toString(StandardCharsets.UTF_8));
+						continue;
+					}
+					// a file input without a chosen file
+					if (fileName.isEmpty())
+						continue;
+
+					UploadedFile upload = new UploadedFile(name, fileName, partHeader.get("content-type"),
+							uploadThreshold, uploadDirectory);
+					uploads.add(upload);
+					long length;
+					try (OutputStream os = upload.openOutputStream()) {
+						length = parser.transferPart(os, maxUploadSize < 0 ? Long.MAX_VALUE : maxUploadSize - uploadSize);
+					}
+					if (length == -1)
+						return rejectBody();
+					uploadSize += length;
+				}
+				return true;
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+
+		/**
+		 * Answers a request whose body is too large with 413 and closes the
+		 * connection, as the rest of the body is not read.
+		 * 
+		 * @return <code>false</code>, as the request is answered with an error
+		 * @throws IOException
+		 */
+		private boolean rejectBody() throws IOException {
+			keepAlive = false;
+			sendError(413, "Payload Too Large");
+			return false;
+		}
+
+		/**
+		 * Deletes the temporary files of the uploads of the current request.
+		 */
+		private void deleteUploads() {
+			for (UploadedFile upload : uploads) {
+				upload.delete();
+			}
+			uploads.clear();
+		}
+
+		/**
+		 * Reads the rest of the request body which was not read while serving the
+		 * request, so that the next request can be read from the connection. A long
+		 * rest is not read, the connection is closed instead.
+		 * 
+		 * @return <code>true</code> if the connection can be reused for the next
+		 *         request
+		 */
+		private boolean skipBody() {
+			if (requestBody == null)
+				return true;
+
+			byte[] buffer = bufferPool.acquire(SKIP_BUFFER_SIZE);
+			try {
+				long skipped = 0;
+				int read;
+				while ((read = requestBody.read(buffer)) != -1) {
+					skipped += read;
+					if (skipped > MAX_SKIPPED_BODY)
+						return false;
+				}
+				return true;
+			} catch (IOException e) {
+				return false;
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+
+		/**
+		 * Creates the context of the current request.
+		 * 
+		 * @return created context
+		 */
+		private RequestContext createContext() {
+			RequestContext context = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this,
+					SID);
+			context.setKeepAlive(keepAlive);
+			context.setChunkedEncodingAllowed("HTTP/1.1".equals(version));
+			context.setChunkSize(chunkSize);
+			context.setOutputChannel(channel);
+			// the buffer is reused for all answers of the worker, which come one after another
+			if (responseBuffer == null) {
+				responseBuffer = bufferPool.acquire(responseBufferSize);
+			}
+			context.setResponseBuffer(responseBuffer);
+			context.setBufferPool(bufferPool);
+			context.setInputStream(requestBody);
+			context.setUploadedFiles(uploads);
+			if (compressionThreshold >= 0 && acceptsGzip()) {
+				context.setCompression(compressionThreshold, SmartHttpServer.this::isCompressible);
+			}
+			return context;
 		}
 
 		public void internalDispatchRequest(String urlPath, boolean directCall) throws Exception {
 
-			if (directCall && (urlPath.startsWith("/private/") || urlPath.equals("/private"))) {
+			if (directCall && isPrivate(urlPath)) {
 				sendError(403, "forbidden");
 				// log the attack attempt
 				System.err.println("Someone tried to touch our privates!");
@@ -465,9 +1674,7 @@ public class SmartHttpServer {
 			// first check if it is a path of a worker that is in the map
 			IWebWorker iww = workersMap.get(urlPath);
 			if (iww != null) {
-				if (rc == null)
-					rc = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this, SID);
-				iww.processRequest(rc);
+				process(iww, directCall);
 				return;
 			}
 			// then check if it is a worker called by convention
@@ -477,18 +1684,15 @@ public class SmartHttpServer {
 				@SuppressWarnings("deprecation")
 				Object newObject = referenceToClass.newInstance();
 				iww = (IWebWorker) newObject;
-				if (rc == null)
-					rc = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this, SID);
-				iww.processRequest(rc);
+				process(iww, directCall);
 				return;
 			}
 			// then it is a normal request and we proceed as usual-> first strip the '/' and
 			// resolve the path
-			String pathInWebroot = urlPath.substring(1);
-			Path path = documentRoot.resolve(pathInWebroot);
+			Path path = resolveInDocumentRoot(urlPath);
 			// if it is not a direct/indirect child of the documentRoot, send forbidden
 			// error
-			if (!path.toAbsolutePath().startsWith(documentRoot.toAbsolutePath())) {
+			if (path == null) {
 				sendError(403, "forbidden");
 				return;
 			}
@@ -502,8 +1706,9 @@ public class SmartHttpServer {
 				SmartScriptParser parser = new SmartScriptParser(documentBody);
 
 				if (rc == null) {
-					rc = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this, SID);
+					rc = createContext();
 				}
+				offerSession();
 				// create engine and execute it
 				new SmartScriptEngine(parser.getDocumentNode(), rc).execute();
 				return;
@@ -512,54 +1717,380 @@ public class SmartHttpServer {
 			String mimeTypeFromMap = mimeTypes.get(extension);
 			String mimeType = mimeTypeFromMap == null ? "application/octet-stream" : mimeTypeFromMap;
 
-			// if it does not exist, or if it not a file or if it is not readable send error
-			// message
-			if (!Files.exists(path) || !Files.isRegularFile(path) || !Files.isReadable(path)) {
-				sendError(404, "file not found");
+			serveStaticFile(path, mimeType);
+		}
+
+		/**
+		 * Lets the given worker process the current request. An
+		 * {@link IAsyncWebWorker} is left to answer on its own if the worker was
+		 * requested directly and the answer can wait.
+		 * 
+		 * @param iww        the worker
+		 * @param directCall <code>true</code> if the worker was requested by the
+		 *                   client
+		 * @throws Exception
+		 */
+		private void process(IWebWorker iww, boolean directCall) throws Exception {
+			if (rc == null)
+				rc = createContext();
+			offerSession();
+			if (directCall && asyncAllowed && iww instanceof IAsyncWebWorker) {
+				pendingAnswer = ((IAsyncWebWorker) iww).processRequestAsync(rc);
 				return;
 			}
+			iww.processRequest(rc);
+		}
+
+		/**
+		 * Answers with the static file with the given <code>path</code>. Small files
+		 * are answered from the cache. If the client already has the current version
+		 * of the file, the answer is 304 Not Modified without a body.
+		 * 
+		 * @param path     of the file
+		 * @param mimeType of the file
+		 * @throws IOException
+		 */
+		private void serveStaticFile(Path path, String mimeType) throws IOException {
+
+			// answer small files from the cache without touching the file system
+			CachedResource cached = staticCache == null ? null : staticCache.get(path);
+			long size;
+			long lastModified;
+			if (cached != null) {
+				size = cached.getSize();
+				lastModified = cached.getLastModified();
+			} else {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (NoSuchFileException e) {
+					attributes = null;
+				}
+				// if it does not exist, or if it not a file or if it is not readable send
+				// error message
+				if (attributes == null || !attributes.isRegularFile() || !Files.isReadable(path)) {
+					sendError(404, "file not found");
+					return;
+				}
+				size = attributes.size();
+				lastModified = attributes.lastModifiedTime().toMillis();
+				// the attributes are passed on, so a file is asked for them only once
+				if (staticCache != null) {
+					cached = staticCache.load(path, attributes);
+				}
+			}
 
 			if (rc == null) {
-				rc = new RequestContext(ostream, params, permPrams, outputCookies, SID);
+				rc = createContext();
+			}
+
+			// text files are sent compressed to the clients which accept it
+			if (compressionThreshold >= 0 && isCompressible(mimeType)) {
+				rc.addHeader("Vary", "Accept-Encoding");
+				if (size >= compressionThreshold && acceptsGzip() && requestHeader.getField("Range") == null
+						&& serveCompressedFile(path, mimeType, cached, lastModified)) {
+					return;
+				}
+			}
+
+			String etag = '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"';
+			if (answerIfNotModified(etag, lastModified, mimeType))
+				return;
+
+			rc.addHeader("Accept-Ranges", "bytes");
+			rc.setMimeType(mimeType);
+
+			List<ByteRange> ranges = getRequestedRanges(etag, lastModified, size);
+			if (ranges != null && ranges.isEmpty()) {
+				rc.setStatusCode(416);
+				rc.setStatusText("Range Not Satisfiable");
+				rc.addHeader("Content-Range", "bytes */" + size);
+				rc.setContentLength(0L);
+				rc.write(new byte[0]);
+				return;
+			}
+
+			// write the requested file to the context without reading it to the heap
+			try (FileChannel file = cached != null ? null : FileChannel.open(path, StandardOpenOption.READ)) {
+				if (ranges == null) {
+					rc.setStatusCode(200);
+					rc.setStatusText("OK");
+					rc.setContentLength(size);
+					writeRange(cached, file, 0, size);
+				} else if (ranges.size() == 1) {
+					ByteRange range = ranges.get(0);
+					rc.setStatusCode(206);
+					rc.setStatusText("Partial Content");
+					rc.addHeader("Content-Range", range.toContentRange(size));
+					rc.setContentLength(range.getLength());
+					writeRange(cached, file, range.getStart(), range.getLength());
+				} else {
+					writeMultipartRanges(ranges, mimeType, size, cached, file);
+				}
+			}
+		}
+
+		/**
+		 * Answers with the gzip compressed content of the static file with the
+		 * given <code>path</code>. The compressed content of a cached file is kept in
+		 * the cache, otherwise it is only taken from a sibling file with the
+		 * additional extension ".gz" which is not older than the file.
+		 * 
+		 * @param path         of the file
+		 * @param mimeType     of the file
+		 * @param cached       content of the file, or <code>null</code> if it is not
+		 *                     cached
+		 * @param lastModified last modification time of the file in milliseconds
+		 * @return <code>true</code> if the answer was sent, <code>false</code> if
+		 *         there is no compressed content of the file
+		 * @throws IOException
+		 */
+		private boolean serveCompressedFile(Path path, String mimeType, CachedResource cached, long lastModified)
+				throws IOException {
+
+			ByteBuffer content = null;
+			Path sibling = null;
+			long size;
+			if (cached != null) {
+				content = staticCache.getCompressed(path, cached);
+				if (content == null)
+					return false;
+				size = content.remaining();
+			} else {
+				sibling = path.resolveSibling(path.getFileName() + ".gz");
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+				} catch (NoSuchFileException e) {
+					return false;
+				}
+				if (!attributes.isRegularFile() || attributes.lastModifiedTime().toMillis() < lastModified)
+					return false;
+				size = attributes.size();
 			}
 
+			// the compressed variant has an entity tag of its own
+			String etag = '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + "-gzip\"";
+			if (answerIfNotModified(etag, lastModified, mimeType))
+				return true;
+
+			rc.addHeader("Content-Encoding", "gzip");
 			rc.setMimeType(mimeType);
 			rc.setStatusCode(200);
 			rc.setStatusText("OK");
+			rc.setContentLength(size);
+			if (content != null) {
+				rc.write(content);
+			} else {
+				try (FileChannel file = FileChannel.open(sibling, StandardOpenOption.READ)) {
+					rc.write(file, 0, size);
+				}
+			}
+			return true;
+		}
 
-			// finally, read the requested file and write it to the context
-			byte[] fileData = Files.readAllBytes(path);
-			rc.write(fileData);
+		/**
+		 * Adds the validators and the caching rules of a static file to the answer
+		 * and answers with 304 Not Modified if the client's copy is up to date.
+		 * 
+		 * @param etag         entity tag of the current version of the file
+		 * @param lastModified last modification time of the file in milliseconds
+		 * @param mimeType     of the file
+		 * @return <code>true</code> if the answer was 304 Not Modified
+		 */
+		private boolean answerIfNotModified(String etag, long lastModified, String mimeType) {
+			rc.addHeader("ETag", etag);
+			rc.addHeader("Last-Modified", HttpDates.format(lastModified));
+			String cacheControlValue = getByMimeType(cacheControl, mimeType);
+			if (cacheControlValue != null) {
+				rc.addHeader("Cache-Control", cacheControlValue);
+			}
 
+			if (isNotModified(etag, lastModified)) {
+				rc.setStatusCode(304);
+				rc.setStatusText("Not Modified");
+				return true;
+			}
+			return false;
 		}
 
-		@Override
-		public void dispatchRequest(String urlPath) throws Exception {
-			internalDispatchRequest(urlPath, false);
+		/**
+		 * Checks if the client accepts gzip compressed answers according to its
+		 * <code>Accept-Encoding</code> header.
+		 * 
+		 * @return <code>true</code> if gzip is accepted
+		 */
+		private boolean acceptsGzip() {
+			String acceptEncoding = requestHeader == null ? null : requestHeader.getField("Accept-Encoding");
+			if (acceptEncoding == null)
+				return false;
+
+			for (String coding : acceptEncoding.split(",")) {
+				String[] parts = coding.split(";");
+				String name = parts[0].trim();
+				if (!name.equalsIgnoreCase("gzip") && !name.equals("*"))
+					continue;
+				// a quality of 0 means "not acceptable"
+				for (int i = 1; i < parts.length; ++i) {
+					String parameter = parts[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							return Double.parseDouble(parameter.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+			return false;
 		}
 
-		private String extractExtension(String fileName) {
-			int dot = fileName.lastIndexOf('.');
+		/**
+		 * Returns the ranges of the requested file which the client asked for in
+		 * the <code>Range</code> header. The header is ignored if the
+		 * <code>If-Range</code> validator does not match the current version of the
+		 * file.
+		 * 
+		 * @param etag         entity tag of the current version of the file
+		 * @param lastModified last modification time of the file in milliseconds
+		 * @param size         of the file
+		 * @return satisfiable ranges (empty if none is satisfiable), or
+		 *         <code>null</code> if the whole file should be sent
+		 */
+		private List<ByteRange> getRequestedRanges(String etag, long lastModified, long size) {
+			String range = requestHeader.getField("Range");
+			if (range == null)
+				return null;
 
-			if (dot == -1)
+			String ifRange = requestHeader.getField("If-Range");
+			if (ifRange != null) {
+				boolean matches;
+				if (ifRange.startsWith("\"")) {
+					matches = ifRange.equals(etag);
+				} else {
+					long date = HttpDates.parse(ifRange);
+					matches = date != -1 && date / 1000 == lastModified / 1000;
+				}
+				if (!matches)
+					return null;
+			}
+
+			List<ByteRange> ranges = ByteRange.parse(range, size);
+			// too many ranges are more likely an attack than a real request
+			if (ranges != null && ranges.size() > MAX_RANGES)
 				return null;
+			return ranges;
+		}
 
-			return fileName.substring(dot + 1, fileName.length());
+		/**
+		 * Writes the given ranges of the requested file as a
+		 * <code>multipart/byteranges</code> body with a 206 Partial Content status.
+		 * 
+		 * @param ranges   to write
+		 * @param mimeType of the file
+		 * @param size     of the file
+		 * @param cached   content of the file, or <code>null</code> if it is not
+		 *                 cached
+		 * @param file     channel of the file if it is not cached
+		 * @throws IOException
+		 */
+		private void writeMultipartRanges(List<ByteRange> ranges, String mimeType, long size, CachedResource cached,
+				FileChannel file) throws IOException {
+
+			String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+					+ Long.toHexString(System.nanoTime());
+			// the headers of the parts are prepared in advance to know the length
+			byte[][] partHeaders = new byte[ranges.size()][];
+			long length = 0;
+			for (int i = 0; i < partHeaders.length; ++i) {
+				ByteRange range = ranges.get(i);
+				String partHeader = (i == 0 ? "" : "\r\n") + "--" + boundary + "\r\nContent-Type: " + mimeType
+						+ "\r\nContent-Range: " + range.toContentRange(size) + "\r\n\r\n";
+				partHeaders[i] = partHeader.getBytes(StandardCharsets.ISO_8859_1);
+				length += partHeaders[i].length + range.getLength();
+			}
+			byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			length += closingBoundary.length;
+
+			rc.setStatusCode(206);
+			rc.setStatusText("Partial Content");
+			rc.setMimeType("multipart/byteranges; boundary=" + boundary);
+			rc.setContentLength(length);
+
+			for (int i = 0; i < partHeaders.length; ++i) {
+				ByteRange range = ranges.get(i);
+				rc.write(partHeaders[i]);
+				writeRange(cached, file, range.getStart(), range.getLength());
+			}
+			rc.write(closingBoundary);
 		}
 
 		/**
-		 * Parses the given string and fills the params map.
+		 * Writes <code>length</code> bytes of the requested file starting at
+		 * <code>start</code>.
 		 * 
-		 * @param paramString
+		 * @param cached content of the file, or <code>null</code> if it is not
+		 *               cached
+		 * @param file   channel of the file if it is not cached
+		 * @param start  index of the first byte to write
+		 * @param length number of bytes to write
+		 * @throws IOException
 		 */
-		private void parseParameters(String paramString) {
+		private void writeRange(CachedResource cached, FileChannel file, long start, long length) throws IOException {
+			if (cached != null) {
+				ByteBuffer content = cached.getContent();
+				content.limit((int) (start + length)).position((int) start);
+				rc.write(content);
+			} else {
+				rc.write(file, start, length);
+			}
+		}
 
-			for (String entry : paramString.split("&")) {
-				String[] e = entry.split("=");
-				String paramName = e[0];
-				String paramValue = e.length < 2 ? null : e[1];
-				params.put(paramName, paramValue);
+		/**
+		 * Checks the validators sent by the client against the current version of
+		 * the requested file. <code>If-None-Match</code> takes precedence over
+		 * <code>If-Modified-Since</code>.
+		 * 
+		 * @param etag         entity tag of the current version of the file
+		 * @param lastModified last modification time of the file in milliseconds
+		 * @return <code>true</code> if the client's copy is up to date
+		 */
+		private boolean isNotModified(String etag, long lastModified) {
+			String ifNoneMatch = requestHeader.getField("If-None-Match");
+			if (ifNoneMatch != null) {
+				for (String candidate : ifNoneMatch.split(",")) {
+					candidate = candidate.trim();
+					if (candidate.startsWith("W/")) {
+						candidate = candidate.substring(2);
+					}
+					if (candidate.equals("*") || candidate.equals(etag))
+						return true;
+				}
+				return false;
+			}
+
+			String ifModifiedSince = requestHeader.getField("If-Modified-Since");
+			if (ifModifiedSince != null) {
+				long since = HttpDates.parse(ifModifiedSince);
+				// HTTP dates have a precision of a second
+				return since != -1 && lastModified / 1000 <= since / 1000;
 			}
+			return false;
+		}
+
+		@Override
+		public void dispatchRequest(String urlPath) throws Exception {
+			internalDispatchRequest(urlPath, false);
+		}
+
+		private String extractExtension(String fileName) {
+			int dot = fileName.lastIndexOf('.');
+
+			if (dot == -1)
+				return null;
+
+			return fileName.substring(dot + 1, fileName.length());
 		}
 
 		/**
@@ -573,7 +2104,7 @@ public class SmartHttpServer {
 		private void sendError(int statusCode, String statusText) throws IOException {
 
 			if (rc == null) {
-				rc = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this, SID);
+				rc = createContext();
 			}
 
 			rc.setContentLength(0L);
@@ -581,85 +2112,75 @@ public class SmartHttpServer {
 			rc.setStatusCode(statusCode);
 			rc.setStatusText(statusText);
 
-			rc.write(new byte[0]);
+			rc.finish();
 
 		}
 
 		/**
 		 * Checks if a request is from an active session.<br>
 		 * If it is not from a session that exists or if it is from a session that has
-		 * expired, it creates a new session and adds it to the <code>sessions</code>
-		 * map.
+		 * expired, no session is created here. A new session is created in the
+		 * <code>sessions</code> store only once the worker sets a persistent
+		 * parameter. No lock shared by all the requests is taken.
 		 * 
-		 * @param requestHeader - list of lines of the request header
+		 * @param request - header of the request
 		 */
-		private void checkSession(List<String> requestHeader) {
-
-			long currentTime = System.currentTimeMillis();
-
-			synchronized (SmartHttpServer.this) {
-
-				String sidCandidate = null;
-
-				l: for (String line : requestHeader) {
-					if (!line.startsWith("Cookie:"))
-						continue;
-					// strip "Cookie:" and split the rest by ';'
-					line = line.substring(7);
-					String[] cookies = line.split(";");
-
-					for (String cookie : cookies) {
-						cookie = cookie.trim();
-						String[] cookieParams = cookie.split("=");
-						if (cookieParams[0].equals("sid")) {
-							// remove the quotation marks from the session id
-							sidCandidate = cookieParams[1].substring(1, cookieParams[1].length() - 1);
-							break l;
-						}
-					}
-				}
-				SessionMapEntry validSession;
-				// if a sid cookie was not found, create a new session
-				if (sidCandidate == null) {
-					validSession = createNewSession();
-					// else check if the candidate is valid
-				} else {
-					validSession = sessions.get(sidCandidate);
-					// if the host does not match, create new session
-					if (validSession == null || !validSession.host.equals(host)) {
-						validSession = createNewSession();
-						// if the session expired, remove it and create new session
-					} else if (validSession.validUntil < System.currentTimeMillis()) {
-						sessions.remove(validSession.sid);
-						validSession = createNewSession();
-						// else update the session's validUntil since it is an active session
-					} else {
-						validSession.validUntil = currentTime + sessionTimeout * 1000;
+		private void checkSession(RequestHeader request) {
+
+			String sidCandidate = null;
+
+			l: for (int i = 0, n = request.getFieldCount(); i < n; ++i) {
+				if (!request.isFieldName(i, "Cookie"))
+					continue;
+				// split the value by ';'
+				String[] cookies = request.getFieldValue(i).split(";");
+
+				for (String cookie : cookies) {
+					cookie = cookie.trim();
+					String[] cookieParams = cookie.split("=");
+					if (cookieParams[0].equals("sid")) {
+						// remove the quotation marks from the session id
+						sidCandidate = cookieParams[1].substring(1, cookieParams[1].length() - 1);
+						break l;
 					}
 				}
-				SID = validSession.sid;
-				// set this client workers persistent parameters to the map of the session
-				permPrams = validSession.map;
+			}
+			// the store extends a valid session, and drops an expired one
+			Session validSession = sidCandidate == null ? null : sessions.get(sidCandidate, host);
+			// if there is no valid session, a new one is created only if the worker
+			// sets a persistent parameter
+			if (validSession == null)
+				return;
+			SID = validSession.getId();
+			// set this client workers persistent parameters to the map of the session
+			permPrams = validSession.getParameters();
+		}
+
+		/**
+		 * Lets the worker or the script answering the current request create the
+		 * session of the client once it sets a persistent parameter, if the client
+		 * has no session yet.
+		 */
+		private void offerSession() {
+			if (SID == null) {
+				rc.setSessionFactory(this::createNewSession);
 			}
 		}
 
 		/**
-		 * Creates a new {@link SessionMapEntry} with a new unique session ID (sid or
-		 * SID). Creates an appropriate cookie for the session <b>and adds it to
+		 * Creates a new {@link Session} with a new unique session ID (sid or SID) in
+		 * the store, unless a request pipelined with this one already created it.
+		 * Creates an appropriate cookie for the session <b>and adds it to
 		 * <code>outputCookies</code></b>.
 		 * 
-		 * @return created SessionMapEntry
+		 * @return created Session
 		 */
-		private SessionMapEntry createNewSession() {
+		private Session createNewSession() {
 
-			SID = getNewSID(sessionRandom);
-
-			long validUntil = System.currentTimeMillis() + sessionTimeout * 1000;
-			Map<String, String> map = new ConcurrentHashMap<>();
-			SessionMapEntry newSession = new SessionMapEntry(SID, host, validUntil, map);
-			RCCookie c = new RCCookie("sid", SID, null, host, "/", true);
-
-			sessions.put(SID, newSession);
+			Session newSession = sharedSession.get(host);
+			SID = newSession.getId();
+			permPrams = newSession.getParameters();
+			RCCookie c = new RCCookie("sid", newSession.getId(), null, host, "/", true);
 			outputCookies.add(c);
 
 			return newSession;
@@ -669,143 +2190,79 @@ public class SmartHttpServer {
 	}
 
 	/**
-	 * Breaks the given string to lines by separating with '\n' and concatenates the
-	 * lines which are lines belonging to the same attribute (the same attributes
-	 * value written through more lines)
+	 * A request which the client sent before the answer to its previous request
+	 * arrived. It is answered by its own {@link ClientWorker} into a
+	 * {@link PipelinedAnswerStream} which is written to the client once all
+	 * previous answers are written.
 	 * 
-	 * @param requestHeader to break
-	 * @return List of lines of the header given in bytes
+	 * @author Vedran Kolka
+	 *
 	 */
-	private static List<String> extractHeader(String requestHeader) {
-
-		List<String> headers = new ArrayList<String>();
-		String currentLine = null;
+	private static class PipelinedRequest extends FutureTask<Boolean> {
+		/** the stream holding the answer */
+		private PipelinedAnswerStream answer;
 
-		for (String s : requestHeader.split("\n")) {
-			if (s.isEmpty())
-				break;
-			char c = s.charAt(0);
-			if (c == 9 || c == 32) {
-				currentLine += s;
-			} else {
-				if (currentLine != null) {
-					headers.add(currentLine);
+		/**
+		 * Constructor.
+		 * 
+		 * @param worker      which answers the request into a
+		 *                    {@link PipelinedAnswerStream}
+		 * @param request     header of the request
+		 * @param lastRequest <code>true</code> if the connection must be closed after
+		 *                    this request
+		 */
+		PipelinedRequest(ClientWorker worker, RequestHeader request, boolean lastRequest) {
+			super(() -> {
+				try {
+					return worker.serve(request, lastRequest);
+				} finally {
+					worker.releaseBuffers();
 				}
-				currentLine = s;
-			}
+			});
+			this.answer = (PipelinedAnswerStream) worker.ostream;
 		}
 
-		if (!currentLine.isEmpty()) {
-			headers.add(currentLine);
+		/**
+		 * Lets the answer be written to the given stream, as all previous answers
+		 * are written.
+		 * 
+		 * @param os stream of the connection
+		 */
+		void giveTurn(OutputStream os) {
+			answer.giveTurn(os);
 		}
 
-		return headers;
-	}
-
-	/**
-	 * Reads the bytes from the given <code>is</code> until a sequence "\r\n\r\n"
-	 * occurs.
-	 * 
-	 * @param is InputStream from which the bytes are read
-	 * @return array of read bytes
-	 * @throws IOException
-	 */
-	private static byte[] readRequest(InputStream is) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		int state = 0;
-		l: while (true) {
-			int b = is.read();
-			if (b == -1)
-				return null;
-			if (b != 13) {
-				bos.write(b);
-			}
-			switch (state) {
-			case 0:
-				if (b == 13) {
-					state = 1;
-				} else if (b == 10)
-					state = 4;
-				break;
-			case 1:
-				if (b == 10) {
-					state = 2;
-				} else
-					state = 0;
-				break;
-			case 2:
-				if (b == 13) {
-					state = 3;
-				} else
-					state = 0;
-				break;
-			case 3:
-				if (b == 10) {
-					break l;
-				} else
-					state = 0;
-				break;
-			case 4:
-				if (b == 10) {
-					break l;
-				} else
-					state = 0;
-				break;
-			}
-		}
-		return bos.toByteArray();
-	}
-
-	/**
-	 * Creates a random String of SID_LENGTH uppercase letters with the given Random
-	 * object
-	 * 
-	 * @param r {@link Random} for generating the string
-	 * @return randomly generated string of length SID_LENGTH
-	 */
-	private static String getNewSID(Random r) {
-		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < SID_LENGTH; ++i) {
-			char c = (char) (r.nextInt(26) + 65);
-			sb.append(c);
+		/**
+		 * Discards the answer if it was not given its turn.
+		 */
+		void abandon() {
+			answer.abandon();
 		}
 
-		return sb.toString();
-	}
-
-	/**
-	 * An entry for the sessions map, holding all relevant data for a session,
-	 * mapped by a session's ID (sid / SID).
-	 * 
-	 * @author Vedran Kolka
-	 *
-	 */
-	private static class SessionMapEntry {
-		/** session ID */
-		String sid;
-		/** host of the session */
-		String host;
-		/** how long is the session valid */
-		long validUntil;
-		/** Map of the persistent parameters of this session */
-		Map<String, String> map;
-
 		/**
-		 * Constructor.
+		 * Writes the rest of the complete answer and flushes it.
 		 * 
-		 * @param sid        unique session ID
-		 * @param host       name of the server of the session
-		 * @param validUntil until when is the session valid
-		 * @param map        of persistent parameters of this session
+		 * @throws IOException
 		 */
-		public SessionMapEntry(String sid, String host, long validUntil, Map<String, String> map) {
-			super();
-			this.sid = sid;
-			this.host = host;
-			this.validUntil = validUntil;
-			this.map = map;
+		void writeAnswer() throws IOException {
+			answer.writeAnswer();
 		}
+	}
 
+	/**
+	 * Checks if the request with the given header is safe to be answered in
+	 * parallel with other requests, which is true for GET requests without a
+	 * body.
+	 * 
+	 * @param request header of the request
+	 * @return <code>true</code> if the request method is GET and the request has
+	 *         no body
+	 */
+	private static boolean isSafe(RequestHeader request) {
+		if (!request.isMethod("GET"))
+			return false;
+		String contentLength = request.getField("Content-Length");
+		return request.getField("Transfer-Encoding") == null && (contentLength == null || contentLength.equals("0"));
 	}
 
 	public static void main(String[] args) {
@@ -817,13 +2274,18 @@ public class SmartHttpServer {
 		server.start();
 
 		try (Scanner sc = new Scanner(System.in)) {
-			System.out.println("To shutdown, type 'exit'");
+			System.out.println("To shutdown, type 'exit', to see the sessions, type 'sessions'");
 			while (true) {
 				String command = sc.next();
 				if (command.equals("exit")) {
 					server.stop();
 					break;
 				}
+				if (command.equals("sessions")) {
+					ISessionStore sessions = server.sessions;
+					System.out.println("Sessions: " + sessions.size() + ", about " + sessions.getEstimatedSize()
+							+ " bytes, evicted: " + sessions.getEvictionCount());
+				}
 			}
 		}
 		System.exit(0);
@@ -0,0 +1,514 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A cache of the contents of small static files which are held in direct
+ * (off-heap) buffers, so that frequently requested files are answered without
+ * touching the file system.
+ * <p>
+ * The total size of the cached files is limited by a byte budget. When it is
+ * exceeded, the least recently used of a few sampled files is evicted, so an
+ * eviction does not scan the whole cache. A file is admitted to a full cache
+ * only if a {@link FrequencySketch} of the recent requests shows it is wanted
+ * more often than the file it would evict, so a working set slightly larger
+ * than the budget does not keep replacing the cached files. A hit only writes
+ * the time of the access to the file's own entry.
+ * <p>
+ * A cached file is checked for modification at most once per revalidation
+ * interval and it is dropped from the cache if it was modified or deleted.
+ * <p>
+ * The gzip compressed content of a cached file is kept along with it once it
+ * is requested.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class StaticResourceCache {
+
+	/**
+	 * The cached content of a file.
+	 *
+	 * @author Vedran Kolka
+	 *
+	 */
+	public static class CachedResource {
+		/** read-only content of the file */
+		private ByteBuffer content;
+		/** last modification time of the file in milliseconds */
+		private long lastModified;
+		/** when was the file last checked for modification */
+		private volatile long checkedAt;
+		/**
+		 * time of the last access in milliseconds, written without synchronization
+		 * as the eviction only needs an approximate order
+		 */
+		private long lastAccess;
+		/**
+		 * gzip compressed content of the file, {@link #NOT_COMPRESSIBLE} if
+		 * compressing does not make it smaller, <code>null</code> if not known yet
+		 */
+		private volatile ByteBuffer compressed;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param content      of the file
+		 * @param lastModified last modification time of the file in milliseconds
+		 * @param checkedAt    when was the file read
+		 */
+		CachedResource(ByteBuffer content, long lastModified, long checkedAt) {
+			this.content = content.asReadOnlyBuffer();
+			this.lastModified = lastModified;
+			this.checkedAt = checkedAt;
+		}
+
+		/**
+		 * Returns the content of the file. The returned buffer is independent of
+		 * the buffers returned to other callers.
+		 *
+		 * @return read-only content of the file
+		 */
+		public ByteBuffer getContent() {
+			return content.duplicate();
+		}
+
+		/**
+		 * Returns the size of the file.
+		 *
+		 * @return size of the file in bytes
+		 */
+		public long getSize() {
+			return content.capacity();
+		}
+
+		/**
+		 * Getter for <code>lastModified</code>
+		 *
+		 * @return last modification time of the file in milliseconds
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the number of bytes this resource takes in the cache.
+		 *
+		 * @return size of the content and of the compressed content
+		 */
+		private long getCachedBytes() {
+			ByteBuffer c = compressed;
+			return content.capacity() + (c == null ? 0 : c.capacity());
+		}
+	}
+
+	/** marks a cached file which does not get smaller by compressing it */
+	private static final ByteBuffer NOT_COMPRESSIBLE = ByteBuffer.allocate(0);
+	/** size of the buffer used for compressing cached files */
+	private static final int COMPRESSION_BUFFER_SIZE = 8 * 1024;
+	/** number of cached files sampled to find the one to evict */
+	private static final int EVICTION_SAMPLE_SIZE = 8;
+	/** expected average size of a cached file, used to size the frequency sketch */
+	private static final int EXPECTED_FILE_SIZE = 4 * 1024;
+
+	/** cached files mapped by their paths */
+	private Map<Path, CachedResource> resources = new ConcurrentHashMap<>();
+	/** total size of the cached files */
+	private AtomicLong usedBytes = new AtomicLong();
+	/** the estimated frequencies of the recent requests of the files */
+	private FrequencySketch sketch;
+	/** lock held while evicting or sampling */
+	private Object evictionLock = new Object();
+	/**
+	 * iterator over the cached files from which the eviction candidates are
+	 * sampled, continued by every sample
+	 */
+	private Iterator<Map.Entry<Path, CachedResource>> sampler;
+	/** maximum total size of the cached files */
+	private long maxBytes;
+	/** maximum size of a single cached file */
+	private long maxFileSize;
+	/** how often (in milliseconds) is a cached file checked for modification */
+	private long revalidateInterval;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxBytes           maximum total size of the cached files
+	 * @param maxFileSize        maximum size of a single cached file
+	 * @param revalidateInterval how often (in milliseconds) is a cached file
+	 *                           checked for modification
+	 */
+	public StaticResourceCache(long maxBytes, long maxFileSize, long revalidateInterval) {
+		this.maxBytes = maxBytes;
+		this.maxFileSize = Math.min(Math.min(maxFileSize, maxBytes), Integer.MAX_VALUE);
+		this.revalidateInterval = revalidateInterval;
+		this.sketch = new FrequencySketch((int) Math.min(maxBytes / EXPECTED_FILE_SIZE, 1 << 20));
+	}
+
+	/**
+	 * Returns the cached content of the file with the given <code>path</code> and
+	 * records the request of the file. A file which is not cached is not read
+	 * here, the caller reads its attributes anyway and passes them to
+	 * {@link #load(Path, BasicFileAttributes)}, so the file system is asked for
+	 * them only once.
+	 *
+	 * @param path of the file
+	 * @return cached file, or <code>null</code> if the file is not cached or it was
+	 *         modified since it was cached
+	 * @throws IOException if checking the file for modification fails
+	 */
+	public CachedResource get(Path path) throws IOException {
+		long currentTime = System.currentTimeMillis();
+		sketch.increment(path.hashCode());
+
+		CachedResource resource = resources.get(path);
+		if (resource != null) {
+			boolean fresh = currentTime - resource.checkedAt < revalidateInterval;
+			if (!fresh && isUnmodified(path, resource)) {
+				resource.checkedAt = currentTime;
+				fresh = true;
+			}
+			if (fresh) {
+				// written only once per millisecond, not on every hit
+				if (resource.lastAccess != currentTime) {
+					resource.lastAccess = currentTime;
+				}
+				return resource;
+			}
+			remove(path, resource);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the cached content of the file with the given <code>path</code>
+	 * without reading it, checking it for modification or recording the request
+	 * of the file, e.g. to find out in advance how a request would be answered.
+	 *
+	 * @param path of the file
+	 * @return cached file, or <code>null</code> if it is not cached
+	 */
+	public CachedResource peek(Path path) {
+		return resources.get(path);
+	}
+
+	/**
+	 * Returns the gzip compressed content of the given cached file. It is taken
+	 * from the sibling file with the additional extension ".gz" if it is not older
+	 * than the file, otherwise it is compressed in memory. Either way it is done
+	 * only once and the result is kept in the cache along with the file.
+	 *
+	 * @param path     of the file
+	 * @param resource cached content of the file
+	 * @return read-only compressed content, or <code>null</code> if the compressed
+	 *         content would not be smaller than the file
+	 * @throws IOException if reading the ".gz" file fails
+	 */
+	public ByteBuffer getCompressed(Path path, CachedResource resource) throws IOException {
+		ByteBuffer compressed = resource.compressed;
+		if (compressed == null) {
+			synchronized (resource) {
+				compressed = resource.compressed;
+				if (compressed == null) {
+					compressed = compress(path, resource);
+					resource.compressed = compressed;
+					// unless it was evicted in the meantime
+					if (resources.get(path) == resource) {
+						usedBytes.addAndGet(compressed.capacity());
+					}
+				}
+			}
+			if (usedBytes.get() > maxBytes) {
+				evict();
+			}
+		}
+		return compressed == NOT_COMPRESSIBLE ? null : compressed.duplicate();
+	}
+
+	/**
+	 * Reads the ".gz" sibling of the given file or compresses its content.
+	 *
+	 * @param path     of the file
+	 * @param resource cached content of the file
+	 * @return read-only compressed content, or {@link #NOT_COMPRESSIBLE}
+	 * @throws IOException
+	 */
+	private ByteBuffer compress(Path path, CachedResource resource) throws IOException {
+		Path sibling = path.resolveSibling(path.getFileName() + ".gz");
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+			if (attributes.isRegularFile() && attributes.size() <= maxFileSize
+					&& attributes.lastModifiedTime().toMillis() >= resource.lastModified) {
+				ByteBuffer content = ByteBuffer.allocateDirect((int) attributes.size());
+				try (FileChannel file = FileChannel.open(sibling, StandardOpenOption.READ)) {
+					while (content.hasRemaining()) {
+						if (file.read(content) == -1)
+							break;
+					}
+				}
+				content.flip();
+				return content.asReadOnlyBuffer();
+			}
+		} catch (NoSuchFileException e) {
+			// compress it in memory
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bos, COMPRESSION_BUFFER_SIZE)) {
+			ByteBuffer content = resource.getContent();
+			byte[] buffer = new byte[COMPRESSION_BUFFER_SIZE];
+			while (content.hasRemaining()) {
+				int len = Math.min(buffer.length, content.remaining());
+				content.get(buffer, 0, len);
+				gzip.write(buffer, 0, len);
+			}
+		}
+		if (bos.size() >= resource.getSize())
+			return NOT_COMPRESSIBLE;
+
+		ByteBuffer compressed = ByteBuffer.allocateDirect(bos.size());
+		compressed.put(bos.toByteArray()).flip();
+		return compressed.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Checks if the file of the given cached <code>resource</code> is unmodified.
+	 *
+	 * @param path     of the file
+	 * @param resource cached content of the file
+	 * @return <code>true</code> if the file still exists with the same size and
+	 *         modification time
+	 * @throws IOException
+	 */
+	private boolean isUnmodified(Path path, CachedResource resource) throws IOException {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			return attributes.isRegularFile() && attributes.size() == resource.getSize()
+					&& attributes.lastModifiedTime().toMillis() == resource.lastModified;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the readable file with the given <code>path</code> to the cache if it
+	 * is small enough and requested often enough, after {@link #get(Path)} did not
+	 * find it.
+	 *
+	 * @param path       of the file
+	 * @param attributes of the file, just read by the caller
+	 * @return cached file, or <code>null</code> if it was not cached
+	 * @throws IOException if reading the file fails
+	 */
+	public CachedResource load(Path path, BasicFileAttributes attributes) throws IOException {
+		if (!attributes.isRegularFile() || attributes.size() > maxFileSize)
+			return null;
+		long currentTime = System.currentTimeMillis();
+		// the buffer is not even allocated for a file which would not stay cached
+		if (!admit(path, attributes.size()))
+			return null;
+
+		ByteBuffer content = ByteBuffer.allocateDirect((int) attributes.size());
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (content.hasRemaining()) {
+				if (file.read(content) == -1)
+					break;
+			}
+		}
+		// the file changed while it was read
+		if (content.hasRemaining())
+			return null;
+		content.flip();
+
+		CachedResource resource = new CachedResource(content, attributes.lastModifiedTime().toMillis(), currentTime);
+		resource.lastAccess = currentTime;
+		CachedResource previous = resources.putIfAbsent(path, resource);
+		if (previous != null)
+			return previous;
+
+		if (usedBytes.addAndGet(resource.getCachedBytes()) > maxBytes) {
+			evict();
+		}
+		return resource;
+	}
+
+	/**
+	 * Decides if the file with the given <code>path</code> should be read to the
+	 * cache. It is admitted if it fits in the byte budget, otherwise only if it is
+	 * requested more often than the file which would be evicted first.
+	 *
+	 * @param path of the file
+	 * @param size of the file
+	 * @return <code>true</code> if the file should be cached
+	 */
+	private boolean admit(Path path, long size) {
+		if (usedBytes.get() + size <= maxBytes)
+			return true;
+
+		Map.Entry<Path, CachedResource> victim;
+		synchronized (evictionLock) {
+			victim = sampleVictim();
+		}
+		return victim == null || sketch.frequency(path.hashCode()) > sketch.frequency(victim.getKey().hashCode());
+	}
+
+	/**
+	 * Removes the least recently used of the sampled files until the cached files
+	 * fit in the byte budget.
+	 */
+	private void evict() {
+		synchronized (evictionLock) {
+			while (usedBytes.get() > maxBytes) {
+				Map.Entry<Path, CachedResource> victim = sampleVictim();
+				if (victim == null)
+					return;
+				remove(victim.getKey(), victim.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Samples the next few cached files and returns the least recently used one.
+	 * Must be called while holding the <code>evictionLock</code>.
+	 *
+	 * @return the file to evict, or <code>null</code> if the cache is empty
+	 */
+	private Map.Entry<Path, CachedResource> sampleVictim() {
+		Map.Entry<Path, CachedResource> victim = null;
+		for (int i = 0; i < EVICTION_SAMPLE_SIZE; ++i) {
+			if (sampler == null || !sampler.hasNext()) {
+				sampler = resources.entrySet().iterator();
+				if (!sampler.hasNext())
+					break;
+			}
+			Map.Entry<Path, CachedResource> candidate = sampler.next();
+			if (victim == null || candidate.getValue().lastAccess < victim.getValue().lastAccess) {
+				victim = candidate;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Removes the given cached <code>resource</code> if it is still cached.
+	 *
+	 * @param path     of the file
+	 * @param resource cached content of the file
+	 */
+	private void remove(Path path, CachedResource resource) {
+		synchronized (resource) {
+			if (resources.remove(path, resource)) {
+				usedBytes.addAndGet(-resource.getCachedBytes());
+			}
+		}
+	}
+
+	/**
+	 * A count-min sketch estimating how often the files were requested recently.
+	 * Every request increments a small saturating counter in each of
+	 * {@value #DEPTH} rows, and the estimate is the smallest of the counters of a
+	 * file. The counters are halved from time to time so that the estimates follow
+	 * the recent requests. The counters are updated without synchronization, as a
+	 * lost update only makes an estimate slightly lower.
+	 *
+	 * @author Vedran Kolka
+	 *
+	 */
+	static class FrequencySketch {
+		/** number of rows */
+		private static final int DEPTH = 4;
+		/** the largest value of a counter */
+		private static final int MAX_COUNT = 15;
+		/** the seeds of the hash functions of the rows */
+		private static final int[] SEEDS = { 0x97CB3127, 0x2F0D2A3D, 0x6C4A6F9B, 0x1B873593 };
+
+		/** the counters of all rows, one row after another */
+		private byte[] counters;
+		/** number of counters in a row, a power of two */
+		private int width;
+		/** counters are halved after this many increments on average */
+		private int agingPeriod;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param expectedEntries expected number of cached files
+		 */
+		FrequencySketch(int expectedEntries) {
+			width = Integer.highestOneBit(Math.max(expectedEntries, 64) - 1) << 1;
+			counters = new byte[DEPTH * width];
+			agingPeriod = 10 * width;
+		}
+
+		/**
+		 * Records a request of the file with the given hash.
+		 *
+		 * @param hash of the file
+		 */
+		void increment(int hash) {
+			for (int i = 0; i < DEPTH; ++i) {
+				int index = index(hash, i);
+				if (counters[index] < MAX_COUNT) {
+					++counters[index];
+				}
+			}
+			// aged on a random increment, so there is no shared counter of increments
+			if (ThreadLocalRandom.current().nextInt(agingPeriod) == 0) {
+				age();
+			}
+		}
+
+		/**
+		 * Estimates how often the file with the given hash was requested recently.
+		 *
+		 * @param hash of the file
+		 * @return estimated number of requests
+		 */
+		int frequency(int hash) {
+			int frequency = MAX_COUNT;
+			for (int i = 0; i < DEPTH; ++i) {
+				frequency = Math.min(frequency, counters[index(hash, i)]);
+			}
+			return frequency;
+		}
+
+		/**
+		 * Halves all counters.
+		 */
+		private synchronized void age() {
+			for (int i = 0; i < counters.length; ++i) {
+				counters[i] >>= 1;
+			}
+		}
+
+		/**
+		 * Returns the index of the counter of the file with the given hash in the
+		 * given row.
+		 *
+		 * @param hash of the file
+		 * @param row  of the counter
+		 * @return index in <code>counters</code>
+		 */
+		private int index(int hash, int row) {
+			int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+			h ^= h >>> 16;
+			return row * width + (h & (width - 1));
+		}
+	}
+
+}
@@ -0,0 +1,223 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * A file uploaded in a <code>multipart/form-data</code> request body. A small
+ * file is kept in memory, while a file longer than the threshold is written to
+ * a temporary file as it arrives, so a large upload never occupies the heap.
+ * The temporary file is deleted once the request is answered, unless the
+ * worker moves it with {@link #transferTo(Path)}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class UploadedFile {
+	/** the initial size of the array holding a file in memory */
+	private static final int INITIAL_SIZE = 1024;
+
+	/** name of the form field */
+	private String name;
+	/** name of the file on the client, without the directories */
+	private String fileName;
+	/** mime type of the file */
+	private String contentType;
+	/** the longest file which is kept in memory */
+	private int threshold;
+	/** directory of the temporary file */
+	private Path directory;
+	/** the file in memory, <code>null</code> if it was written to a file */
+	private byte[] content = new byte[0];
+	/** the file on disk, <code>null</code> if it is kept in memory */
+	private Path file;
+	/** A flag indicating that the file on disk is deleted with the request */
+	private boolean temporary;
+	/** size of the file */
+	private long size;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name        of the form field
+	 * @param fileName    name of the file on the client
+	 * @param contentType mime type of the file, <code>null</code> if it is unknown
+	 * @param threshold   the longest file which is kept in memory
+	 * @param directory   of the temporary file
+	 */
+	UploadedFile(String name, String fileName, String contentType, int threshold, Path directory) {
+		this.name = name;
+		// some clients send the whole path of the file
+		this.fileName = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+		this.contentType = contentType == null ? "application/octet-stream" : contentType;
+		this.threshold = threshold;
+		this.directory = directory;
+	}
+
+	/**
+	 * Opens the stream to which the contents of the file are written as they
+	 * arrive. The contents move to a temporary file once they exceed the
+	 * threshold.
+	 *
+	 * @return stream of the contents, which must be closed once they are written
+	 */
+	OutputStream openOutputStream() {
+		return new OutputStream() {
+			/** stream of the temporary file, <code>null</code> while in memory */
+			private OutputStream fileStream;
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (fileStream == null && size + len > threshold) {
+					file = Files.createTempFile(directory, "upload", ".tmp");
+					temporary = true;
+					fileStream = Files.newOutputStream(file);
+					fileStream.write(content, 0, (int) size);
+					content = null;
+				}
+				if (fileStream != null) {
+					fileStream.write(b, off, len);
+				} else {
+					if (size + len > content.length) {
+						int newLength = (int) Math.min(threshold, Math.max(size + len, Math.max(INITIAL_SIZE, content.length * 2L)));
+						content = Arrays.copyOf(content, newLength);
+					}
+					System.arraycopy(b, off, content, (int) size, len);
+				}
+				size += len;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (fileStream != null) {
+					fileStream.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Getter for <code>name</code>
+	 *
+	 * @return name of the form field
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter for <code>fileName</code>
+	 *
+	 * @return name of the file on the client, without the directories
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Getter for <code>contentType</code>
+	 *
+	 * @return mime type of the file, <code>application/octet-stream</code> if the
+	 *         client did not send it
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Getter for <code>size</code>
+	 *
+	 * @return size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Checks if the file is kept in memory.
+	 *
+	 * @return <code>true</code> if the file is in memory, <code>false</code> if
+	 *         it is on disk
+	 */
+	public boolean isInMemory() {
+		return file == null;
+	}
+
+	/**
+	 * Returns the path of the file on disk.
+	 *
+	 * @return path of the file, <code>null</code> if it is kept in memory
+	 */
+	public Path getPath() {
+		return file;
+	}
+
+	/**
+	 * Opens a stream of the contents of the file.
+	 *
+	 * @return stream of the contents
+	 * @throws IOException if the file on disk can not be opened
+	 */
+	public InputStream getInputStream() throws IOException {
+		if (file == null)
+			return new ByteArrayInputStream(content, 0, (int) size);
+		return Files.newInputStream(file);
+	}
+
+	/**
+	 * Returns the contents of the file, which are read into memory if the file is
+	 * on disk.
+	 *
+	 * @return the contents
+	 * @throws IOException if the file on disk can not be read
+	 */
+	public byte[] getBytes() throws IOException {
+		if (file == null)
+			return Arrays.copyOf(content, (int) size);
+		return Files.readAllBytes(file);
+	}
+
+	/**
+	 * Stores the file at the given <code>target</code> path. A temporary file is
+	 * moved there instead of being copied, and it is no longer deleted when the
+	 * request is answered.
+	 *
+	 * @param target path at which the file is stored
+	 * @throws IOException if the file can not be stored
+	 */
+	public void transferTo(Path target) throws IOException {
+		if (file == null) {
+			Files.write(target, getBytes());
+			return;
+		}
+		Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+		file = target;
+		temporary = false;
+	}
+
+	/**
+	 * Deletes the temporary file, if there is one.
+	 */
+	void delete() {
+		if (!temporary)
+			return;
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			System.err.println("Deleting of the uploaded file " + file + " failed.");
+		}
+		temporary = false;
+	}
+
+}
@@ -0,0 +1,119 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.webserver.RequestParameters;
+
+/**
+ * Compares decoding queries with {@link RequestParameters} to splitting them
+ * with {@link String#split(String)}, the way the server parsed them before. The
+ * splitting does not decode anything, so its results are wrong for the encoded
+ * queries, and it is measured only as the lower bound of the work.
+ * <p>
+ * Every query is parsed in a loop for a number of rounds after a warm up, and
+ * the average time of a query is printed for both ways, as well as the time of
+ * only storing the query when the worker does not ask for the parameters.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ParametersBenchmark {
+
+	/** the benchmarked queries */
+	private static final String[] QUERIES = { "a=1&b=2", "name=Ivan+Horvat&city=Zagreb&bgcolor=FF7F50",
+			"q=%C4%8Cevap%C4%8Di%C4%87i+i+%C5%A0i%C5%A1%C4%8Devap%C4%8Di%C4%87i&lang=hr&page=3",
+			"expr=1%2B2%3D3&x=a=b&x=c&flag",
+			"utm_source=newsletter&utm_medium=email&utm_campaign=spring_sale&utm_term=shoes&utm_content=banner&id=12345" };
+	/** number of parsed queries in a round */
+	private static final int ITERATIONS = 1_000_000;
+	/** number of measured rounds */
+	private static final int ROUNDS = 5;
+
+	/** the sum of lengths of the results, which keeps them from being optimized away */
+	private static long sink;
+
+	public static void main(String[] args) {
+		for (String query : QUERIES) {
+			System.out.println(query);
+			System.out.println("  split:   " + split(query));
+			RequestParameters decoded = decoded(query);
+			System.out.println("  decoded: " + decoded + ", all values of x: " + decoded.getAll("x"));
+		}
+		System.out.println();
+
+		// warm up
+		for (int i = 0; i < ROUNDS; ++i) {
+			measure(false);
+		}
+		for (int i = 0; i < ROUNDS; ++i) {
+			measure(true);
+		}
+		System.out.println("checksum " + sink);
+	}
+
+	/**
+	 * Parses every query in both ways and prints the average times if asked to.
+	 *
+	 * @param print <code>true</code> if the times should be printed
+	 */
+	private static void measure(boolean print) {
+		for (String query : QUERIES) {
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; ++i) {
+				sink += split(query).size();
+			}
+			long split = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; ++i) {
+				sink += decoded(query).size();
+			}
+			long decoded = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; ++i) {
+				RequestParameters parameters = new RequestParameters();
+				parameters.addEncoded(query);
+				sink += System.identityHashCode(parameters) & 1;
+			}
+			long unread = System.nanoTime() - start;
+
+			if (print) {
+				System.out.printf("%-40.40s split %6.1f ns, decoded %6.1f ns, unread %6.1f ns%n", query,
+						(double) split / ITERATIONS, (double) decoded / ITERATIONS, (double) unread / ITERATIONS);
+			}
+		}
+	}
+
+	/**
+	 * Parses the query the way the server parsed it before.
+	 *
+	 * @param query to parse
+	 * @return the parameters
+	 */
+	private static Map<String, String> split(String query) {
+		Map<String, String> params = new HashMap<>();
+		for (String entry : query.split("&")) {
+			String[] e = entry.split("=");
+			String paramName = e[0];
+			String paramValue = e.length < 2 ? null : e[1];
+			params.put(paramName, paramValue);
+		}
+		return params;
+	}
+
+	/**
+	 * Decodes the query with {@link RequestParameters}.
+	 *
+	 * @param query to decode
+	 * @return the parameters
+	 */
+	private static RequestParameters decoded(String query) {
+		RequestParameters parameters = new RequestParameters();
+		parameters.addEncoded(query);
+		parameters.size();
+		return parameters;
+	}
+
+}
@@ -0,0 +1,124 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import hr.fer.zemris.java.webserver.SessionIdGenerator;
+
+/**
+ * Compares generating session IDs with {@link SessionIdGenerator} to the way
+ * the server generated them before, from a {@link Random} shared by all the
+ * threads, one letter at a time into a {@link StringBuilder}. Both ways are
+ * measured with an increasing number of threads generating IDs at once, which
+ * shows how much the threads contend for the source of the random numbers.
+ * <p>
+ * Every thread generates IDs in a loop for a number of rounds after a warm up,
+ * and the average time of an ID in a thread and the total throughput are
+ * printed for both ways. Unless the threads contend, the throughput grows with
+ * the number of threads up to the number of processors, and stays the same
+ * after it.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class SessionIdBenchmark {
+
+	/** the benchmarked numbers of threads */
+	private static final int[] THREADS = { 1, 2, 4, 8 };
+	/** number of IDs generated by a thread in a round */
+	private static final int ITERATIONS = 500_000;
+	/** number of measured rounds */
+	private static final int ROUNDS = 3;
+	/** the length of an ID generated the old way */
+	private static final int SID_LENGTH = 20;
+
+	/** the Random shared by the threads generating IDs the old way */
+	private static Random random = new Random();
+	/** the generator shared by the threads generating IDs the new way */
+	private static SessionIdGenerator generator = new SessionIdGenerator();
+	/** the sum of the first characters of the IDs, which keeps them from being optimized away */
+	private static LongAdder sink = new LongAdder();
+
+	public static void main(String[] args) throws InterruptedException {
+		System.out.println("old: " + getNewSID(random));
+		System.out.println("new: " + generator.nextId());
+		System.out.println();
+
+		// warm up
+		for (int i = 0; i < ROUNDS; ++i) {
+			measure(false);
+		}
+		for (int i = 0; i < ROUNDS; ++i) {
+			measure(true);
+		}
+		System.out.println("checksum " + sink.sum());
+	}
+
+	/**
+	 * Generates IDs in both ways with every number of threads and prints the
+	 * times if asked to.
+	 *
+	 * @param print <code>true</code> if the times should be printed
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	private static void measure(boolean print) throws InterruptedException {
+		for (int threads : THREADS) {
+			long old = run(threads, () -> getNewSID(random));
+			long secure = run(threads, generator::nextId);
+
+			if (print) {
+				System.out.printf("%d threads: old %6.1f ns/id (%5.1f M ids/s), new %6.1f ns/id (%5.1f M ids/s)%n",
+						threads, (double) old / ITERATIONS, 1e3 * threads * ITERATIONS / old,
+						(double) secure / ITERATIONS, 1e3 * threads * ITERATIONS / secure);
+			}
+		}
+	}
+
+	/**
+	 * Generates {@value #ITERATIONS} IDs in each of the given number of threads
+	 * at once.
+	 *
+	 * @param threads     number of threads
+	 * @param idGenerator generates an ID
+	 * @return the time (in nanoseconds) until all the threads finished
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	private static long run(int threads, Supplier<String> idGenerator) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			workers[i] = new Thread(() -> {
+				long sum = 0;
+				for (int j = 0; j < ITERATIONS; ++j) {
+					sum += idGenerator.get().charAt(0);
+				}
+				sink.add(sum);
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Generates the IDs the way the server generated them before.
+	 *
+	 * @param r {@link Random} for generating the string
+	 * @return randomly generated string of length SID_LENGTH
+	 */
+	private static String getNewSID(Random r) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < SID_LENGTH; ++i) {
+			char c = (char) (r.nextInt(26) + 65);
+			sb.append(c);
+		}
+
+		return sb.toString();
+	}
+
+}
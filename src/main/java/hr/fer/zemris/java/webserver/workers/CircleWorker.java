@@ -5,25 +5,56 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
 
+import hr.fer.zemris.java.webserver.IAsyncWebWorker;
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
- * An {@link IWebWorker} that draws an orange circle with a radius of 100.
+ * An {@link IWebWorker} that draws an orange circle with a radius of 100. The
+ * image is drawn, encoded and written on the threads of the worker, so the
+ * thread of the server is not blocked meanwhile. The threads are the worker's
+ * own, so writing to a slow client does not block the common pool of the JVM.
  * 
  * @author Vedran Kolka
  *
  */
-public class CircleWorker implements IWebWorker {
+public class CircleWorker implements IAsyncWebWorker {
+
+	/** the threads which draw and write the images */
+	private static final ExecutorService EXECUTOR = Executors
+			.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread thread = new Thread(r, "Circle Worker");
+				thread.setDaemon(true);
+				return thread;
+			});
 
 	@Override
-	public void processRequest(RequestContext context) {
+	public CompletableFuture<Void> processRequestAsync(RequestContext context) {
 
 		context.setMimeType("image/png");
 
+		return CompletableFuture.supplyAsync(CircleWorker::drawCircle, EXECUTOR).thenAccept(png -> {
+			try {
+				context.write(png);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	/**
+	 * Draws the circle and encodes it as a PNG image.
+	 * 
+	 * @return bytes of the image
+	 */
+	private static byte[] drawCircle() {
 		BufferedImage bim = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
 		Graphics2D g2d = bim.createGraphics();
 		// fill orange circle
@@ -34,12 +65,10 @@ public class CircleWorker implements IWebWorker {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
 			ImageIO.write(bim, "png", bos);
-			context.write(bos.toByteArray());
 		} catch (IOException e) {
-			// Log exception to servers log...
-			e.printStackTrace();
+			throw new UncheckedIOException(e);
 		}
-
+		return bos.toByteArray();
 	}
 
 }
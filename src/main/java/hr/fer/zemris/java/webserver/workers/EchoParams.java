@@ -32,7 +32,7 @@ public class EchoParams implements IWebWorker {
 
 		sb.append("</table></body></html>");
 
-		context.write(sb.toString());
+		context.write(sb);
 	}
 
 }
@@ -0,0 +1,83 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.UploadedFile;
+
+/**
+ * An {@link IWebWorker} which formats the files uploaded in a multipart form in
+ * a table in an html document which is then written to the client.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class UploadWorker implements IWebWorker {
+
+	private static final String USAGE_MESSAGE = "<p>Upload files in a multipart form to list them in a table.</p>";
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		if (context.getUploadedFiles().isEmpty()) {
+			context.write(USAGE_MESSAGE);
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("<html><body><table border=\"1\">");
+		sb.append("<tr><th>Field</th><th>File</th><th>Type</th><th>Size</th><th>Stored</th></tr>");
+
+		// the names and the type are sent by the client, so they are escaped
+		for (UploadedFile file : context.getUploadedFiles()) {
+			sb.append("<tr><td>");
+			appendEscaped(sb, file.getName());
+			sb.append("</td><td>");
+			appendEscaped(sb, file.getFileName());
+			sb.append("</td><td>");
+			appendEscaped(sb, file.getContentType());
+			sb.append("</td><td>").append(file.getSize())
+					.append("</td><td>").append(file.isInMemory() ? "in memory" : "on disk")
+					.append("</td></tr>");
+		}
+
+		sb.append("</table></body></html>");
+
+		context.write(sb);
+	}
+
+	/**
+	 * Appends the given text to the html document, escaping the characters which
+	 * have a meaning in html.
+	 *
+	 * @param sb   the html document
+	 * @param text to append, <code>null</code> is appended as it is
+	 */
+	private static void appendEscaped(StringBuilder sb, String text) {
+		if (text == null) {
+			sb.append(text);
+			return;
+		}
+		for (int i = 0, n = text.length(); i < n; ++i) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '"':
+				sb.append("&quot;");
+				break;
+			case '\'':
+				sb.append("&#39;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of reusing buffers through a {@link BufferPool}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class BufferPoolTest {
+
+	@Test
+	public void testReleasedBufferIsReused() {
+		BufferPool pool = new BufferPool();
+		byte[] buffer = pool.acquire(4096);
+		assertEquals(4096, buffer.length);
+		pool.release(buffer);
+
+		assertSame(buffer, pool.acquire(4096));
+		assertNotSame(buffer, pool.acquire(4096));
+	}
+
+	@Test
+	public void testBufferIsReusedOnlyForItsSize() {
+		BufferPool pool = new BufferPool();
+		byte[] buffer = pool.acquire(4096);
+		pool.release(buffer);
+
+		byte[] other = pool.acquire(8192);
+		assertEquals(8192, other.length);
+		assertSame(buffer, pool.acquire(4096));
+	}
+
+	@Test
+	public void testSizesOutsideClassesAreNotPooled() {
+		BufferPool pool = new BufferPool();
+		for (int size : new int[] { 1, BufferPool.MIN_SIZE / 2, 3000, 2 * BufferPool.MAX_SIZE }) {
+			byte[] buffer = pool.acquire(size);
+			assertEquals(size, buffer.length);
+			pool.release(buffer);
+			assertNotSame(buffer, pool.acquire(size));
+		}
+	}
+
+	@Test
+	public void testSmallestAndLargestClassesArePooled() {
+		BufferPool pool = new BufferPool();
+		for (int size : new int[] { BufferPool.MIN_SIZE, BufferPool.MAX_SIZE }) {
+			byte[] buffer = pool.acquire(size);
+			pool.release(buffer);
+			assertSame(buffer, pool.acquire(size));
+		}
+	}
+
+	@Test
+	public void testClassKeepsAtMostItsLimit() {
+		BufferPool pool = new BufferPool(4);
+		List<byte[]> released = new ArrayList<>();
+		for (int i = 0; i < 6; ++i) {
+			released.add(new byte[1024]);
+		}
+		released.forEach(pool::release);
+
+		Set<byte[]> pooled = Collections.newSetFromMap(new IdentityHashMap<>());
+		pooled.addAll(released);
+		int reused = 0;
+		for (int i = 0; i < 6; ++i) {
+			if (pooled.contains(pool.acquire(1024))) {
+				++reused;
+			}
+		}
+		// the two arrays over the limit were dropped, so two new ones were allocated
+		assertEquals(4, reused);
+	}
+
+	@Test
+	public void testPoolingDisabled() {
+		BufferPool pool = new BufferPool(0);
+		byte[] buffer = pool.acquire(4096);
+		pool.release(buffer);
+
+		assertNotSame(buffer, pool.acquire(4096));
+	}
+
+	@Test
+	public void testNullIsIgnored() {
+		BufferPool pool = new BufferPool();
+		pool.release(null);
+
+		assertEquals(4096, pool.acquire(4096).length);
+	}
+
+	@Test
+	public void testConcurrentThreadsDoNotShareBuffers() throws InterruptedException {
+		BufferPool pool = new BufferPool(8);
+		Set<byte[]> inUse = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+		List<Thread> started = new ArrayList<>();
+		for (int i = 0; i < 8; ++i) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 10000; ++j) {
+					byte[] buffer = pool.acquire(2048);
+					if (!inUse.add(buffer)) {
+						failures.add(new AssertionError("Buffer acquired twice."));
+					}
+					inUse.remove(buffer);
+					pool.release(buffer);
+				}
+			});
+			thread.start();
+			started.add(thread);
+		}
+		for (Thread thread : started) {
+			thread.join();
+		}
+
+		assertTrue(failures.isEmpty());
+	}
+
+	@Test
+	public void testNegativeLimit() {
+		assertThrows(IllegalArgumentException.class, () -> new BufferPool(-1));
+	}
+
+}
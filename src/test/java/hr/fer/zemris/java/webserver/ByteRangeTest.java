@@ -0,0 +1,146 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of parsing the <code>Range</code> header with {@link ByteRange}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void testSingleRange() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-499", 1000);
+
+		assertEquals(1, ranges.size());
+		assertRange(0, 499, ranges.get(0));
+		assertEquals(500, ranges.get(0).getLength());
+		assertEquals("bytes 0-499/1000", ranges.get(0).toContentRange(1000));
+	}
+
+	@Test
+	public void testSingleByteRanges() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-0,999-999", 1000);
+
+		assertEquals(2, ranges.size());
+		assertRange(0, 0, ranges.get(0));
+		assertEquals(1, ranges.get(0).getLength());
+		assertRange(999, 999, ranges.get(1));
+	}
+
+	@Test
+	public void testOpenEndedRange() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=900-", 1000);
+
+		assertEquals(1, ranges.size());
+		assertRange(900, 999, ranges.get(0));
+	}
+
+	@Test
+	public void testEndBeyondSizeIsShortened() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=500-5000", 1000);
+
+		assertRange(500, 999, ranges.get(0));
+	}
+
+	@Test
+	public void testSuffixRange() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=-100", 1000);
+
+		assertEquals(1, ranges.size());
+		assertRange(900, 999, ranges.get(0));
+	}
+
+	@Test
+	public void testSuffixLongerThanResource() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=-5000", 1000);
+
+		assertRange(0, 999, ranges.get(0));
+	}
+
+	@Test
+	public void testZeroSuffixIsNotSatisfiable() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=-0", 1000);
+
+		assertTrue(ranges.isEmpty());
+	}
+
+	@Test
+	public void testSuffixOfEmptyResourceIsNotSatisfiable() {
+		assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+		assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+	}
+
+	@Test
+	public void testOverlappingRangesKeepTheirOrder() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=500-700, 0-600, -300", 1000);
+
+		assertEquals(3, ranges.size());
+		assertRange(500, 700, ranges.get(0));
+		assertRange(0, 600, ranges.get(1));
+		assertRange(700, 999, ranges.get(2));
+	}
+
+	@Test
+	public void testUnsatisfiableRangesAreLeftOut() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=1000-1100,0-9", 1000);
+
+		assertEquals(1, ranges.size());
+		assertRange(0, 9, ranges.get(0));
+	}
+
+	@Test
+	public void testNoSatisfiableRange() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=1000-", 1000);
+
+		assertTrue(ranges.isEmpty());
+	}
+
+	@Test
+	public void testWhitespaceAroundRanges() {
+		List<ByteRange> ranges = ByteRange.parse("bytes= 1 - 2 ,\t3-4", 1000);
+
+		assertEquals(2, ranges.size());
+		assertRange(1, 2, ranges.get(0));
+		assertRange(3, 4, ranges.get(1));
+	}
+
+	@Test
+	public void testOtherUnitIsIgnored() {
+		assertNull(ByteRange.parse("items=0-1", 1000));
+	}
+
+	@Test
+	public void testMalformedRangesAreIgnored() {
+		assertNull(ByteRange.parse("bytes=", 1000));
+		assertNull(ByteRange.parse("bytes=5", 1000));
+		assertNull(ByteRange.parse("bytes=-", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+		assertNull(ByteRange.parse("bytes=0-1,x", 1000));
+		assertNull(ByteRange.parse("bytes=1--2", 1000));
+	}
+
+	@Test
+	public void testEndBeforeStartIsIgnored() {
+		assertNull(ByteRange.parse("bytes=500-499", 1000));
+	}
+
+	@Test
+	public void testNumberTooLargeIsIgnored() {
+		assertNull(ByteRange.parse("bytes=0-99999999999999999999", 1000));
+	}
+
+	private static void assertRange(long start, long end, ByteRange range) {
+		assertEquals(start, range.getStart());
+		assertEquals(end, range.getEnd());
+	}
+
+}
@@ -0,0 +1,159 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of decoding chunked request bodies with {@link ChunkedInputStream}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ChunkedInputStreamTest {
+
+	@Test
+	public void testChunks() throws IOException {
+		assertEquals("Wikipedia in\r\n\r\nchunks.",
+				decode("4\r\nWiki\r\n5\r\npedia\r\nE\r\n in\r\n\r\nchunks.\r\n0\r\n\r\n"));
+	}
+
+	@Test
+	public void testEmptyBody() throws IOException {
+		assertEquals("", decode("0\r\n\r\n"));
+	}
+
+	@Test
+	public void testHexadecimalSizes() throws IOException {
+		String data = "0123456789abcdef0123456789ABCDEF";
+		String body = "1a\r\n" + data.substring(0, 26) + "\r\n" + "1A\r\n" + data.substring(26) + data.substring(0, 20)
+				+ "\r\n" + "0\r\n\r\n";
+		assertEquals(data + data.substring(0, 20), decode(body));
+	}
+
+	@Test
+	public void testChunkExtensionsAreIgnored() throws IOException {
+		assertEquals("abcde", decode("3;name=value\r\nabc\r\n2 ; quoted=\"a;b\"\r\nde\r\n0;last\r\n\r\n"));
+	}
+
+	@Test
+	public void testTrailerIsSkipped() throws IOException {
+		InputStream in = stream("3\r\nabc\r\n0\r\nExpires: never\r\nX-Checksum: 42\r\n\r\nGET / HTTP/1.1");
+		ChunkedInputStream chunked = new ChunkedInputStream(in);
+
+		assertEquals("abc", readAll(chunked));
+		// the bytes of the next request are left in the underlying stream
+		assertEquals("GET / HTTP/1.1", readAll(in));
+	}
+
+	@Test
+	public void testFollowingBytesAreNotRead() throws IOException {
+		InputStream in = stream("2\r\nab\r\n0\r\n\r\nnext");
+		ChunkedInputStream chunked = new ChunkedInputStream(in);
+
+		assertEquals("ab", readAll(chunked));
+		assertEquals(-1, chunked.read());
+		assertEquals("next", readAll(in));
+	}
+
+	@Test
+	public void testLineFeedOnlyLines() throws IOException {
+		assertEquals("abcd", decode("2\nab\n2\ncd\n0\n\n"));
+	}
+
+	@Test
+	public void testSingleByteReads() throws IOException {
+		ChunkedInputStream chunked = new ChunkedInputStream(stream("2\r\nab\r\n1\r\nc\r\n0\r\n\r\n"));
+
+		assertEquals('a', chunked.read());
+		assertEquals('b', chunked.read());
+		assertEquals('c', chunked.read());
+		assertEquals(-1, chunked.read());
+	}
+
+	@Test
+	public void testReadsDoNotCrossChunks() throws IOException {
+		ChunkedInputStream chunked = new ChunkedInputStream(stream("2\r\nab\r\n3\r\ncde\r\n0\r\n\r\n"));
+		byte[] b = new byte[10];
+
+		assertEquals(2, chunked.read(b, 0, 10));
+		assertEquals(3, chunked.read(b, 2, 8));
+		assertArrayEquals("abcde".getBytes(StandardCharsets.ISO_8859_1), Arrays.copyOf(b, 5));
+		assertEquals(-1, chunked.read(b, 0, 10));
+	}
+
+	@Test
+	public void testSkip() throws IOException {
+		ChunkedInputStream chunked = new ChunkedInputStream(stream("3\r\nabc\r\n3\r\ndef\r\n0\r\n\r\n"));
+
+		assertEquals(4, chunked.skip(4));
+		assertEquals("ef", readAll(chunked));
+		assertEquals(0, chunked.skip(4));
+	}
+
+	@Test
+	public void testBodyEndsInChunk() {
+		assertThrows(EOFException.class, () -> decode("5\r\nab"));
+	}
+
+	@Test
+	public void testBodyEndsBeforeLastChunk() {
+		assertThrows(EOFException.class, () -> decode("2\r\nab\r\n"));
+	}
+
+	@Test
+	public void testBodyEndsInTrailer() {
+		assertThrows(EOFException.class, () -> decode("0\r\nExpires: never\r\n"));
+	}
+
+	@Test
+	public void testInvalidSize() {
+		assertThrows(IOException.class, () -> decode("x\r\nab\r\n0\r\n\r\n"));
+		assertThrows(IOException.class, () -> decode("\r\nab\r\n0\r\n\r\n"));
+		assertThrows(IOException.class, () -> decode("-2\r\nab\r\n0\r\n\r\n"));
+		assertThrows(IOException.class, () -> decode("fffffffffffffffff\r\nab\r\n0\r\n\r\n"));
+	}
+
+	@Test
+	public void testChunkLongerThanItsSize() {
+		assertThrows(IOException.class, () -> decode("2\r\nabc\r\n0\r\n\r\n"));
+	}
+
+	@Test
+	public void testTooLongSizeLine() {
+		StringBuilder sb = new StringBuilder("1;");
+		for (int i = 0; i < 5000; ++i) {
+			sb.append('x');
+		}
+		assertThrows(IOException.class, () -> decode(sb + "\r\na\r\n0\r\n\r\n"));
+	}
+
+	private static String decode(String body) throws IOException {
+		return readAll(new ChunkedInputStream(stream(body)));
+	}
+
+	private static InputStream stream(String s) {
+		return new ByteArrayInputStream(s.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] b = new byte[3];
+		int read;
+		while ((read = in.read(b)) != -1) {
+			bos.write(b, 0, read);
+		}
+		return bos.toString(StandardCharsets.ISO_8859_1);
+	}
+
+}
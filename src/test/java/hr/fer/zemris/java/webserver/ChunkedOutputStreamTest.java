@@ -0,0 +1,129 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of framing answer bodies in chunks with {@link ChunkedOutputStream}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ChunkedOutputStreamTest {
+	/** the chunked body */
+	private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Test
+	public void testSmallWritesAreCollectedInOneChunk() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 16);
+		chunked.write(bytes("Wiki"));
+		chunked.write(bytes("pedia"));
+		chunked.finish();
+
+		assertEquals("9\r\nWikipedia\r\n0\r\n\r\n", body());
+	}
+
+	@Test
+	public void testFullBufferIsSent() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 4);
+		chunked.write(bytes("abc"));
+		// the buffered chunk is filled up, and a whole chunk is sent from the array
+		chunked.write(bytes("defghij"));
+		assertEquals("4\r\nabcd\r\n4\r\nefgh\r\n", body());
+
+		chunked.finish();
+		assertEquals("4\r\nabcd\r\n4\r\nefgh\r\n2\r\nij\r\n0\r\n\r\n", body());
+	}
+
+	@Test
+	public void testSingleBytes() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 2);
+		for (byte b : bytes("abcde")) {
+			chunked.write(b);
+		}
+		chunked.finish();
+
+		assertEquals("2\r\nab\r\n2\r\ncd\r\n1\r\ne\r\n0\r\n\r\n", body());
+	}
+
+	@Test
+	public void testHexadecimalChunkSize() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 256);
+		chunked.write(new byte[26]);
+		chunked.finish();
+
+		assertEquals("1a\r\n", body().substring(0, 4));
+	}
+
+	@Test
+	public void testFlushSendsChunk() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 16);
+		chunked.write(bytes("abc"));
+		assertEquals("", body());
+
+		chunked.flush();
+		assertEquals("3\r\nabc\r\n", body());
+		// no empty chunk, which would end the body
+		chunked.flush();
+		assertEquals("3\r\nabc\r\n", body());
+	}
+
+	@Test
+	public void testEmptyBody() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+		chunked.finish();
+
+		assertEquals("0\r\n\r\n", body());
+	}
+
+	@Test
+	public void testFinishIsIdempotent() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 16);
+		chunked.write(bytes("abc"));
+		chunked.finish();
+		chunked.close();
+
+		assertEquals("3\r\nabc\r\n0\r\n\r\n", body());
+		assertThrows(IOException.class, () -> chunked.write(1));
+	}
+
+	@Test
+	public void testChunkedBodyIsDecoded() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			sb.append(i).append(' ');
+		}
+		String text = sb.toString();
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out, 100);
+		byte[] data = bytes(text);
+		for (int off = 0; off < data.length; off += 37) {
+			chunked.write(data, off, Math.min(37, data.length - off));
+		}
+		chunked.finish();
+
+		ChunkedInputStream in = new ChunkedInputStream(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(text, new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testInvalidChunkSize() {
+		assertThrows(IllegalArgumentException.class, () -> new ChunkedOutputStream(out, 0));
+		assertThrows(IllegalArgumentException.class, () -> new ChunkedOutputStream(out, new byte[0]));
+	}
+
+	private String body() {
+		return out.toString(StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+}
@@ -0,0 +1,142 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of keeping sessions within the bounds of a
+ * {@link ConcurrentSessionStore}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class ConcurrentSessionStoreTest {
+
+	@Test
+	public void testSessionIsFoundOnlyForItsHost() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		Session session = sessions.create("localhost");
+
+		assertSame(session, sessions.get(session.getId(), "localhost"));
+		assertNull(sessions.get(session.getId(), "www.localhost"));
+		assertNull(sessions.get("unknown", "localhost"));
+	}
+
+	@Test
+	public void testExpiredSessionIsRemovedOnGet() throws InterruptedException {
+		ISessionStore sessions = new ConcurrentSessionStore(0);
+		Session session = sessions.create("localhost");
+		Thread.sleep(5);
+
+		assertNull(sessions.get(session.getId(), "localhost"));
+		assertEquals(0, sessions.size());
+		assertEquals(0, sessions.getEstimatedSize());
+		assertEquals(0, sessions.getEvictionCount());
+	}
+
+	@Test
+	public void testUnboundedStore() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		for (int i = 0; i < 1000; ++i) {
+			sessions.create("localhost");
+		}
+
+		assertEquals(1000, sessions.size());
+		assertEquals(0, sessions.getEvictionCount());
+	}
+
+	@Test
+	public void testOldestSessionIsEvictedByCount() {
+		ISessionStore sessions = new ConcurrentSessionStore(600, 2, -1);
+		Session a = sessions.create("localhost");
+		Session b = sessions.create("localhost");
+		Session c = sessions.create("localhost");
+
+		assertEquals(2, sessions.size());
+		assertEquals(1, sessions.getEvictionCount());
+		assertNull(sessions.get(a.getId(), "localhost"));
+		assertNotNull(sessions.get(b.getId(), "localhost"));
+		assertNotNull(sessions.get(c.getId(), "localhost"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedSessionIsEvicted() throws InterruptedException {
+		ISessionStore sessions = new ConcurrentSessionStore(5, 2, -1);
+		Session a = sessions.create("localhost");
+		Session b = sessions.create("localhost");
+
+		// the expiry times are kept in ticks of a second
+		Thread.sleep(1100);
+		assertNotNull(sessions.get(a.getId(), "localhost"));
+		Session c = sessions.create("localhost");
+
+		assertEquals(1, sessions.getEvictionCount());
+		assertNull(sessions.get(b.getId(), "localhost"));
+		assertNotNull(sessions.get(a.getId(), "localhost"));
+		assertNotNull(sessions.get(c.getId(), "localhost"));
+	}
+
+	@Test
+	public void testEstimatedSizeFollowsParameters() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		Session session = sessions.create("localhost");
+		long empty = sessions.getEstimatedSize();
+		assertEquals(session.getSize(), empty);
+
+		session.getParameters().put("name", "a long value of the parameter");
+		assertTrue(sessions.getEstimatedSize() > empty);
+		assertEquals(session.getSize(), sessions.getEstimatedSize());
+
+		session.getParameters().remove("name");
+		assertEquals(empty, sessions.getEstimatedSize());
+	}
+
+	@Test
+	public void testSessionsAreEvictedBySize() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		long sessionSize = sessions.create("localhost").getSize();
+
+		ISessionStore bounded = new ConcurrentSessionStore(600, -1, 3 * sessionSize);
+		Session a = bounded.create("localhost");
+		Session b = bounded.create("localhost");
+		Session c = bounded.create("localhost");
+		assertEquals(3, bounded.size());
+
+		Session d = bounded.create("localhost");
+		assertEquals(3, bounded.size());
+		assertEquals(1, bounded.getEvictionCount());
+		assertTrue(bounded.getEstimatedSize() <= 3 * sessionSize);
+		assertNull(bounded.get(a.getId(), "localhost"));
+		assertNotNull(bounded.get(b.getId(), "localhost"));
+		assertNotNull(bounded.get(c.getId(), "localhost"));
+		assertNotNull(bounded.get(d.getId(), "localhost"));
+	}
+
+	@Test
+	public void testGrownSessionsAreEvictedWhenExpiredAreRemoved() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		long sessionSize = sessions.create("localhost").getSize();
+
+		ISessionStore bounded = new ConcurrentSessionStore(600, -1, 3 * sessionSize);
+		Session a = bounded.create("localhost");
+		bounded.create("localhost");
+		Session c = bounded.create("localhost");
+		assertEquals(3, bounded.size());
+
+		// the parameter grows the sessions over the bound without a new session
+		c.getParameters().put("name", "a value long enough to take the place of a session");
+		assertEquals(3, bounded.size());
+		bounded.removeExpired();
+
+		assertEquals(1, bounded.getEvictionCount());
+		assertTrue(bounded.getEstimatedSize() <= 3 * sessionSize);
+		assertNull(bounded.get(a.getId(), "localhost"));
+		assertNotNull(bounded.get(c.getId(), "localhost"));
+	}
+
+}
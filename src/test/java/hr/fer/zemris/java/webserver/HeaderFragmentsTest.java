@@ -0,0 +1,79 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the pre-encoded fragments of answer headers in
+ * {@link HeaderFragments}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class HeaderFragmentsTest {
+
+	@Test
+	public void testDate() {
+		assertEquals("Date: Thu, 01 Jan 1970 00:00:00 GMT\r\n", string(HeaderFragments.date(0)));
+		assertEquals("Date: Tue, 03 Jun 2008 11:05:30 GMT\r\n", string(HeaderFragments.date(1212491130999L)));
+	}
+
+	@Test
+	public void testDateIsCachedForSecond() {
+		byte[] date = HeaderFragments.date(1212491130000L);
+
+		assertSame(date, HeaderFragments.date(1212491130500L));
+		assertSame(date, HeaderFragments.date(1212491130999L));
+		byte[] next = HeaderFragments.date(1212491131000L);
+		assertEquals("Date: Tue, 03 Jun 2008 11:05:31 GMT\r\n", string(next));
+		assertSame(next, HeaderFragments.date(1212491131001L));
+	}
+
+	@Test
+	public void testServer() {
+		assertEquals("Server: SmartHttpServer\r\n", string(HeaderFragments.SERVER));
+	}
+
+	@Test
+	public void testCommonStatusLineIsShared() {
+		byte[] ok = HeaderFragments.statusLine(200, "OK");
+
+		assertEquals("HTTP/1.1 200 OK\r\n", string(ok));
+		assertSame(ok, HeaderFragments.statusLine(200, "OK"));
+		assertEquals("HTTP/1.1 304 Not Modified\r\n", string(HeaderFragments.statusLine(304, "Not Modified")));
+	}
+
+	@Test
+	public void testOtherStatusLine() {
+		assertEquals("HTTP/1.1 418 I'm a teapot\r\n", string(HeaderFragments.statusLine(418, "I'm a teapot")));
+		// the same code with another text is not taken from the common lines
+		assertEquals("HTTP/1.1 200 Fine\r\n", string(HeaderFragments.statusLine(200, "Fine")));
+	}
+
+	@Test
+	public void testContentType() {
+		byte[] html = HeaderFragments.contentType("text/html", "UTF-8");
+
+		assertEquals("Content-Type: text/html; charset=UTF-8\r\n", string(html));
+		assertSame(html, HeaderFragments.contentType("text/html", "UTF-8"));
+		assertEquals("Content-Type: image/png\r\n", string(HeaderFragments.contentType("image/png", "UTF-8")));
+	}
+
+	@Test
+	public void testContentTypeOfOtherEncoding() {
+		byte[] latin = HeaderFragments.contentType("text/plain", "ISO-8859-1");
+
+		assertEquals("Content-Type: text/plain; charset=ISO-8859-1\r\n", string(latin));
+		assertNotEquals(string(latin), string(HeaderFragments.contentType("text/plain", "UTF-8")));
+	}
+
+	private static String string(byte[] bytes) {
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+}
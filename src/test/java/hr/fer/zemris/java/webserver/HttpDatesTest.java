@@ -0,0 +1,64 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of formatting and parsing the dates of HTTP headers with
+ * {@link HttpDates}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class HttpDatesTest {
+
+	@Test
+	public void testFormat() {
+		assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDates.format(0));
+		assertEquals("Tue, 03 Jun 2008 11:05:30 GMT", HttpDates.format(1212491130000L));
+	}
+
+	@Test
+	public void testFormatHasTwoDigitDay() {
+		assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDates.format(784111777000L));
+		assertEquals("Sun, 09 Sep 2001 01:46:40 GMT", HttpDates.format(1000000000000L));
+	}
+
+	@Test
+	public void testFormatDropsMilliseconds() {
+		assertEquals("Tue, 03 Jun 2008 11:05:30 GMT", HttpDates.format(1212491130999L));
+	}
+
+	@Test
+	public void testParse() {
+		assertEquals(784111777000L, HttpDates.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals(0, HttpDates.parse("Thu, 01 Jan 1970 00:00:00 GMT"));
+	}
+
+	@Test
+	public void testParseOneDigitDay() {
+		assertEquals(784111777000L, HttpDates.parse("Sun, 6 Nov 1994 08:49:37 GMT"));
+	}
+
+	@Test
+	public void testParseIgnoresSurroundingSpaces() {
+		assertEquals(784111777000L, HttpDates.parse("  Sun, 06 Nov 1994 08:49:37 GMT "));
+	}
+
+	@Test
+	public void testParseFormatted() {
+		long time = 1700000000000L;
+		assertEquals(time, HttpDates.parse(HttpDates.format(time)));
+	}
+
+	@Test
+	public void testInvalidDate() {
+		assertEquals(-1, HttpDates.parse(""));
+		assertEquals(-1, HttpDates.parse("yesterday"));
+		// the obsolete formats are not supported
+		assertEquals(-1, HttpDates.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+		assertEquals(-1, HttpDates.parse("Sun Nov  6 08:49:37 1994"));
+	}
+
+}
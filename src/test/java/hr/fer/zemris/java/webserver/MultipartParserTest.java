@@ -0,0 +1,325 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of parsing multipart form bodies with {@link MultipartParser}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class MultipartParserTest {
+	/** the smallest buffer the parser accepts */
+	private static final int MIN_BUFFER_SIZE = 4 * MultipartParser.MAX_BOUNDARY_LENGTH;
+	/** numbers of bytes returned by a single read of the body */
+	private static final int[] READ_SIZES = { 1, 2, 3, 7, 64, 100000 };
+
+	@Test
+	public void testFieldsAndFile() throws IOException {
+		String body = "--xyz\r\n"
+				+ "Content-Disposition: form-data; name=\"a\"\r\n\r\n"
+				+ "1\r\n"
+				+ "--xyz\r\n"
+				+ "content-disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+				+ "Content-Type:  text/plain \r\n\r\n"
+				+ "first line\r\nsecond line\r\n"
+				+ "\r\n--xyz--\r\n";
+
+		for (int readSize : READ_SIZES) {
+			List<Part> parts = parse(body, "xyz", MIN_BUFFER_SIZE, readSize);
+
+			assertEquals(2, parts.size());
+			assertEquals("form-data; name=\"a\"", parts.get(0).header.get("content-disposition"));
+			assertEquals("1", parts.get(0).content);
+			assertEquals("text/plain", parts.get(1).header.get("content-type"));
+			assertEquals("first line\r\nsecond line\r\n", parts.get(1).content);
+		}
+	}
+
+	@Test
+	public void testDelimiterSplitAcrossRefills() throws IOException {
+		String boundary = repeat('b', MultipartParser.MAX_BOUNDARY_LENGTH);
+		// the lengths move the delimiter over every position of the buffer end
+		for (int length = 0; length < 2 * MIN_BUFFER_SIZE + 10; ++length) {
+			String content = pattern(length);
+			String body = "--" + boundary + "\r\nContent-Disposition: form-data; name=\"f\"\r\n\r\n" + content + "\r\n--"
+					+ boundary + "\r\nContent-Disposition: form-data; name=\"g\"\r\n\r\nlast\r\n--" + boundary + "--";
+
+			for (int readSize : READ_SIZES) {
+				List<Part> parts = parse(body, boundary, MIN_BUFFER_SIZE, readSize);
+
+				assertEquals(2, parts.size(), "length " + length + ", read size " + readSize);
+				assertEquals(content, parts.get(0).content, "length " + length + ", read size " + readSize);
+				assertEquals("last", parts.get(1).content);
+			}
+		}
+	}
+
+	@Test
+	public void testBeginningsOfDelimiterInContent() throws IOException {
+		String content = "\r\n--xy\r\n-\r--xyz\n\r\n--xyZ\r\n\r\n--x";
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"f\"\r\n\r\n" + content + "\r\n--xyz--\r\n";
+
+		for (int readSize : READ_SIZES) {
+			List<Part> parts = parse(body, "xyz", MIN_BUFFER_SIZE, readSize);
+
+			assertEquals(1, parts.size());
+			assertEquals(content, parts.get(0).content);
+		}
+	}
+
+	@Test
+	public void testContentEndingWithBeginningOfDelimiter() throws IOException {
+		String content = "abc\r\n--xy";
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"f\"\r\n\r\n" + content + "\r\n--xyz--";
+
+		for (int readSize : READ_SIZES) {
+			assertEquals(content, parse(body, "xyz", MIN_BUFFER_SIZE, readSize).get(0).content);
+		}
+	}
+
+	@Test
+	public void testPreambleAndEpilogue() throws IOException {
+		String body = "This is a preamble.\r\n--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n1\r\n"
+				+ "--xyz--\r\nThis is an epilogue.\r\n--xyz\r\n";
+
+		for (int readSize : READ_SIZES) {
+			List<Part> parts = parse(body, "xyz", MIN_BUFFER_SIZE, readSize);
+
+			assertEquals(1, parts.size());
+			assertEquals("1", parts.get(0).content);
+		}
+	}
+
+	@Test
+	public void testEmptyParts() throws IOException {
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n\r\n"
+				+ "--xyz\r\n\r\n\r\n"
+				+ "--xyz--";
+
+		List<Part> parts = parse(body, "xyz", MIN_BUFFER_SIZE, 1);
+
+		assertEquals(2, parts.size());
+		assertEquals("", parts.get(0).content);
+		assertEquals(0, parts.get(1).header.size());
+		assertEquals("", parts.get(1).content);
+	}
+
+	@Test
+	public void testNoParts() throws IOException {
+		assertEquals(0, parse("--xyz--\r\n", "xyz", MIN_BUFFER_SIZE, 1).size());
+	}
+
+	@Test
+	public void testTransportPaddingAfterDelimiter() throws IOException {
+		String body = "--xyz  \t\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n1\r\n--xyz--";
+
+		assertEquals("1", parse(body, "xyz", MIN_BUFFER_SIZE, 1).get(0).content);
+	}
+
+	@Test
+	public void testPartsAreSkipped() throws IOException {
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n" + pattern(1000) + "\r\n"
+				+ "--xyz\r\nContent-Disposition: form-data; name=\"b\"\r\n\r\n2\r\n--xyz--";
+		MultipartParser parser = new MultipartParser(new TrickleInputStream(bytes(body), 5), "xyz",
+				new byte[MIN_BUFFER_SIZE]);
+
+		parser.nextPart();
+		Map<String, String> header = parser.nextPart();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		parser.transferPart(content, Long.MAX_VALUE);
+
+		assertEquals("form-data; name=\"b\"", header.get("content-disposition"));
+		assertEquals("2", content.toString(StandardCharsets.ISO_8859_1));
+		assertNull(parser.nextPart());
+		assertNull(parser.nextPart());
+	}
+
+	@Test
+	public void testTransferLimit() throws IOException {
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n" + pattern(1000) + "\r\n--xyz--";
+		MultipartParser parser = new MultipartParser(new TrickleInputStream(bytes(body), 64), "xyz",
+				new byte[MIN_BUFFER_SIZE]);
+
+		parser.nextPart();
+		assertEquals(-1, parser.transferPart(new ByteArrayOutputStream(), 999));
+	}
+
+	@Test
+	public void testTransferExactlyAtLimit() throws IOException {
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n" + pattern(1000) + "\r\n--xyz--";
+		MultipartParser parser = new MultipartParser(new TrickleInputStream(bytes(body), 64), "xyz",
+				new byte[MIN_BUFFER_SIZE]);
+
+		parser.nextPart();
+		assertEquals(1000, parser.transferPart(new ByteArrayOutputStream(), 1000));
+	}
+
+	@Test
+	public void testBodyEndsInPart() {
+		String body = "--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n1\r\n--xy";
+
+		assertThrows(EOFException.class, () -> parse(body, "xyz", MIN_BUFFER_SIZE, 3));
+	}
+
+	@Test
+	public void testBodyWithoutDelimiter() {
+		assertThrows(EOFException.class, () -> parse("no delimiter here", "xyz", MIN_BUFFER_SIZE, 3));
+	}
+
+	@Test
+	public void testBodyEndsInPartHeader() {
+		assertThrows(EOFException.class,
+				() -> parse("--xyz\r\nContent-Disposition: form-data", "xyz", MIN_BUFFER_SIZE, 3));
+	}
+
+	@Test
+	public void testMalformedDelimiterLine() {
+		String body = "--xyzabc\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\n1\r\n--xyz--";
+
+		assertThrows(IOException.class, () -> parse(body, "xyz", MIN_BUFFER_SIZE, 3));
+	}
+
+	@Test
+	public void testMalformedPartHeader() {
+		String body = "--xyz\r\nno colon\r\n\r\n1\r\n--xyz--";
+
+		assertThrows(IOException.class, () -> parse(body, "xyz", MIN_BUFFER_SIZE, 3));
+	}
+
+	@Test
+	public void testPartHeaderLineLongerThanBuffer() {
+		String body = "--xyz\r\nX-Long: " + repeat('x', MIN_BUFFER_SIZE) + "\r\n\r\n1\r\n--xyz--";
+
+		assertThrows(IOException.class, () -> parse(body, "xyz", MIN_BUFFER_SIZE, 100000));
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		InputStream in = new ByteArrayInputStream(new byte[0]);
+
+		assertThrows(IllegalArgumentException.class, () -> new MultipartParser(in, "", new byte[MIN_BUFFER_SIZE]));
+		assertThrows(IllegalArgumentException.class,
+				() -> new MultipartParser(in, repeat('b', 71), new byte[MIN_BUFFER_SIZE]));
+		assertThrows(IllegalArgumentException.class, () -> new MultipartParser(in, "xyz", new byte[MIN_BUFFER_SIZE - 1]));
+	}
+
+	@Test
+	public void testGetParameter() {
+		String disposition = "form-data; name=\"file\"; filename=\"a; b=c.txt\"";
+
+		assertEquals("file", MultipartParser.getParameter(disposition, "name"));
+		assertEquals("a; b=c.txt", MultipartParser.getParameter(disposition, "filename"));
+		assertNull(MultipartParser.getParameter(disposition, "size"));
+	}
+
+	@Test
+	public void testGetUnquotedParameter() {
+		String contentType = "multipart/form-data; charset=utf-8;boundary= ----WebKitFormBoundary7MA4YWxk ";
+
+		assertEquals("----WebKitFormBoundary7MA4YWxk", MultipartParser.getParameter(contentType, "boundary"));
+		assertEquals("utf-8", MultipartParser.getParameter(contentType, "CHARSET"));
+	}
+
+	@Test
+	public void testGetParameterAfterParameterWithoutValue() {
+		assertEquals("x", MultipartParser.getParameter("form-data; flag; name=x", "name"));
+		assertNull(MultipartParser.getParameter("form-data; flag", "flag"));
+		assertNull(MultipartParser.getParameter("form-data", "name"));
+	}
+
+	@Test
+	public void testGetParameterWithUnclosedQuote() {
+		assertEquals("a.txt", MultipartParser.getParameter("form-data; filename=\"a.txt", "filename"));
+	}
+
+	/**
+	 * Parses all parts of the given body.
+	 */
+	private static List<Part> parse(String body, String boundary, int bufferSize, int readSize) throws IOException {
+		MultipartParser parser = new MultipartParser(new TrickleInputStream(bytes(body), readSize), boundary,
+				new byte[bufferSize]);
+		List<Part> parts = new ArrayList<>();
+		Map<String, String> header;
+		while ((header = parser.nextPart()) != null) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			long length = parser.transferPart(content, Long.MAX_VALUE);
+			assertEquals(content.size(), length);
+			parts.add(new Part(header, content.toString(StandardCharsets.ISO_8859_1)));
+		}
+		return parts;
+	}
+
+	/**
+	 * Returns a string of the given length which does not contain a line
+	 * separator.
+	 */
+	private static String pattern(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; ++i) {
+			sb.append((char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+
+	private static String repeat(char c, int n) {
+		StringBuilder sb = new StringBuilder(n);
+		for (int i = 0; i < n; ++i) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * A parsed part.
+	 */
+	private static class Part {
+		/** header of the part */
+		final Map<String, String> header;
+		/** content of the part */
+		final String content;
+
+		Part(Map<String, String> header, String content) {
+			this.header = header;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * A stream which returns at most a given number of bytes from a single read,
+	 * like a socket on which the body arrives in small packets.
+	 */
+	private static class TrickleInputStream extends ByteArrayInputStream {
+		/** maximum number of bytes returned by a read */
+		private final int readSize;
+
+		TrickleInputStream(byte[] data, int readSize) {
+			super(data);
+			this.readSize = readSize;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, readSize));
+		}
+	}
+
+}
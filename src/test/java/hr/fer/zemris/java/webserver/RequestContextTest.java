@@ -0,0 +1,486 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+/**
+ * Tests of writing answers with {@link RequestContext}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestContextTest {
+	/** the store of the sessions created by the contexts */
+	private ISessionStore sessions = new ConcurrentSessionStore(600);
+	/** the cookies of the answer */
+	private List<RCCookie> cookies = new ArrayList<>();
+	/** the answer */
+	private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	@Test
+	public void testNoSessionWithoutPersistentParameter() throws IOException {
+		RequestContext rc = contextWithoutSession();
+		rc.write("small page");
+		rc.finish();
+
+		assertEquals(0, sessions.size());
+		assertNull(rc.getSessionID());
+		assertFalse(answer().contains("Set-Cookie"));
+	}
+
+	@Test
+	public void testSessionCreatedByPersistentParameter() throws IOException {
+		RequestContext rc = contextWithoutSession();
+		rc.setPersistentParameter("name", "value");
+		rc.write("small page");
+		rc.finish();
+
+		assertEquals(1, sessions.size());
+		Session session = sessions.get(rc.getSessionID(), "localhost");
+		assertNotNull(session);
+		assertEquals("value", session.getParameters().get("name"));
+		assertTrue(answer().contains("Set-Cookie: sid=\"" + rc.getSessionID() + "\""));
+	}
+
+	@Test
+	public void testPersistentParameterAfterFlush() throws IOException {
+		RequestContext rc = contextWithoutSession();
+		rc.write("the beginning of a page");
+		rc.flush();
+
+		rc.setPersistentParameter("name", "value");
+		rc.write("the end of the page");
+		rc.finish();
+
+		Session session = sessions.get(rc.getSessionID(), "localhost");
+		assertEquals("value", session.getParameters().get("name"));
+		assertEquals("value", rc.getPersistentParameter("name"));
+		assertTrue(header().contains("Set-Cookie: sid=\"" + rc.getSessionID() + "\""));
+	}
+
+	@Test
+	public void testPersistentParameterAfterBufferOverflow() throws IOException {
+		RequestContext rc = contextWithoutSession();
+		rc.write(new byte[RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE + 1]);
+
+		rc.setPersistentParameter("name", "value");
+		rc.finish();
+
+		Session session = sessions.get(rc.getSessionID(), "localhost");
+		assertEquals("value", session.getParameters().get("name"));
+		assertTrue(header().contains("Set-Cookie: sid=\"" + rc.getSessionID() + "\""));
+	}
+
+	@Test
+	public void testOneSessionForSeveralParameters() throws IOException {
+		RequestContext rc = contextWithoutSession();
+		rc.setPersistentParameter("a", "1");
+		rc.flush();
+		rc.setPersistentParameter("b", "2");
+		rc.finish();
+
+		assertEquals(1, sessions.size());
+		assertEquals(1, cookies.size());
+	}
+
+	@Test
+	public void testExistingSessionIsUsed() throws IOException {
+		Session session = sessions.create("localhost");
+		RequestContext rc = new RequestContext(out, null, session.getParameters(), cookies, session.getId());
+		rc.write(new byte[RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE + 1]);
+		rc.setPersistentParameter("name", "value");
+		rc.finish();
+
+		assertEquals(1, sessions.size());
+		assertEquals("value", session.getParameters().get("name"));
+		assertFalse(header().contains("Set-Cookie"));
+	}
+
+	@Test
+	public void testHeaderStartsWithStatusDateAndServer() throws IOException {
+		RequestContext rc = persistentContext();
+		long before = System.currentTimeMillis();
+		rc.write("small page");
+		rc.finish();
+		long after = System.currentTimeMillis();
+
+		String[] lines = header().split("\r\n");
+		assertEquals("HTTP/1.1 200 OK", lines[0]);
+		// the second may have changed while the answer was written
+		String date = lines[1];
+		assertTrue(date.equals("Date: " + HttpDates.format(before)) || date.equals("Date: " + HttpDates.format(after)),
+				date);
+		assertEquals("Server: SmartHttpServer", lines[2]);
+		assertEquals("Content-Type: text/html; charset=UTF-8", lines[3]);
+	}
+
+	@Test
+	public void testHeaderOfOtherStatusAndType() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setStatusCode(404);
+		rc.setStatusText("file not found");
+		rc.setMimeType("text/plain");
+		rc.setEncoding("ISO-8859-1");
+		rc.addHeader("X-Test", "value");
+		rc.write("missing");
+		rc.finish();
+
+		String[] lines = header().split("\r\n");
+		assertEquals("HTTP/1.1 404 file not found", lines[0]);
+		assertEquals("Content-Type: text/plain; charset=ISO-8859-1", lines[3]);
+		assertTrue(header().endsWith("X-Test: value\r\n"));
+	}
+
+	@Test
+	public void testBodyThatFitsGetsContentLength() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.write("small ");
+		rc.write("page".getBytes(StandardCharsets.UTF_8));
+		assertEquals(0, out.size());
+		rc.finish();
+
+		assertTrue(header().contains("Content-Length: 10\r\n"));
+		assertFalse(header().contains("Transfer-Encoding"));
+		assertTrue(header().contains("Connection: keep-alive\r\n"));
+		assertEquals("small page", body());
+	}
+
+	@Test
+	public void testFullBufferGetsContentLength() throws IOException {
+		RequestContext rc = persistentContext();
+		byte[] data = data(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE);
+		rc.write(data);
+		rc.finish();
+
+		assertTrue(header().contains("Content-Length: " + data.length + "\r\n"));
+		assertArrayEquals(data, body().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testEmptyBodyGetsContentLength() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.finish();
+
+		assertTrue(header().contains("Content-Length: 0\r\n"));
+		assertEquals("", body());
+	}
+
+	@Test
+	public void testBodyOfHttp10ClientGetsContentLength() throws IOException {
+		RequestContext rc = new RequestContext(out, null, null, cookies, null);
+		rc.setKeepAlive(true);
+		rc.write("small page");
+		rc.finish();
+
+		assertTrue(rc.isKeepAlive());
+		assertTrue(header().contains("Content-Length: 10\r\n"));
+		assertTrue(header().contains("Connection: keep-alive\r\n"));
+	}
+
+	@Test
+	public void testGivenContentLengthIsNotBuffered() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setContentLength(4L);
+		rc.write("page");
+
+		assertTrue(header().contains("Content-Length: 4\r\n"));
+		assertEquals("page", body());
+		rc.finish();
+		assertEquals("page", body());
+	}
+
+	@Test
+	public void testNotModifiedHasNoBodyLength() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setStatusCode(304);
+		rc.setStatusText("Not Modified");
+		rc.finish();
+
+		assertTrue(answer().startsWith("HTTP/1.1 304 Not Modified\r\n"));
+		assertFalse(header().contains("Content-Length"));
+		assertFalse(header().contains("Content-Type"));
+		assertTrue(header().contains("Connection: keep-alive\r\n"));
+		assertEquals("", body());
+	}
+
+	@Test
+	public void testBodyThatFitsIsCompressedWhole() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setCompression(100, mimeType -> mimeType.startsWith("text/"));
+		String page = page(200);
+		rc.write(page);
+		rc.finish();
+
+		assertTrue(header().contains("Content-Encoding: gzip\r\n"));
+		assertTrue(header().contains("Vary: Accept-Encoding\r\n"));
+		assertTrue(header().contains("Content-Length: " + body().length() + "\r\n"));
+		assertTrue(body().length() < page.length());
+		assertEquals(page, gunzip(body().getBytes(StandardCharsets.ISO_8859_1)));
+	}
+
+	@Test
+	public void testLongBodyIsCompressedInChunks() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setCompression(100, mimeType -> mimeType.startsWith("text/"));
+		String page = page(5000);
+		rc.write(page);
+		rc.finish();
+
+		assertTrue(header().contains("Content-Encoding: gzip\r\n"));
+		assertTrue(header().contains("Transfer-Encoding: chunked\r\n"));
+		assertFalse(header().contains("Content-Length"));
+		assertEquals(page, gunzip(dechunk(body())));
+	}
+
+	@Test
+	public void testShortBodyIsNotCompressed() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setCompression(100, mimeType -> mimeType.startsWith("text/"));
+		rc.write("small page");
+		rc.finish();
+
+		assertFalse(header().contains("Content-Encoding"));
+		// a longer page would be compressed, so caches must keep both versions
+		assertTrue(header().contains("Vary: Accept-Encoding\r\n"));
+		assertEquals("small page", body());
+	}
+
+	@Test
+	public void testIncompressibleTypeIsNotCompressed() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setCompression(100, mimeType -> mimeType.startsWith("text/"));
+		rc.setMimeType("image/png");
+		byte[] data = data(1000);
+		rc.write(data);
+		rc.finish();
+
+		assertFalse(header().contains("Content-Encoding"));
+		assertFalse(header().contains("Vary"));
+		assertArrayEquals(data, body().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testBodyIsNotCompressedWithoutAcceptEncoding() throws IOException {
+		RequestContext rc = persistentContext();
+		String page = page(200);
+		rc.write(page);
+		rc.finish();
+
+		assertFalse(header().contains("Content-Encoding"));
+		assertEquals(page, body());
+	}
+
+	@Test
+	public void testTextIsEncoded() throws IOException {
+		RequestContext rc = persistentContext();
+		String text = "Čćžšđ costs 5 € \uD83D\uDE00";
+		rc.write(text);
+		rc.finish();
+
+		byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+		assertTrue(header().contains("Content-Length: " + encoded.length + "\r\n"));
+		assertArrayEquals(encoded, body().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testCharacterSequenceIsEncoded() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.write(new StringBuilder("plain, ").append("naïve"));
+		rc.finish();
+
+		assertEquals("plain, naïve", new String(body().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCharacterAtEndOfBuffer() throws IOException {
+		RequestContext rc = persistentContext();
+		// the last character does not fit in the space left in the response buffer
+		String text = "a".repeat(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE - 1) + "€ and more";
+		rc.write(text);
+		rc.finish();
+
+		assertTrue(header().contains("Transfer-Encoding: chunked\r\n"));
+		assertEquals(text, new String(dechunk(body()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testLongTextIsEncodedAfterHeader() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.write("a".repeat(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE + 1));
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; ++i) {
+			sb.append("žaba ").append(i).append(' ');
+		}
+		String text = sb.toString();
+		rc.write(text);
+		rc.finish();
+
+		assertEquals("a".repeat(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE + 1) + text,
+				new String(dechunk(body()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testUnmappableCharactersAreReplaced() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setEncoding("ISO-8859-1");
+		String text = "café č \uD83D";
+		rc.write(text);
+		rc.finish();
+
+		assertArrayEquals(text.getBytes(StandardCharsets.ISO_8859_1), body().getBytes(StandardCharsets.ISO_8859_1));
+		assertEquals("café ? ?", body());
+	}
+
+	@Test
+	public void testMalformedTextIsReplaced() throws IOException {
+		RequestContext rc = persistentContext();
+		// a lone surrogate is not a character
+		String text = "a\uDE00b";
+		rc.write(text);
+		rc.finish();
+
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), body().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testLongBodyIsChunked() throws IOException {
+		RequestContext rc = persistentContext();
+		byte[] data = data(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE + 1);
+		rc.write(data);
+		rc.finish();
+
+		assertTrue(header().contains("Transfer-Encoding: chunked\r\n"));
+		assertFalse(header().contains("Content-Length"));
+		assertTrue(header().contains("Connection: keep-alive\r\n"));
+		assertTrue(body().endsWith("\r\n0\r\n\r\n"));
+		assertArrayEquals(data, dechunk(body()));
+	}
+
+	@Test
+	public void testBodySpillsToChunksAfterSmallWrites() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.setChunkSize(1024);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() <= RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE; ++i) {
+			String line = "line " + i + "\n";
+			sb.append(line);
+			rc.write(line);
+		}
+		rc.finish();
+
+		assertTrue(header().contains("Transfer-Encoding: chunked\r\n"));
+		assertEquals(sb.toString(), new String(dechunk(body()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testFlushedBodyIsChunked() throws IOException {
+		RequestContext rc = persistentContext();
+		rc.write("the beginning of a page");
+		rc.flush();
+		assertTrue(body().startsWith("17\r\nthe beginning of a page\r\n"));
+
+		rc.write("the end");
+		rc.finish();
+		assertEquals("17\r\nthe beginning of a page\r\n7\r\nthe end\r\n0\r\n\r\n", body());
+	}
+
+	@Test
+	public void testLongBodyWithoutChunksClosesConnection() throws IOException {
+		RequestContext rc = new RequestContext(out, null, null, cookies, null);
+		rc.setKeepAlive(true);
+		// an HTTP/1.0 client does not understand chunks
+		rc.setChunkedEncodingAllowed(false);
+		byte[] data = data(RequestContext.DEFAULT_RESPONSE_BUFFER_SIZE + 1);
+		rc.write(data);
+		rc.finish();
+
+		assertFalse(rc.isKeepAlive());
+		assertTrue(header().contains("Connection: close\r\n"));
+		assertFalse(header().contains("Transfer-Encoding"));
+		assertFalse(header().contains("Content-Length"));
+		assertArrayEquals(data, body().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	/**
+	 * Creates a context of a client without a session, which creates the session
+	 * in the store the way the server does.
+	 */
+	private RequestContext contextWithoutSession() {
+		RequestContext rc = new RequestContext(out, null, null, cookies, null);
+		rc.setSessionFactory(() -> {
+			Session session = sessions.create("localhost");
+			cookies.add(new RCCookie("sid", session.getId(), null, "localhost", "/", true));
+			return session;
+		});
+		return rc;
+	}
+
+	/**
+	 * Creates a context of a persistent connection of an HTTP/1.1 client.
+	 */
+	private RequestContext persistentContext() {
+		RequestContext rc = new RequestContext(out, null, null, cookies, null);
+		rc.setKeepAlive(true);
+		rc.setChunkedEncodingAllowed(true);
+		return rc;
+	}
+
+	private static byte[] data(int length) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; ++i) {
+			data[i] = (byte) i;
+		}
+		return data;
+	}
+
+	private static String page(int lines) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; ++i) {
+			sb.append("<p>line ").append(i).append("</p>\n");
+		}
+		return sb.toString();
+	}
+
+	private static String gunzip(byte[] data) throws IOException {
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static byte[] dechunk(String body) throws IOException {
+		InputStream in = new ChunkedInputStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)));
+		return in.readAllBytes();
+	}
+
+	private String answer() {
+		return out.toString(StandardCharsets.ISO_8859_1);
+	}
+
+	private String header() {
+		String answer = answer();
+		return answer.substring(0, answer.indexOf("\r\n\r\n") + 2);
+	}
+
+	private String body() {
+		String answer = answer();
+		return answer.substring(answer.indexOf("\r\n\r\n") + 4);
+	}
+
+}
@@ -0,0 +1,229 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of parsing request headers with {@link RequestHeader}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestHeaderTest {
+
+	@Test
+	public void testRequestLine() {
+		RequestHeader header = parse("GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+		assertTrue(header.isValid());
+		assertEquals("GET", header.getMethod());
+		assertTrue(header.isMethod("GET"));
+		assertTrue(header.isMethod("get"));
+		assertFalse(header.isMethod("GE"));
+		assertEquals("/index.html", header.getPath());
+		assertNull(header.getQuery());
+		assertEquals("HTTP/1.1", header.getVersion());
+	}
+
+	@Test
+	public void testUnknownTokens() {
+		RequestHeader header = parse("delete /a HTTP/2.0\r\n\r\n");
+
+		assertTrue(header.isValid());
+		assertEquals("delete", header.getMethod());
+		assertTrue(header.isMethod("DELETE"));
+		assertEquals("HTTP/2.0", header.getVersion());
+	}
+
+	@Test
+	public void testQuery() {
+		RequestHeader header = parse("GET /calc?a=1&b=2?c HTTP/1.1\r\n\r\n");
+
+		assertEquals("/calc", header.getPath());
+		assertEquals("a=1&b=2?c", header.getQuery());
+	}
+
+	@Test
+	public void testEmptyQuery() {
+		RequestHeader header = parse("GET /calc? HTTP/1.1\r\n\r\n");
+
+		assertEquals("/calc", header.getPath());
+		assertEquals("", header.getQuery());
+	}
+
+	@Test
+	public void testFields() {
+		RequestHeader header = parse("GET / HTTP/1.1\r\n"
+				+ "Host: localhost:5721\r\n"
+				+ "Accept:text/html\r\n"
+				+ "Cookie: \t sid=\"ABC\"; a=b \t \r\n"
+				+ "X-Empty:\r\n"
+				+ "\r\n");
+
+		assertEquals(4, header.getFieldCount());
+		assertEquals("Host", header.getFieldName(0));
+		assertEquals("localhost:5721", header.getFieldValue(0));
+		assertEquals("text/html", header.getFieldValue(1));
+		assertEquals("sid=\"ABC\"; a=b", header.getFieldValue(2));
+		assertEquals("", header.getFieldValue(3));
+	}
+
+	@Test
+	public void testFieldNamesIgnoreCase() {
+		RequestHeader header = parse("GET / HTTP/1.1\r\ncontent-LENGTH: 12\r\nHost: a\r\nhost: b\r\n\r\n");
+
+		assertEquals("12", header.getField("Content-Length"));
+		assertTrue(header.isFieldName(0, "CONTENT-length"));
+		assertFalse(header.isFieldName(0, "Content-Type"));
+		assertEquals("a", header.getField("HOST"));
+		assertNull(header.getField("Content-Type"));
+	}
+
+	@Test
+	public void testManyFields() {
+		StringBuilder sb = new StringBuilder("GET / HTTP/1.1\r\n");
+		for (int i = 0; i < 40; ++i) {
+			sb.append("X-Field-").append(i).append(": ").append(i).append("\r\n");
+		}
+		RequestHeader header = parse(sb.append("\r\n").toString());
+
+		assertEquals(40, header.getFieldCount());
+		assertEquals("0", header.getField("X-Field-0"));
+		assertEquals("39", header.getField("X-Field-39"));
+	}
+
+	@Test
+	public void testFoldedField() {
+		RequestHeader header = parse("GET / HTTP/1.1\r\n"
+				+ "X-Long: first\r\n"
+				+ " second\r\n"
+				+ "\tthird  \r\n"
+				+ "Host: localhost\r\n"
+				+ "\r\n");
+
+		assertEquals(2, header.getFieldCount());
+		assertEquals("first second\tthird", header.getField("X-Long"));
+		assertEquals("localhost", header.getField("Host"));
+	}
+
+	@Test
+	public void testFoldedLineWithoutField() {
+		RequestHeader header = parse("GET / HTTP/1.1\r\n continued\r\nHost: a\r\n\r\n");
+
+		assertEquals(1, header.getFieldCount());
+		assertEquals("a", header.getField("Host"));
+	}
+
+	@Test
+	public void testLinesWithoutNameOrColonAreIgnored() {
+		RequestHeader header = parse("GET / HTTP/1.1\r\nno colon here\r\n: no name\r\nHost: a\r\n\r\n");
+
+		assertEquals(1, header.getFieldCount());
+		assertEquals("a", header.getField("Host"));
+	}
+
+	@Test
+	public void testLeadingEmptyLines() {
+		RequestHeader header = parse("\r\n\r\n\nGET /a HTTP/1.0\r\nHost: b\r\n\r\n");
+
+		assertTrue(header.isValid());
+		assertEquals("GET", header.getMethod());
+		assertEquals("/a", header.getPath());
+		assertEquals("HTTP/1.0", header.getVersion());
+		assertEquals("b", header.getField("Host"));
+	}
+
+	@Test
+	public void testLineFeedOnlyLines() {
+		RequestHeader header = parse("POST /form HTTP/1.1\nHost: a\nContent-Length: 3\n\n");
+
+		assertTrue(header.isValid());
+		assertEquals("HTTP/1.1", header.getVersion());
+		assertEquals(2, header.getFieldCount());
+		assertEquals("3", header.getField("Content-Length"));
+	}
+
+	@Test
+	public void testHeaderAtOffset() {
+		String before = "xxxx\r\n\r\n";
+		String text = "PUT /b?c=d HTTP/1.1\r\nHost: e\r\n\r\n";
+		byte[] data = bytes(before + text + "GET /next HTTP/1.1\r\n\r\n");
+		RequestHeader header = new RequestHeader();
+
+		header.parse(data, before.length(), before.length() + text.length());
+
+		assertTrue(header.isValid());
+		assertEquals("PUT", header.getMethod());
+		assertEquals("/b", header.getPath());
+		assertEquals("c=d", header.getQuery());
+		assertEquals(1, header.getFieldCount());
+		assertEquals("e", header.getField("Host"));
+		assertEquals(text, header.toString());
+	}
+
+	@Test
+	public void testInvalidRequestLines() {
+		assertFalse(parse("GET /\r\n\r\n").isValid());
+		assertFalse(parse("GET / \r\n\r\n").isValid());
+		assertFalse(parse("GET  / HTTP/1.1\r\n\r\n").isValid());
+		assertFalse(parse(" GET / HTTP/1.1\r\n\r\n").isValid());
+		assertFalse(parse("GET / HTTP/1.1 extra\r\n\r\n").isValid());
+		assertFalse(parse("GET\r\n\r\n").isValid());
+		assertFalse(parse("\r\n\r\n").isValid());
+	}
+
+	@Test
+	public void testReuse() {
+		RequestHeader header = parse("GET /a?b HTTP/1.1\r\nHost: a\r\nX-Long: a\r\n b\r\n\r\n");
+		assertEquals("/a", header.getPath());
+		assertEquals("a b", header.getField("X-Long"));
+
+		byte[] data = bytes("POST /c HTTP/1.0\r\nX-Long: c\r\n\r\n");
+		header.parse(data, 0, data.length);
+
+		assertEquals("POST", header.getMethod());
+		assertEquals("/c", header.getPath());
+		assertNull(header.getQuery());
+		assertEquals("HTTP/1.0", header.getVersion());
+		assertEquals(1, header.getFieldCount());
+		assertNull(header.getField("Host"));
+		assertEquals("c", header.getField("X-Long"));
+	}
+
+	@Test
+	public void testCopyDoesNotShareBytes() {
+		String text = "GET /a?b=c HTTP/1.1\r\nHost: a\r\n\r\n";
+		byte[] data = bytes("\r\n" + text);
+		RequestHeader header = new RequestHeader();
+		header.parse(data, 0, data.length);
+
+		RequestHeader copy = header.copy();
+		Arrays.fill(data, (byte) 'x');
+
+		assertTrue(copy.isValid());
+		assertEquals("GET", copy.getMethod());
+		assertEquals("/a", copy.getPath());
+		assertEquals("b=c", copy.getQuery());
+		assertEquals("a", copy.getField("Host"));
+		assertEquals(text, copy.toString());
+	}
+
+	private static RequestHeader parse(String text) {
+		byte[] data = bytes(text);
+		RequestHeader header = new RequestHeader();
+		header.parse(data, 0, data.length);
+		return header;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+}
@@ -0,0 +1,220 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of decoding url encoded parameters with {@link RequestParameters}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class RequestParametersTest {
+
+	@Test
+	public void testPlainParameters() {
+		RequestParameters parameters = parameters("a=1&b=two&c=");
+
+		assertEquals(3, parameters.size());
+		assertEquals("1", parameters.get("a"));
+		assertEquals("two", parameters.get("b"));
+		assertEquals("", parameters.get("c"));
+		assertNull(parameters.get("d"));
+	}
+
+	@Test
+	public void testPlusIsSpace() {
+		RequestParameters parameters = parameters("full+name=Ivo+Ivi%C4%87+");
+
+		assertEquals("Ivo Ivić ", parameters.get("full name"));
+	}
+
+	@Test
+	public void testPercentEncodedBytes() {
+		RequestParameters parameters = parameters("q=a%2Bb%3dc%26d%25&%41%62=%20");
+
+		assertEquals("a+b=c&d%", parameters.get("q"));
+		assertEquals(" ", parameters.get("Ab"));
+	}
+
+	@Test
+	public void testMultiByteCharacters() {
+		RequestParameters parameters = parameters("city=%C5%BDupanja&emoji=%F0%9F%98%80&mixed=x%E2%82%ACy");
+
+		assertEquals("Županja", parameters.get("city"));
+		assertEquals("😀", parameters.get("emoji"));
+		assertEquals("x€y", parameters.get("mixed"));
+	}
+
+	@Test
+	public void testRawNonAsciiBytesAreDecodedAsUtf8() {
+		// the query string holds the raw bytes of the request
+		String raw = new String("ime=Đuro".getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+
+		assertEquals("Đuro", parameters(raw).get("ime"));
+	}
+
+	@Test
+	public void testMalformedEscapesAreLeftAsTheyAre() {
+		RequestParameters parameters = parameters("a=%&b=%2&c=100%&d=%zz&e=%2g&f=%%41&g=%+");
+
+		assertEquals("%", parameters.get("a"));
+		assertEquals("%2", parameters.get("b"));
+		assertEquals("100%", parameters.get("c"));
+		assertEquals("%zz", parameters.get("d"));
+		assertEquals("%2g", parameters.get("e"));
+		assertEquals("%A", parameters.get("f"));
+		assertEquals("% ", parameters.get("g"));
+	}
+
+	@Test
+	public void testMalformedEscapeAtEndOfLastValue() {
+		assertEquals("x%4", parameters("a=x%4").get("a"));
+		assertEquals("x%", parameters("a=x%").get("a"));
+	}
+
+	@Test
+	public void testInvalidUtf8IsReplaced() {
+		RequestParameters parameters = parameters("a=%FF&b=x%C5&c=%C5y");
+
+		assertEquals("�", parameters.get("a"));
+		assertEquals("x�", parameters.get("b"));
+		assertEquals("�y", parameters.get("c"));
+	}
+
+	@Test
+	public void testParameterWithoutValue() {
+		RequestParameters parameters = parameters("flag&a=1&other%20flag");
+
+		assertTrue(parameters.containsKey("flag"));
+		assertNull(parameters.get("flag"));
+		assertTrue(parameters.containsKey("other flag"));
+		assertEquals("1", parameters.get("a"));
+	}
+
+	@Test
+	public void testEmptyPairsAreIgnored() {
+		RequestParameters parameters = parameters("&&a=1&&&b=2&");
+
+		assertEquals(2, parameters.size());
+		assertEquals("1", parameters.get("a"));
+		assertEquals("2", parameters.get("b"));
+	}
+
+	@Test
+	public void testEmptyName() {
+		RequestParameters parameters = parameters("=1");
+
+		assertEquals("1", parameters.get(""));
+	}
+
+	@Test
+	public void testEqualsSignInValue() {
+		RequestParameters parameters = parameters("expr=a=b==c&x==");
+
+		assertEquals("a=b==c", parameters.get("expr"));
+		assertEquals("=", parameters.get("x"));
+	}
+
+	@Test
+	public void testRepeatedParameter() {
+		RequestParameters parameters = parameters("a=1&b=x&a=2&a&a=3");
+
+		assertEquals("1", parameters.get("a"));
+		assertEquals(Arrays.asList("1", "2", null, "3"), parameters.getAll("a"));
+		assertEquals(Collections.singletonList("x"), parameters.getAll("b"));
+		assertEquals(Collections.emptyList(), parameters.getAll("c"));
+		assertEquals(2, parameters.size());
+	}
+
+	@Test
+	public void testGetAllIsReadOnly() {
+		List<String> values = parameters("a=1&a=2").getAll("a");
+
+		assertThrows(UnsupportedOperationException.class, () -> values.add("3"));
+	}
+
+	@Test
+	public void testOrderOfParameters() {
+		RequestParameters parameters = parameters("c=3&a=1&b=2&a=4");
+
+		assertEquals(Arrays.asList("c", "a", "b"), Arrays.asList(parameters.keySet().toArray()));
+	}
+
+	@Test
+	public void testSeveralEncodedStrings() {
+		RequestParameters parameters = new RequestParameters();
+		parameters.addEncoded("a=1&b=%32");
+		parameters.addEncoded("a=3&c=4");
+
+		assertEquals("1", parameters.get("a"));
+		assertEquals("2", parameters.get("b"));
+		assertEquals("4", parameters.get("c"));
+		assertEquals(Arrays.asList("1", "3"), parameters.getAll("a"));
+	}
+
+	@Test
+	public void testEncodedStringAddedAfterAccess() {
+		RequestParameters parameters = parameters("a=1");
+		assertEquals("1", parameters.get("a"));
+
+		parameters.addEncoded("a=2&b=%41");
+
+		assertEquals("A", parameters.get("b"));
+		assertEquals(Arrays.asList("1", "2"), parameters.getAll("a"));
+	}
+
+	@Test
+	public void testAddKeepsPendingParametersFirst() {
+		RequestParameters parameters = parameters("a=1");
+		parameters.add("a", "2");
+		parameters.add("b", "3");
+
+		assertEquals(Arrays.asList("1", "2"), parameters.getAll("a"));
+		assertEquals("3", parameters.get("b"));
+	}
+
+	@Test
+	public void testPutReplacesAllValues() {
+		RequestParameters parameters = parameters("a=1&a=2");
+
+		assertEquals("1", parameters.put("a", "3"));
+		assertEquals("3", parameters.get("a"));
+		assertEquals(Collections.singletonList("3"), parameters.getAll("a"));
+	}
+
+	@Test
+	public void testRemoveRemovesAllValues() {
+		RequestParameters parameters = parameters("a=1&a=2&b=3");
+
+		assertEquals("1", parameters.remove("a"));
+		assertFalse(parameters.containsKey("a"));
+		assertEquals(Collections.emptyList(), parameters.getAll("a"));
+		assertEquals(1, parameters.size());
+	}
+
+	@Test
+	public void testEntrySet() {
+		RequestParameters parameters = parameters("a=1&b=%20");
+
+		assertEquals(Map.of("a", "1", "b", " "), Map.copyOf(parameters));
+	}
+
+	private static RequestParameters parameters(String encoded) {
+		RequestParameters parameters = new RequestParameters();
+		parameters.addEncoded(encoded);
+		return parameters;
+	}
+
+}
@@ -0,0 +1,168 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of finding expired and least recently used sessions with
+ * {@link SessionExpiryWheel}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class SessionExpiryWheelTest {
+	/** the sessions passed to the action of the wheel */
+	private List<Session> visited = new ArrayList<>();
+
+	@Test
+	public void testSessionExpiresOnlyAfterItsTick() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		Session session = session("a", 25);
+		wheel.schedule(session);
+
+		wheel.advance(20, visited::add);
+		assertTrue(visited.isEmpty());
+		// the tick of the session has not passed yet
+		wheel.advance(29, visited::add);
+		assertTrue(visited.isEmpty());
+
+		wheel.advance(30, visited::add);
+		assertEquals(List.of(session), visited);
+	}
+
+	@Test
+	public void testSessionIsVisitedOnlyOnce() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		wheel.schedule(session("a", 5));
+
+		wheel.advance(10, visited::add);
+		wheel.advance(100, visited::add);
+		wheel.advance(200, visited::add);
+
+		assertEquals(1, visited.size());
+	}
+
+	@Test
+	public void testExtendedSessionIsScheduledAgain() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		Session session = session("a", 25);
+		wheel.schedule(session);
+		session.touch(55);
+
+		wheel.advance(30, visited::add);
+		assertTrue(visited.isEmpty());
+		wheel.advance(50, visited::add);
+		assertTrue(visited.isEmpty());
+
+		wheel.advance(60, visited::add);
+		assertEquals(List.of(session), visited);
+	}
+
+	@Test
+	public void testSessionMoreThanTurnAway() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		// expires in the same slot as a session of the first turn
+		Session far = session("far", 205);
+		Session near = session("near", 45);
+		wheel.schedule(far);
+		wheel.schedule(near);
+
+		wheel.advance(50, visited::add);
+		assertEquals(List.of(near), visited);
+
+		visited.clear();
+		wheel.advance(200, visited::add);
+		assertTrue(visited.isEmpty());
+		wheel.advance(210, visited::add);
+		assertEquals(List.of(far), visited);
+	}
+
+	@Test
+	public void testWheelBehindByMoreThanTurn() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		Session a = session("a", 15);
+		Session b = session("b", 65);
+		wheel.schedule(a);
+		wheel.schedule(b);
+
+		// every slot is visited once
+		wheel.advance(1000, visited::add);
+
+		assertEquals(List.of(a, b), visited);
+	}
+
+	@Test
+	public void testSessionScheduledIntoPassedTick() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		wheel.advance(100, visited::add);
+
+		// already expired, it is visited in the next tick
+		Session session = session("a", 50);
+		wheel.schedule(session);
+		wheel.advance(110, visited::add);
+
+		assertEquals(List.of(session), visited);
+	}
+
+	@Test
+	public void testEvictionOrder() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		Session a = session("a", 15);
+		Session b = session("b", 35);
+		Session c = session("c", 25);
+		wheel.schedule(a);
+		wheel.schedule(b);
+		wheel.schedule(c);
+
+		wheel.evict(() -> visited.size() < 2, visited::add);
+
+		assertEquals(List.of(a, c), visited);
+	}
+
+	@Test
+	public void testExtendedSessionIsNotEvicted() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		Session a = session("a", 15);
+		Session b = session("b", 25);
+		wheel.schedule(a);
+		wheel.schedule(b);
+		// used after the other session, so it is no longer the least recently used
+		a.touch(45);
+
+		wheel.evict(() -> visited.size() < 1, visited::add);
+		assertEquals(List.of(b), visited);
+
+		wheel.evict(() -> visited.size() < 2, visited::add);
+		assertEquals(List.of(b, a), visited);
+	}
+
+	@Test
+	public void testEvictionStopsWhenNotFull() {
+		SessionExpiryWheel wheel = new SessionExpiryWheel(8, 10, 0);
+		wheel.schedule(session("a", 15));
+		wheel.schedule(session("b", 15));
+
+		wheel.evict(() -> false, visited::add);
+		assertTrue(visited.isEmpty());
+
+		wheel.evict(() -> visited.size() < 1, visited::add);
+		assertEquals(1, visited.size());
+	}
+
+	@Test
+	public void testInvalidWheel() {
+		assertThrows(IllegalArgumentException.class, () -> new SessionExpiryWheel(0, 10, 0));
+		assertThrows(IllegalArgumentException.class, () -> new SessionExpiryWheel(8, 0, 0));
+	}
+
+	private static Session session(String id, long validUntil) {
+		return new Session(id, "localhost", validUntil);
+	}
+
+}
@@ -0,0 +1,106 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of generating session IDs with {@link SessionIdGenerator}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class SessionIdGeneratorTest {
+	/** an ID in the URL safe base 64 alphabet */
+	private static final Pattern ID = Pattern.compile("[A-Za-z0-9_-]{" + SessionIdGenerator.ID_LENGTH + "}");
+
+	@Test
+	public void testFormat() {
+		SessionIdGenerator generator = new SessionIdGenerator();
+		assertEquals(20, SessionIdGenerator.ID_LENGTH);
+
+		// more than a batch, so the bytes are drawn again
+		for (int i = 0; i < 1000; ++i) {
+			String id = generator.nextId();
+			assertTrue(ID.matcher(id).matches(), id);
+		}
+	}
+
+	@Test
+	public void testUniqueIds() {
+		SessionIdGenerator generator = new SessionIdGenerator();
+		Set<String> ids = new HashSet<>();
+
+		for (int i = 0; i < 10000; ++i) {
+			assertTrue(ids.add(generator.nextId()));
+		}
+	}
+
+	@Test
+	public void testAllCharactersAreUsed() {
+		SessionIdGenerator generator = new SessionIdGenerator();
+		Set<Character> characters = new HashSet<>();
+
+		for (int i = 0; i < 1000; ++i) {
+			for (char c : generator.nextId().toCharArray()) {
+				characters.add(c);
+			}
+		}
+		assertEquals(64, characters.size());
+	}
+
+	@Test
+	public void testUniqueIdsOfConcurrentThreads() throws InterruptedException {
+		SessionIdGenerator generator = new SessionIdGenerator();
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		int threads = 8;
+		int idsPerThread = 2000;
+
+		List<Thread> started = new ArrayList<>();
+		for (int i = 0; i < threads; ++i) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < idsPerThread; ++j) {
+					String id = generator.nextId();
+					assertTrue(ID.matcher(id).matches(), id);
+					ids.add(id);
+				}
+			});
+			thread.start();
+			started.add(thread);
+		}
+		for (Thread thread : started) {
+			thread.join();
+		}
+
+		assertEquals(threads * idsPerThread, ids.size());
+	}
+
+	@Test
+	public void testUniqueIdsOfShortLivedThreads() throws InterruptedException {
+		SessionIdGenerator generator = new SessionIdGenerator();
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		int threads = 500;
+
+		// like a thread per connection, every thread generates a single ID
+		List<Thread> started = new ArrayList<>();
+		for (int i = 0; i < threads; ++i) {
+			Thread thread = new Thread(() -> ids.add(generator.nextId()));
+			thread.start();
+			started.add(thread);
+		}
+		for (Thread thread : started) {
+			thread.join();
+		}
+
+		assertEquals(threads, ids.size());
+	}
+
+}
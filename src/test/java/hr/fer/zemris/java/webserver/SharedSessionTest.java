@@ -0,0 +1,85 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of sharing a session between pipelined requests with
+ * {@link SharedSession}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class SharedSessionTest {
+
+	@Test
+	public void testParallelRequestsShareOneSession() throws Exception {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		SharedSession shared = new SharedSession(sessions);
+		int requests = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(requests);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Session>> results = new ArrayList<>();
+			for (int i = 0; i < requests; ++i) {
+				results.add(pool.submit(() -> {
+					start.await();
+					return shared.get("localhost");
+				}));
+			}
+			start.countDown();
+
+			Session session = results.get(0).get();
+			for (Future<Session> result : results) {
+				assertSame(session, result.get());
+			}
+			assertEquals(1, sessions.size());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testSessionIsCreatedOnlyWhenNeeded() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		new SharedSession(sessions);
+
+		assertEquals(0, sessions.size());
+	}
+
+	@Test
+	public void testEvictedSessionIsReplaced() {
+		ISessionStore sessions = new ConcurrentSessionStore(600, 1, -1);
+		SharedSession shared = new SharedSession(sessions);
+		Session first = shared.get("localhost");
+
+		// the store holds a single session, so the shared one is evicted
+		sessions.create("localhost");
+		Session second = shared.get("localhost");
+
+		assertNotSame(first, second);
+		assertSame(second, shared.get("localhost"));
+	}
+
+	@Test
+	public void testSessionIsValidOnlyForItsHost() {
+		ISessionStore sessions = new ConcurrentSessionStore(600);
+		SharedSession shared = new SharedSession(sessions);
+		Session first = shared.get("a.localhost");
+		Session second = shared.get("b.localhost");
+
+		assertNotSame(first, second);
+		assertEquals("b.localhost", second.getHost());
+	}
+
+}
@@ -0,0 +1,185 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import hr.fer.zemris.java.webserver.StaticResourceCache.CachedResource;
+
+/**
+ * Tests of caching static files with {@link StaticResourceCache}.
+ *
+ * @author Vedran Kolka
+ *
+ */
+public class StaticResourceCacheTest {
+	/** the directory of the cached files */
+	private Path directory;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("cache-test");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void testMissIsNotRead() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache(1000, 500, 60000);
+		Path file = file("a.txt", 100);
+
+		assertNull(cache.get(file));
+		assertNull(cache.peek(file));
+	}
+
+	@Test
+	public void testLoadedFileIsHit() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache(1000, 500, 60000);
+		Path file = file("a.txt", 100);
+
+		assertNull(cache.get(file));
+		CachedResource loaded = cache.load(file, attributes(file));
+
+		assertNotNull(loaded);
+		assertEquals(100, loaded.getSize());
+		assertEquals(ByteBuffer.wrap(Files.readAllBytes(file)), loaded.getContent());
+		assertSame(loaded, cache.get(file));
+		assertSame(loaded, cache.peek(file));
+	}
+
+	@Test
+	public void testLargeFileIsNotCached() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache(1000, 500, 60000);
+		Path file = file("a.txt", 501);
+
+		assertNull(cache.load(file, attributes(file)));
+		assertNull(cache.get(file));
+	}
+
+	@Test
+	public void testDirectoryIsNotCached() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache(1000, 500, 60000);
+
+		assertNull(cache.load(directory, attributes(directory)));
+	}
+
+	@Test
+	public void testModifiedFileIsDropped() throws IOException {
+		StaticResourceCache cache = new StaticResourceCache(1000, 500, 0);
+		Path file = file("a.txt", 100);
+		cache.load(file, attributes(file));
+
+		Files.write(file, new byte[101]);
+
+		assertNull(cache.get(file));
+		assertNull(cache.peek(file));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedFileIsEvicted() throws Exception {
+		StaticResourceCache cache = new StaticResourceCache(1000, 500, 60000);
+		// the times of the accesses are in milliseconds
+		Path a = request(cache, file("a.txt", 300));
+		Thread.sleep(5);
+		Path b = request(cache, file("b.txt", 300));
+		Thread.sleep(5);
+		Path c = request(cache, file("c.txt", 300));
+		Thread.sleep(5);
+		assertNotNull(cache.get(a));
+
+		// requested more often than the file it evicts
+		Path d = file("d.txt", 300);
+		for (int i = 0; i < 4; ++i) {
+			cache.get(d);
+		}
+		assertNotNull(cache.load(d, attributes(d)));
+
+		assertNull(cache.peek(b));
+		assertNotNull(cache.peek(a));
+		assertNotNull(cache.peek(c));
+		assertNotNull(cache.peek(d));
+	}
+
+	@Test
+	public void testRarelyRequestedFileIsNotAdmitted() throws Exception {
+		StaticResourceCache cache = new StaticResourceCache(1000, 800, 60000);
+		Path a = request(cache, file("a.txt", 600));
+		for (int i = 0; i < 8; ++i) {
+			assertNotNull(cache.get(a));
+		}
+
+		Path b = file("b.txt", 600);
+		assertNull(cache.get(b));
+		assertNull(cache.load(b, attributes(b)));
+		assertNotNull(cache.peek(a));
+
+		// once it is requested more often, it replaces the other file, which was
+		// accessed in an earlier millisecond
+		Thread.sleep(5);
+		for (int i = 0; i < 14; ++i) {
+			cache.get(b);
+		}
+		assertNotNull(cache.load(b, attributes(b)));
+		assertNull(cache.peek(a));
+	}
+
+	@Test
+	public void testPeekIsNotCountedAsRequest() throws Exception {
+		StaticResourceCache cache = new StaticResourceCache(1000, 800, 60000);
+		Path a = request(cache, file("a.txt", 600));
+		for (int i = 0; i < 2; ++i) {
+			assertNotNull(cache.get(a));
+		}
+
+		Path b = file("b.txt", 600);
+		for (int i = 0; i < 10; ++i) {
+			assertNull(cache.peek(b));
+		}
+		cache.get(b);
+
+		assertNull(cache.load(b, attributes(b)));
+	}
+
+	/**
+	 * Requests the file with the given path from the cache, loading it as the
+	 * server does on a miss.
+	 */
+	private static Path request(StaticResourceCache cache, Path file) throws IOException {
+		if (cache.get(file) == null) {
+			assertNotNull(cache.load(file, attributes(file)));
+		}
+		return file;
+	}
+
+	private Path file(String name, int size) throws IOException {
+		byte[] content = new byte[size];
+		Arrays.fill(content, (byte) name.charAt(0));
+		return Files.write(directory.resolve(name), content);
+	}
+
+	private static BasicFileAttributes attributes(Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class);
+	}
+
+}